@@ -0,0 +1,254 @@
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Bytes allocated per call on the rules hot paths, checked against recorded budgets over a fixed
+// corpus of positions. Exits with status 1 when any path goes over its budget, so a change that
+// quietly adds garbage to move generation shows up before it ships. Lower a budget whenever a
+// path gets cheaper, to lock the gain in; --record prints the measured figures to start from.
+// Usage: java AllocationRegressionSuite [--record] [perftDepth]
+public class AllocationRegressionSuite {
+    // Bytes per call recorded on JDK 17 with C2, in the order getLegalMoves, isKingInCheck,
+    // movePiece, playerHasLegalMoves and perft per node. Object sizes follow the compressed oops
+    // and compressed class pointers flags, so there is one row per combination; a VM whose
+    // flags cannot be read is measured but not enforced. Re-record on another JDK.
+    private static final String[] CONFIGURATIONS = {
+        "compressed oops, compressed class pointers",
+        "uncompressed oops, compressed class pointers",
+        "compressed oops, uncompressed class pointers",
+        "uncompressed oops, uncompressed class pointers",
+    };
+    private static final long[][] RECORDED = {
+        {55_558, 1_741, 64_307, 54_827, 4_256},
+        {69_746, 2_165, 81_236, 68_937, 5_415},
+        {70_864, 2_230, 81_884, 69_890, 5_410},
+        {83_181, 2_598, 96_702, 82_170, 6_432},
+    };
+    // The figures repeat to the byte from run to run and across collectors, but C1-only code
+    // (TieredStopAtLevel=1) does no escape analysis and allocates up to 1.7% more. Each budget is the
+    // recorded figure plus 2%, then plus 16 bytes, the smallest object.
+    private static final int MARGIN_PERCENT = 2;
+    // The per-node figure depends on the depth, so it is only checked at this one
+    private static final int BUDGETED_PERFT_DEPTH = 4;
+
+    // Opening lines in coordinate notation, chosen to cover castled kings on both wings,
+    // en passant, open files and Chess960 castling rights
+    private static final String[] LINES = {
+        "",
+        "e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7 f1e1 b7b5 a4b3 d7d6 c2c3 e8g8",
+        "e2e4 c7c5 g1f3 d7d6 d2d4 c5d4 f3d4 g8f6 b1c3 a7a6 c1e3 e7e5 d4b3 c8e6 f2f3 f8e7 d1d2 e8g8 e1c1",
+        "d2d4 d7d5 c2c4 e7e6 b1c3 g8f6 c1g5 f8e7 e2e3 e8g8 g1f3 b8d7 c4d5 e6d5 f1d3 c7c6 d1c2 f8e8 e1g1",
+        "e2e4 g8f6 e4e5 d7d5",
+    };
+    private static final int[] CHESS960_STARTS = {0, 959};
+    private static final int[] RANDOM_GAME_PLIES = {60, 100};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final long THREAD_ID = Thread.currentThread().getId();
+
+    private static long overhead;
+
+    private static class Position {
+        final ChessBoard board;
+        final ChessPiece.Color toMove;
+
+        Position(ChessBoard board) {
+            this.board = board;
+            this.toMove = board.getPly() % 2 == 0 ? ChessPiece.Color.WHITE : ChessPiece.Color.BLACK;
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean record = args.length > 0 && args[0].equals("--record");
+        int perftDepth = args.length > (record ? 1 : 0) ? Integer.parseInt(args[record ? 1 : 0]) : BUDGETED_PERFT_DEPTH;
+
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM does not report per-thread allocation");
+            System.exit(2);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        List<Position> corpus = corpus();
+
+        // Warm up so the figures are for compiled code, and find what reading the counter costs
+        for (int i = 0; i < 3; i++) {
+            measureAll(corpus, 2);
+        }
+        long start = allocated();
+        overhead = allocated() - start;
+
+        long[] measured = measureAll(corpus, perftDepth);
+        String[] names = {"getLegalMoves", "isKingInCheck", "movePiece", "playerHasLegalMoves", "perft " + perftDepth + " per node"};
+        String configuration = configuration();
+        int row = Arrays.asList(CONFIGURATIONS).indexOf(configuration);
+        long[] budgets = new long[names.length];
+        for (int i = 0; i < budgets.length; i++) {
+            boolean enforced = row >= 0 && (i < 4 || perftDepth == BUDGETED_PERFT_DEPTH);
+            budgets[i] = enforced ? RECORDED[row][i] * (100 + MARGIN_PERCENT) / 100 + 16 : Long.MAX_VALUE;
+        }
+
+        System.out.printf("%d positions, perft depth %d, %s%n", corpus.size(), perftDepth, configuration);
+        if (row < 0) {
+            System.out.println("No budgets recorded for this VM configuration; figures are not enforced");
+        }
+        System.out.printf("%-26s %12s %12s%n", "Path", "bytes/call", "budget");
+        boolean failed = false;
+        for (int i = 0; i < names.length; i++) {
+            boolean over = measured[i] > budgets[i];
+            failed |= over && !record;
+            System.out.printf("%-26s %12d %12s%s%n", names[i], measured[i],
+                budgets[i] == Long.MAX_VALUE ? "-" : String.valueOf(budgets[i]), over ? "  OVER BUDGET" : "");
+        }
+
+        if (failed) {
+            System.out.println("FAILED: allocation went over budget");
+            System.exit(1);
+        }
+        System.out.println(record ? "Recorded figures above; budgets were not enforced" : "PASSED");
+    }
+
+    private static List<Position> corpus() {
+        List<Position> corpus = new ArrayList<>();
+        for (String line : LINES) {
+            ChessBoard board = new ChessBoard(false);
+            for (String move : line.isEmpty() ? new String[0] : line.split(" ")) {
+                ChessGame.Position from = Notation.parseSquare(move.substring(0, 2));
+                ChessGame.Position to = Notation.parseSquare(move.substring(2, 4));
+                if (!board.movePiece(from, to)) {
+                    throw new IllegalStateException("Illegal corpus move " + move + " in: " + line);
+                }
+            }
+            corpus.add(new Position(board));
+        }
+        for (int number : CHESS960_STARTS) {
+            corpus.add(new Position(ChessBoard.chess960(number)));
+        }
+
+        // Random games reach the sparse, open positions that opening lines do not
+        Random random = new Random(40);
+        for (int plies : RANDOM_GAME_PLIES) {
+            ChessBoard board = new ChessBoard(false);
+            ChessPiece.Color color = ChessPiece.Color.WHITE;
+            for (int ply = 0; ply < plies; ply++) {
+                int[] moves = board.getAllLegalMoves(color);
+                if (moves.length == 0) break;
+                board.makeMove(moves[random.nextInt(moves.length)]);
+                color = color.opposite();
+            }
+            corpus.add(new Position(board));
+        }
+        return corpus;
+    }
+
+    // Average bytes per call of each path over the corpus. Each call starts from a position the
+    // board has not cached, as it would after a real move.
+    private static long[] measureAll(List<Position> corpus, int perftDepth) {
+        long[] bytes = new long[5];
+        long[] calls = new long[5];
+
+        for (Position position : corpus) {
+            ChessBoard board = position.board;
+
+            for (int row = 0; row < 8; row++) {
+                for (int col = 0; col < 8; col++) {
+                    ChessPiece piece = board.getPieceAt(row, col);
+                    if (piece == null || piece.getColor() != position.toMove) continue;
+                    ChessGame.Position square = ChessGame.Position.of(row, col);
+                    invalidate(board);
+                    long start = allocated();
+                    board.getLegalMoves(square);
+                    bytes[0] += allocated() - start - overhead;
+                    calls[0]++;
+                }
+            }
+
+            invalidate(board);
+            long start = allocated();
+            board.isKingInCheck(position.toMove);
+            bytes[1] += allocated() - start - overhead;
+            calls[1]++;
+
+            int[] moves = board.getAllLegalMoves(position.toMove).clone();
+            for (int move : moves) {
+                // movePiece takes no promotion piece, so try each promotion square once
+                int promotion = ChessBoard.movePromotion(move);
+                if (promotion != 0 && promotion != ChessBoard.QUEEN) continue;
+
+                ChessGame.Position from = ChessBoard.moveFrom(move);
+                ChessGame.Position to = ChessBoard.moveTo(move);
+                invalidate(board);
+                start = allocated();
+                board.movePiece(from, to);
+                bytes[2] += allocated() - start - overhead;
+                calls[2]++;
+                board.undoMove();
+            }
+
+            invalidate(board);
+            start = allocated();
+            board.playerHasLegalMoves(position.toMove);
+            bytes[3] += allocated() - start - overhead;
+            calls[3]++;
+
+            start = allocated();
+            calls[4] += perft(board, position.toMove, perftDepth);
+            bytes[4] += allocated() - start - overhead;
+        }
+
+        long[] perCall = new long[5];
+        for (int i = 0; i < perCall.length; i++) {
+            perCall[i] = Math.max(0, bytes[i] / Math.max(1, calls[i]));
+        }
+        return perCall;
+    }
+
+    // Leaves the board in the same position with cold caches, as after a real move
+    private static void invalidate(ChessBoard board) {
+        if (board.canUndo()) {
+            board.undoMove();
+            board.redoMove();
+        } else {
+            // At the first ply white is to move
+            board.makeMove(board.getAllLegalMoves(ChessPiece.Color.WHITE)[0]);
+            board.undoMove();
+        }
+    }
+
+    private static long perft(ChessBoard board, ChessPiece.Color color, int depth) {
+        int[] moves = board.getAllLegalMoves(color);
+        if (depth <= 1) return moves.length;
+
+        moves = moves.clone();
+        ChessPiece.Color opponent = color.opposite();
+        long nodes = 0;
+        for (int move : moves) {
+            board.makeMove(move);
+            nodes += perft(board, opponent, depth - 1);
+            board.undoMove();
+        }
+        return nodes;
+    }
+
+    // Which row of budgets applies, or a description with no row when the flags cannot be read
+    private static String configuration() {
+        try {
+            HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            if (vm == null) return "unknown VM";
+            boolean oops = Boolean.parseBoolean(vm.getVMOption("UseCompressedOops").getValue());
+            boolean classPointers = Boolean.parseBoolean(vm.getVMOption("UseCompressedClassPointers").getValue());
+            return (oops ? "compressed oops, " : "uncompressed oops, ")
+                + (classPointers ? "compressed class pointers" : "uncompressed class pointers");
+        } catch (IllegalArgumentException e) {
+            // A VM without one of the flags
+            return "unknown VM";
+        }
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(THREAD_ID);
+    }
+}
@@ -0,0 +1,122 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Side panel that analyses the current position in the background and shows the evaluation,
+// depth, search speed and best lines. The engine reports thousands of times per second; the
+// panel keeps only the latest report and refreshes a few times per second.
+class AnalysisPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    private static final int LINES = 3;
+    private static final int MAX_DEPTH = 32;
+    private static final long REFRESH_MILLIS = 100;
+
+    // A report from one search; reports of abandoned searches are dropped on arrival
+    private static final class Report {
+        final int search;
+        final ChessPiece.Color toMove;
+        final Engine.Info info;
+
+        Report(int search, ChessPiece.Color toMove, Engine.Info info) {
+            this.search = search;
+            this.toMove = toMove;
+            this.info = info;
+        }
+    }
+
+    private final JLabel evalLabel = new JLabel(" ");
+    private final JLabel depthLabel = new JLabel(" ");
+    private final JLabel speedLabel = new JLabel(" ");
+    private final JTextArea linesArea = new JTextArea(LINES * 2, 24);
+    private final Consumer<int[]> arrowListener;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chess-analysis");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final AtomicInteger currentSearch = new AtomicInteger();
+    private final EdtCoalescer<Report> reports = new EdtCoalescer<>(REFRESH_MILLIS, this::show);
+    private Engine engine;
+
+    // The arrow listener receives the first move of each line, best first, on the event thread
+    AnalysisPanel(Consumer<int[]> arrowListener) {
+        super(new BorderLayout(5, 5));
+        this.arrowListener = arrowListener;
+        setBorder(BorderFactory.createTitledBorder("Analysis"));
+
+        JPanel summary = new JPanel(new GridLayout(3, 1));
+        evalLabel.setFont(evalLabel.getFont().deriveFont(Font.BOLD, 18f));
+        summary.add(evalLabel);
+        summary.add(depthLabel);
+        summary.add(speedLabel);
+        add(summary, BorderLayout.NORTH);
+
+        linesArea.setEditable(false);
+        linesArea.setLineWrap(true);
+        linesArea.setWrapStyleWord(true);
+        add(new JScrollPane(linesArea), BorderLayout.CENTER);
+    }
+
+    // Starts analysing a position, abandoning any earlier search. The board must be a copy the
+    // caller no longer touches. May be called from any thread.
+    public synchronized void analyze(ChessBoard board, ChessPiece.Color toMove) {
+        int search = cancel();
+        Engine next = new Engine(board, toMove);
+        engine = next;
+        reports.submit(new Report(search, toMove, new Engine.Info(0, 0, 0, List.of())));
+        executor.execute(() -> next.search(MAX_DEPTH, LINES, info -> reports.submit(new Report(search, toMove, info))));
+    }
+
+    // Stops the search and clears the panel, e.g. when the game is over
+    public synchronized void clear() {
+        int search = cancel();
+        reports.submit(new Report(search, ChessPiece.Color.WHITE, null));
+    }
+
+    private int cancel() {
+        if (engine != null) {
+            engine.stop();
+            engine = null;
+        }
+        return currentSearch.incrementAndGet();
+    }
+
+    private void show(Report report) {
+        if (report.search != currentSearch.get()) return;
+
+        Engine.Info info = report.info;
+        if (info == null || info.lines.isEmpty()) {
+            evalLabel.setText(info == null ? " " : "...");
+            depthLabel.setText(" ");
+            speedLabel.setText(" ");
+            linesArea.setText("");
+            arrowListener.accept(new int[0]);
+            return;
+        }
+
+        // Scores are shown from White's point of view
+        int sign = report.toMove == ChessPiece.Color.WHITE ? 1 : -1;
+        evalLabel.setText(Engine.formatScore(sign * info.lines.get(0).score));
+        depthLabel.setText("Depth " + info.depth);
+        speedLabel.setText(String.format("%,d nodes, %,d n/s", info.nodes, info.nodesPerSecond()));
+
+        StringBuilder text = new StringBuilder();
+        int[] arrows = new int[info.lines.size()];
+        for (int i = 0; i < info.lines.size(); i++) {
+            Engine.Line line = info.lines.get(i);
+            if (i > 0) text.append('\n');
+            text.append(Engine.formatScore(sign * line.score)).append("  ").append(line.san);
+            arrows[i] = line.moves[0];
+        }
+        linesArea.setText(text.toString());
+        linesArea.setCaretPosition(0);
+        arrowListener.accept(arrows);
+    }
+}
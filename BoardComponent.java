@@ -0,0 +1,146 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Custom-painted chess board. Squares are drawn from a GlyphAtlas, and each update repaints only
+// the squares whose piece or highlight changed since the last one.
+class BoardComponent extends JComponent {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_SQUARE_SIZE = 60;
+    private static final Font COORDINATE_FONT = new Font("Sans-Serif", Font.PLAIN, 10);
+
+    private Color lightSquareColor;
+    private Color darkSquareColor;
+    private boolean showCoordinates = false;
+    private GlyphAtlas atlas;
+    private int[] arrows = new int[0];
+
+    // What each square shows: piece code in bits 0-3, background in bits 4-5
+    private final int[] tiles = new int[64];
+
+    BoardComponent(Color lightSquareColor, Color darkSquareColor, Consumer<ChessGame.Position> clickListener) {
+        this.lightSquareColor = lightSquareColor;
+        this.darkSquareColor = darkSquareColor;
+        setPreferredSize(new Dimension(8 * DEFAULT_SQUARE_SIZE, 8 * DEFAULT_SQUARE_SIZE));
+        setOpaque(true);
+
+        for (int square = 0; square < 64; square++) {
+            tiles[square] = squareBackground(square) << 4;
+        }
+
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int size = squareSize();
+                int col = e.getX() / size;
+                int row = e.getY() / size;
+                if (row < 8 && col < 8) {
+                    clickListener.accept(ChessGame.Position.of(row, col));
+                }
+            }
+        });
+    }
+
+    public void setColors(Color lightColor, Color darkColor) {
+        this.lightSquareColor = lightColor;
+        this.darkSquareColor = darkColor;
+        repaint();
+    }
+
+    public void setShowCoordinates(boolean showCoordinates) {
+        this.showCoordinates = showCoordinates;
+        repaint();
+    }
+
+    // Move codes drawn as arrows over the board, strongest first, e.g. an engine's best moves
+    public void setArrows(int[] moves) {
+        if (java.util.Arrays.equals(arrows, moves)) return;
+        arrows = moves.clone();
+        repaint();
+    }
+
+    // Brings the board in line with the position and highlights, repainting changed squares only;
+    // returns how many squares changed. The piece codes are taken off the event thread (see
+    // GlyphAtlas.pieceCodes).
+    public int update(int[] pieceCodes, ChessGame.Position selected, List<ChessGame.Position> legalMoves) {
+        int[] next = new int[64];
+        for (int square = 0; square < 64; square++) {
+            next[square] = pieceCodes[square] | squareBackground(square) << 4;
+        }
+        if (selected != null) {
+            next[selected.row * 8 + selected.col] = (next[selected.row * 8 + selected.col] & 15) | GlyphAtlas.SELECTED << 4;
+            for (ChessGame.Position move : legalMoves) {
+                next[move.row * 8 + move.col] = (next[move.row * 8 + move.col] & 15) | GlyphAtlas.LEGAL_MOVE << 4;
+            }
+        }
+
+        int size = squareSize();
+        int changed = 0;
+        for (int square = 0; square < 64; square++) {
+            if (next[square] != tiles[square]) {
+                tiles[square] = next[square];
+                repaint((square % 8) * size, (square / 8) * size, size, size);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        ChessEvents.BoardPaint event = new ChessEvents.BoardPaint();
+        event.begin();
+        int size = squareSize();
+        boolean rebuilt = atlas == null || !atlas.matches(size, lightSquareColor, darkSquareColor);
+        if (rebuilt) {
+            atlas = new GlyphAtlas(size, lightSquareColor, darkSquareColor);
+        }
+
+        // Fill any space outside the board, then paint only squares inside the clip
+        g.setColor(getBackground() != null ? getBackground() : Color.LIGHT_GRAY);
+        if (getWidth() > 8 * size) g.fillRect(8 * size, 0, getWidth() - 8 * size, getHeight());
+        if (getHeight() > 8 * size) g.fillRect(0, 8 * size, getWidth(), getHeight() - 8 * size);
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        int firstCol = Math.max(0, clip.x / size);
+        int lastCol = Math.min(7, (clip.x + clip.width - 1) / size);
+        int firstRow = Math.max(0, clip.y / size);
+        int lastRow = Math.min(7, (clip.y + clip.height - 1) / size);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                int tile = tiles[row * 8 + col];
+                atlas.drawTile(g, col * size, row * size, tile & 15, tile >>> 4);
+
+                if (showCoordinates && (tile & 15) == 0) {
+                    g.setFont(COORDINATE_FONT);
+                    g.setColor(Color.GRAY);
+                    g.drawString(String.valueOf((char) ('a' + col)) + (char) ('8' - row), col * size + 3, row * size + 12);
+                }
+            }
+        }
+
+        for (int i = arrows.length - 1; i >= 0; i--) {
+            GlyphAtlas.drawArrow((Graphics2D) g, arrows[i], size, i == 0 ? 160 : 90);
+        }
+
+        if (event.shouldCommit()) {
+            event.paintedSquares = (lastRow - firstRow + 1) * (lastCol - firstCol + 1);
+            event.arrows = arrows.length;
+            event.atlasRebuilt = rebuilt;
+            event.commit();
+        }
+    }
+
+    private int squareSize() {
+        return Math.max(1, Math.min(getWidth(), getHeight()) / 8);
+    }
+
+    private static int squareBackground(int square) {
+        return (square / 8 + square % 8) % 2 == 0 ? GlyphAtlas.LIGHT : GlyphAtlas.DARK;
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Chess960 start positions by Scharnagl number, 0-959; 518 is the standard setup. The back
+// ranks are worked out once into a table, so a number is a lookup and any setup can be
+// reproduced from its number.
+final class Chess960 {
+    static final int POSITIONS = 960;
+    static final int STANDARD = 518;
+
+    // Knight files among the five squares left after bishops and queen, by the number's last digit
+    private static final int[][] KNIGHTS = {
+        {0, 1}, {0, 2}, {0, 3}, {0, 4}, {1, 2}, {1, 3}, {1, 4}, {2, 3}, {2, 4}, {3, 4}
+    };
+
+    private static final byte[][] BACK_RANKS = new byte[POSITIONS][];
+    private static final Map<Integer, Integer> NUMBERS = new HashMap<>();
+
+    static {
+        for (int number = 0; number < POSITIONS; number++) {
+            byte[] rank = build(number);
+            BACK_RANKS[number] = rank;
+            NUMBERS.put(key(rank), number);
+        }
+    }
+
+    private Chess960() {
+    }
+
+    // Piece types (ChessBoard.PAWN..KING) of the back rank from the a-file to the h-file
+    public static byte[] backRank(int number) {
+        if (number < 0 || number >= POSITIONS) {
+            throw new IllegalArgumentException("Chess960 positions are numbered 0-959: " + number);
+        }
+        return BACK_RANKS[number].clone();
+    }
+
+    // The number of a back rank, or -1 if it is not a Chess960 start
+    public static int number(byte[] backRank) {
+        Integer number = NUMBERS.get(key(backRank));
+        return number == null ? -1 : number;
+    }
+
+    public static int random(Random random) {
+        return random.nextInt(POSITIONS);
+    }
+
+    // Letters of the back rank, e.g. "RNBQKBNR" for 518
+    public static String name(int number) {
+        StringBuilder name = new StringBuilder();
+        for (byte type : backRank(number)) {
+            name.append(" PNBRQK".charAt(type));
+        }
+        return name.toString();
+    }
+
+    private static byte[] build(int number) {
+        byte[] rank = new byte[8];
+        rank[(number % 4) * 2 + 1] = ChessBoard.BISHOP; // light-squared bishop on b, d, f or h
+        number /= 4;
+        rank[(number % 4) * 2] = ChessBoard.BISHOP;     // dark-squared bishop on a, c, e or g
+        number /= 4;
+        place(rank, number % 6, ChessBoard.QUEEN);
+        number /= 6;
+
+        int[] knights = KNIGHTS[number];
+        place(rank, knights[1], ChessBoard.KNIGHT);
+        place(rank, knights[0], ChessBoard.KNIGHT);
+
+        // The last three squares take rook, king, rook from left to right
+        place(rank, 0, ChessBoard.ROOK);
+        place(rank, 0, ChessBoard.KING);
+        place(rank, 0, ChessBoard.ROOK);
+        return rank;
+    }
+
+    // Puts a piece on the index-th empty square from the left
+    private static void place(byte[] rank, int index, int type) {
+        for (int file = 0; file < 8; file++) {
+            if (rank[file] == 0 && index-- == 0) {
+                rank[file] = (byte) type;
+                return;
+            }
+        }
+        throw new IllegalStateException("No empty square " + index);
+    }
+
+    private static int key(byte[] rank) {
+        int key = 0;
+        for (byte type : rank) {
+            key = key << 3 | (type & 7);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+// Counts legal move trees (perft) from all 960 start positions in parallel and checks the move
+// generator on the way: every castle must leave king and rook on their g/f or c/d squares and
+// the king out of check, and every undo must restore the position hash. Position 518 is also
+// counted as standard chess against the published totals.
+// Usage: java Chess960PerftSweep [depth] [threads]
+public class Chess960PerftSweep {
+    // Standard chess perft totals from the initial position, by depth
+    private static final long[] STANDARD_PERFT = {1, 20, 400, 8902, 197281, 4865609};
+
+    private final AtomicLong castles = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        checkTable();
+        System.out.println("Start position table: 960 distinct back ranks, numbers round trip");
+
+        Chess960PerftSweep sweep = new Chess960PerftSweep();
+        if (depth < STANDARD_PERFT.length) {
+            long standard = sweep.perft(new ChessBoard(false), ChessPiece.Color.WHITE, depth);
+            if (standard != STANDARD_PERFT[depth]) {
+                throw new IllegalStateException("Standard perft(" + depth + ") = " + standard
+                    + ", expected " + STANDARD_PERFT[depth]);
+            }
+            System.out.printf("Standard chess perft(%d) = %d%n", depth, standard);
+        }
+
+        long[] nodes = new long[Chess960.POSITIONS];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            pool.submit(() -> IntStream.range(0, Chess960.POSITIONS).parallel().forEach(number -> {
+                ChessBoard board = ChessBoard.chess960(number);
+                if (board.getStartPosition() != number) {
+                    throw new IllegalStateException("Position " + number + " reports start " + board.getStartPosition());
+                }
+                nodes[number] = sweep.perft(board, ChessPiece.Color.WHITE, depth);
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+
+        long total = 0;
+        int lowest = 0;
+        int highest = 0;
+        for (int number = 0; number < nodes.length; number++) {
+            total += nodes[number];
+            if (nodes[number] < nodes[lowest]) lowest = number;
+            if (nodes[number] > nodes[highest]) highest = number;
+        }
+        if (depth < STANDARD_PERFT.length && nodes[Chess960.STANDARD] != STANDARD_PERFT[depth]) {
+            throw new IllegalStateException("Position 518 perft(" + depth + ") = " + nodes[Chess960.STANDARD]);
+        }
+
+        System.out.printf("Depth %d on %d threads: %d nodes, %d castles checked%n", depth, threads, total, sweep.castles.get());
+        System.out.printf("Fewest: #%d %s with %d; most: #%d %s with %d%n",
+            lowest, Chess960.name(lowest), nodes[lowest], highest, Chess960.name(highest), nodes[highest]);
+        System.out.printf("%.2f s, %.0f positions/s, %.0f nodes/s%n",
+            nanos / 1e9, Chess960.POSITIONS / (nanos / 1e9), total / (nanos / 1e9));
+    }
+
+    private static void checkTable() {
+        Set<String> seen = new HashSet<>();
+        for (int number = 0; number < Chess960.POSITIONS; number++) {
+            byte[] rank = Chess960.backRank(number);
+            if (Chess960.number(rank) != number || !seen.add(Chess960.name(number))) {
+                throw new IllegalStateException("Position " + number + " does not round trip");
+            }
+
+            int king = -1;
+            int rooks = 0;
+            int bishopColors = 0;
+            for (int file = 0; file < 8; file++) {
+                if (rank[file] == ChessBoard.KING) king = file;
+                if (rank[file] == ChessBoard.ROOK && king < 0) rooks++;
+                if (rank[file] == ChessBoard.BISHOP) bishopColors |= 1 << (file & 1);
+            }
+            if (rooks != 1 || bishopColors != 3) {
+                throw new IllegalStateException("Position " + number + " is not a Chess960 start: " + Chess960.name(number));
+            }
+        }
+        if (!Chess960.name(Chess960.STANDARD).equals("RNBQKBNR")) {
+            throw new IllegalStateException("Position 518 is " + Chess960.name(Chess960.STANDARD));
+        }
+    }
+
+    private long perft(ChessBoard board, ChessPiece.Color color, int depth) {
+        if (depth == 0) return 1;
+
+        // The cached move array is replaced once a move is made, so keep our own copy
+        int[] moves = board.getAllLegalMoves(color).clone();
+        ChessPiece.Color opponent = color.opposite();
+        long hash = board.getPositionHash();
+        long nodes = 0;
+
+        // Leaf moves are counted in bulk; only castles are played at the last ply, to check them
+        if (depth == 1) {
+            nodes = moves.length;
+        }
+
+        for (int move : moves) {
+            ChessGame.Position from = ChessBoard.moveFrom(move);
+            ChessGame.Position to = ChessBoard.moveTo(move);
+            ChessPiece piece = board.getPieceAt(from);
+            ChessPiece target = board.getPieceAt(to);
+            boolean castle = piece instanceof King
+                && (Math.abs(from.col - to.col) > 1 || (target instanceof Rook && target.getColor() == color));
+            if (depth == 1 && !castle) continue;
+
+            if (!board.makeMove(move)) {
+                throw new IllegalStateException("Generated move rejected: " + name(from, to));
+            }
+            if (castle) {
+                checkCastle(board, from.row, to.col > from.col, color);
+            }
+            if (depth > 1) {
+                nodes += perft(board, opponent, depth - 1);
+            }
+            board.undoMove();
+
+            // Pieces are shared instances, so the moved and captured ones must be back as the same objects
+            if (board.getPositionHash() != hash || board.getPieceAt(from) != piece || board.getPieceAt(to) != target) {
+                throw new IllegalStateException("Undo did not restore the position after " + name(from, to));
+            }
+        }
+        return nodes;
+    }
+
+    private static String name(ChessGame.Position from, ChessGame.Position to) {
+        return Notation.squareName(from) + Notation.squareName(to);
+    }
+
+    private void checkCastle(ChessBoard board, int row, boolean kingside, ChessPiece.Color color) {
+        ChessPiece king = board.getPieceAt(row, kingside ? 6 : 2);
+        ChessPiece rook = board.getPieceAt(row, kingside ? 5 : 3);
+        if (!(king instanceof King) || !(rook instanceof Rook) || king.getColor() != color || rook.getColor() != color) {
+            throw new IllegalStateException("Castling left king and rook misplaced");
+        }
+        if (board.isKingInCheck(color)) {
+            throw new IllegalStateException("Castled into check");
+        }
+        castles.incrementAndGet();
+    }
+}
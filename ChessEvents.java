@@ -0,0 +1,151 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight recorder events around the expensive paths. Each event times the work between begin()
+// and commit(); the fields are only filled in when shouldCommit() says the event will be kept, so
+// with no recording running an event costs a few instructions.
+//
+// The per-position rules events are off in an ordinary recording, because an engine search
+// produces tens of thousands of them a second. The JIT does not always remove an unused event
+// object, so the rules create these only while their type is enabled, which keeps the hot paths
+// within AllocationRegressionSuite's budgets. GameSession does the same for its check after
+// every move, which a server runs for thousands of games. chess.jfc turns everything on next to the usual
+// JVM events:
+//   java -XX:StartFlightRecording:settings=chess.jfc,filename=chess.jfr ChessGame
+// or, in a running JVM: jcmd <pid> JFR.start settings=/path/to/chess.jfc
+final class ChessEvents {
+    static final EventType MOVE_GENERATION = EventType.getEventType(MoveGeneration.class);
+    static final EventType CHECK_DETECTION = EventType.getEventType(CheckDetection.class);
+    static final EventType GAME_END_CHECK = EventType.getEventType(GameEndCheck.class);
+
+    private ChessEvents() {
+    }
+
+    @Name("chess.MoveGeneration")
+    @Label("Legal Move Generation")
+    @Description("All legal moves of one side generated for a position not seen since its last change")
+    @Category({"Chess", "Rules"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class MoveGeneration extends Event {
+        @Label("Position Hash")
+        long positionHash;
+
+        @Label("White To Move")
+        boolean white;
+
+        @Label("Legal Moves")
+        int moves;
+    }
+
+    @Name("chess.CheckDetection")
+    @Label("Check Detection")
+    @Description("Whether a king is attacked, computed for a position not seen since its last change")
+    @Category({"Chess", "Rules"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class CheckDetection extends Event {
+        @Label("Position Hash")
+        long positionHash;
+
+        @Label("White King")
+        boolean white;
+
+        @Label("In Check")
+        boolean inCheck;
+    }
+
+    @Name("chess.GameEndCheck")
+    @Label("Game End Check")
+    @Description("Checkmate, stalemate and draw detection after a move or a jump in the game, including the listeners told of the result")
+    @Category({"Chess", "Game"})
+    @StackTrace(false)
+    static final class GameEndCheck extends Event {
+        @Label("Position Hash")
+        long positionHash;
+
+        @Label("Ply")
+        int ply;
+
+        @Label("Legal Moves")
+        int legalMoves;
+
+        @Label("In Check")
+        boolean inCheck;
+
+        @Label("Outcome")
+        @Description("Why the game ended, or null if it goes on")
+        String outcome;
+    }
+
+    @Name("chess.GameSave")
+    @Label("Game Save")
+    @Category({"Chess", "File I/O"})
+    static final class GameSave extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("chess.GameLoad")
+    @Label("Game Load")
+    @Category({"Chess", "File I/O"})
+    static final class GameLoad extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Position Hash")
+        long positionHash;
+
+        @Label("Ply")
+        int ply;
+    }
+
+    @Name("chess.BoardUpdate")
+    @Label("Board Update")
+    @Description("Applying a new board view on the event thread, which schedules repaints of changed squares")
+    @Category({"Chess", "Rendering"})
+    @StackTrace(false)
+    static final class BoardUpdate extends Event {
+        @Label("Ply")
+        int ply;
+
+        @Label("Changed Squares")
+        int changedSquares;
+
+        @Label("Highlighted Moves")
+        int highlightedMoves;
+    }
+
+    @Name("chess.BoardPaint")
+    @Label("Board Paint")
+    @Description("One paint of the board component, limited to the squares inside the clip")
+    @Category({"Chess", "Rendering"})
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static final class BoardPaint extends Event {
+        @Label("Painted Squares")
+        int paintedSquares;
+
+        @Label("Arrows")
+        int arrows;
+
+        @Label("Atlas Rebuilt")
+        boolean atlasRebuilt;
+    }
+}
@@ -2,33 +2,82 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.List;
-import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ChessGame {
-    private Color lightSquareColor = new Color(240, 217, 183);
-    private Color darkSquareColor = new Color(180, 136, 99);
+    private Color lightSquareColor = GlyphAtlas.Theme.DEFAULT.light;
+    private Color darkSquareColor = GlyphAtlas.Theme.DEFAULT.dark;
     private boolean showCoordinates = false;
     private static final String TITLE = "Chess Game";
     private JFrame frame;
-    private ChessBoard board;
-    private JPanel boardPanel;
+    private volatile GameSession session;
+    private BoardComponent boardView;
+    private AnalysisPanel analysisPanel;
+    private volatile boolean analysisEnabled = false;
     private JLabel statusLabel;
-    private JButton[][] squares;
     private JLabel whiteTimerLabel;
     private JLabel blackTimerLabel;
-    private Timer whiteTimer;
-    private Timer blackTimer;
-    private int whiteTimeRemaining = 10 * 60; // 10 minutes in seconds
-    private int blackTimeRemaining = 10 * 60; // 10 minutes in seconds
-    private boolean isWhiteTurn = true;
-    private boolean gameActive = false;
-    private JButton selectedButton = null;
+    private JSlider plySlider;
+    private volatile TimeControl timeControl = TimeControl.parse("10"); // 10 minutes each
+    private volatile long lastDisplayedWhite = -1;
+    private volatile long lastDisplayedBlack = -1;
+    private volatile GameJournal journal;
+    private JProgressBar ioProgress;
+    
+    // Selection state; only touched on the rules thread
     private Position selectedPosition = null;
     private List<Position> possibleMoves = new ArrayList<>();
     
+    // The view last shown on the event thread
+    private BoardView shownView;
+    
+    // Clicks, moves and navigation run here in the order they were made, so rules work never
+    // blocks the event thread. The results reach the event thread at most once per frame.
+    private final ExecutorService rulesExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chess-rules");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final EdtCoalescer<BoardView> viewUpdates = new EdtCoalescer<>(EdtCoalescer.FRAME_MILLIS, this::applyView);
+    private final EdtCoalescer<GameClock> clockUpdates = new EdtCoalescer<>(EdtCoalescer.FRAME_MILLIS, this::updateTimerLabels);
+    
+    // Save and load run here, one at a time, so file I/O never blocks the event thread
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chess-file-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int IO_CHUNK_SIZE = 64 * 1024;
+    
+    // Journal writes run here in the order they were made, since session listeners are called on
+    // the clock thread or with the session locked and must not wait for the disk
+    private final ExecutorService journalExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chess-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Metrics.Histogram SAVE_NANOS = Metrics.histogram("chess_io_save_nanos",
+        "Time to serialize and write a saved game");
+    private static final Metrics.Histogram SAVE_BYTES = Metrics.histogram("chess_io_save_bytes",
+        "Size of saved games");
+    private static final Metrics.Histogram LOAD_NANOS = Metrics.histogram("chess_io_load_nanos",
+        "Time to read and deserialize a saved game");
+    private static final Metrics.Histogram LOAD_BYTES = Metrics.histogram("chess_io_load_bytes",
+        "Size of loaded games");
+    
     public static void main(String[] args) {
+        Metrics.export();
         SwingUtilities.invokeLater(() -> new ChessGame().initializeGui());
     }
     
@@ -36,56 +85,13 @@ public class ChessGame {
         this.lightSquareColor = lightColor;
         this.darkSquareColor = darkColor;
         
-        boolean white = true;
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                if (white) {
-                    squares[row][col].setBackground(lightColor);
-                } else {
-                    squares[row][col].setBackground(darkColor);
-                }
-                white = !white;
-            }
-            white = !white;
-        }
-        
-        // Preserve selection highlighting
-        if (selectedPosition != null) {
-            squares[selectedPosition.row][selectedPosition.col].setBackground(new Color(173, 216, 230));
-            
-            for (Position move : possibleMoves) {
-                squares[move.row][move.col].setBackground(new Color(144, 238, 144));
-            }
-        }
+        // The board rebuilds its glyph atlas once for the new theme on the next paint
+        boardView.setColors(lightColor, darkColor);
     }
     
     private void toggleBoardCoordinates() {
         showCoordinates = !showCoordinates;
-        
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                JButton square = squares[row][col];
-                ChessPiece piece = board != null ? board.getPieceAt(new Position(row, col)) : null;
-                
-                // Reset the button text based on what's on the square
-                if (piece != null) {
-                    square.setText(piece.getSymbol());
-                } else if (showCoordinates) {
-                    char file = (char)('a' + col);
-                    char rank = (char)('8' - row);
-                    square.setText(String.valueOf(file) + rank);
-                    square.setFont(new Font("Sans-Serif", Font.PLAIN, 10));
-                    square.setForeground(Color.GRAY);
-                } else {
-                    square.setText("");
-                }
-            }
-        }
-        
-        // Ensure piece symbols are properly displayed after toggling coordinates
-        if (board != null) {
-            updateBoardDisplay();
-        }
+        boardView.setShowCoordinates(showCoordinates);
     }
 
     private void initializeGui() {
@@ -112,42 +118,94 @@ public class ChessGame {
         timerPanel.add(blackTimerLabel);
         statusPanel.add(timerPanel, BorderLayout.SOUTH);
         
+        // Ply slider for reviewing the game
+        plySlider = new JSlider(0, 0, 0);
+        plySlider.addChangeListener(e -> {
+            if (shownView != null && plySlider.getValue() != shownView.ply) {
+                navigateTo(plySlider.getValue());
+            }
+        });
+        statusPanel.add(plySlider, BorderLayout.NORTH);
+        
+        // Progress of background save and load
+        ioProgress = new JProgressBar(0, 100);
+        ioProgress.setStringPainted(true);
+        ioProgress.setVisible(false);
+        statusPanel.add(ioProgress, BorderLayout.EAST);
+        
         frame.add(statusPanel, BorderLayout.SOUTH);
         
-        // Initialize board panel
-        boardPanel = new JPanel(new GridLayout(8, 8));
-        squares = new JButton[8][8];
+        // Initialize board
+        boardView = new BoardComponent(lightSquareColor, darkSquareColor, this::handleSquareClick);
         
-        // Create chess board squares
-        boolean white = true;
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                JButton square = new JButton();
-                square.setMargin(new Insets(0, 0, 0, 0));
-                square.setPreferredSize(new Dimension(60, 60));
-                
-                final int finalRow = row;
-                final int finalCol = col;
-                square.addActionListener(e -> handleSquareClick(new Position(finalRow, finalCol)));
-                
-                if (white) {
-                    square.setBackground(new Color(240, 217, 183));
-                } else {
-                    square.setBackground(new Color(180, 136, 99));
-                }
-                
-                squares[row][col] = square;
-                boardPanel.add(square);
-                white = !white;
-            }
-            white = !white;
-        }
+        frame.add(boardView, BorderLayout.CENTER);
         
-        frame.add(boardPanel, BorderLayout.CENTER);
+        // Analysis panel, shown from the Options menu
+        analysisPanel = new AnalysisPanel(boardView::setArrows);
         
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+        
+        openJournal();
+    }
+    
+    // Opens the autosave journal and offers to resume a game interrupted by a crash
+    private void openJournal() {
+        try {
+            journal = GameJournal.open(GameJournal.defaultDirectory());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                journalExecutor.shutdown();
+                try {
+                    journalExecutor.awaitTermination(1, TimeUnit.SECONDS);
+                    journal.close();
+                } catch (IOException | InterruptedException ignored) {
+                    // Nothing left to report to at shutdown
+                }
+            }));
+            
+            GameState state = journal.recover();
+            if (state != null) {
+                int choice = JOptionPane.showConfirmDialog(frame,
+                    "An unfinished game was found. Resume it?",
+                    "Resume Game",
+                    JOptionPane.YES_NO_OPTION);
+                if (choice == JOptionPane.YES_OPTION) {
+                    restoreGame(state);
+                } else {
+                    journal.clear();
+                }
+            }
+        } catch (IOException e) {
+            journal = null;
+            statusLabel.setText("Autosave unavailable: " + e.getMessage());
+        }
+    }
+    
+    private interface JournalWrite {
+        void apply(GameJournal journal) throws IOException;
+    }
+    
+    // Queues the write for the journal thread
+    private void writeJournal(JournalWrite write) {
+        if (journal == null) return;
+        
+        journalExecutor.execute(() -> {
+            GameJournal current = journal;
+            if (current == null) return;
+            try {
+                write.apply(current);
+            } catch (IOException e) {
+                journal = null;
+                SwingUtilities.invokeLater(() -> statusLabel.setText("Autosave disabled: " + e.getMessage()));
+            }
+        });
+    }
+    
+    // Folds the journal into a fresh snapshot of the current game; runs on the rules thread
+    private void compactJournal() {
+        GameState state = session.snapshot();
+        writeJournal(j -> j.compact(state));
     }
     
     private JMenuBar createMenuBar() {
@@ -162,6 +220,40 @@ public class ChessGame {
         JMenuItem newChess960 = new JMenuItem("New Chess960 Game");
         newChess960.addActionListener(e -> startNewGame(true));
         
+        JMenuItem numberedChess960 = new JMenuItem("New Chess960 Game by Number...");
+        numberedChess960.addActionListener(e -> {
+            String input = JOptionPane.showInputDialog(frame,
+                "Enter the start position number (0-959, 518 is the standard setup):",
+                "New Chess960 Game",
+                JOptionPane.QUESTION_MESSAGE);
+            if (input == null) return;
+            try {
+                int number = Integer.parseInt(input.trim());
+                if (number < 0 || number >= Chess960.POSITIONS) {
+                    throw new NumberFormatException();
+                }
+                rulesExecutor.execute(() -> {
+                    attachSession(GameSession.chess960(number, timeControl));
+                    compactJournal();
+                });
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(frame,
+                    "Please enter a number from 0 to 959.",
+                    "Invalid Input",
+                    JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        
+        JMenuItem undoMove = new JMenuItem("Undo Move");
+        undoMove.addActionListener(e -> {
+            if (shownView != null) navigateTo(shownView.ply - 1);
+        });
+        
+        JMenuItem redoMove = new JMenuItem("Redo Move");
+        redoMove.addActionListener(e -> {
+            if (shownView != null) navigateTo(shownView.ply + 1);
+        });
+        
         JMenuItem saveGame = new JMenuItem("Save Game");
         saveGame.addActionListener(e -> saveGame());
         
@@ -173,6 +265,10 @@ public class ChessGame {
         
         gameMenu.add(newStandardGame);
         gameMenu.add(newChess960);
+        gameMenu.add(numberedChess960);
+        gameMenu.addSeparator();
+        gameMenu.add(undoMove);
+        gameMenu.add(redoMove);
         gameMenu.addSeparator();
         gameMenu.add(saveGame);
         gameMenu.add(loadGame);
@@ -183,23 +279,28 @@ public class ChessGame {
         JMenuItem timerSettings = new JMenuItem("Timer Settings");
         timerSettings.addActionListener(e -> {
             String input = JOptionPane.showInputDialog(frame, 
-                "Enter time in minutes for each player:", 
+                "Enter the time control, e.g. 10 (minutes), 5+3 (increment),\n" +
+                "3d2 (delay) or 40/90+30,30+30 (stages):", 
                 "Timer Settings", 
                 JOptionPane.QUESTION_MESSAGE);
+            if (input == null) return;
             try {
-                int minutes = Integer.parseInt(input);
-                if (minutes > 0) {
-                    whiteTimeRemaining = minutes * 60;
-                    blackTimeRemaining = minutes * 60;
-                    updateTimerLabels();
-                    JOptionPane.showMessageDialog(frame, 
-                        "Timer set to " + minutes + " minutes per player.",
-                        "Timer Updated", 
-                        JOptionPane.INFORMATION_MESSAGE);
+                TimeControl control = TimeControl.parse(input);
+                timeControl = control;
+                if (session == null) {
+                    updateTimerLabels(new GameClock(control));
                 }
+                rulesExecutor.execute(() -> {
+                    GameSession current = session;
+                    if (current != null) current.setTimeControl(control);
+                });
+                JOptionPane.showMessageDialog(frame, 
+                    "Time control set to " + timeControl + ".",
+                    "Timer Updated", 
+                    JOptionPane.INFORMATION_MESSAGE);
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(frame,
-                    "Please enter a valid number of minutes.",
+                    "Please enter a valid time control.",
                     "Invalid Input",
                     JOptionPane.ERROR_MESSAGE);
             }
@@ -207,28 +308,18 @@ public class ChessGame {
         
         JMenu boardColorMenu = new JMenu("Board Colors");
         
-        JMenuItem defaultColors = new JMenuItem("Default");
-        defaultColors.addActionListener(e -> {
-            updateBoardColors(new Color(240, 217, 183), new Color(180, 136, 99));
-        });
-        
-        JMenuItem blueTheme = new JMenuItem("Blue Theme");
-        blueTheme.addActionListener(e -> {
-            updateBoardColors(new Color(220, 230, 245), new Color(75, 115, 153));
-        });
-        
-        JMenuItem greenTheme = new JMenuItem("Green Theme");
-        greenTheme.addActionListener(e -> {
-            updateBoardColors(new Color(235, 240, 208), new Color(118, 150, 86));
-        });
-        
-        boardColorMenu.add(defaultColors);
-        boardColorMenu.add(blueTheme);
-        boardColorMenu.add(greenTheme);
+        for (GlyphAtlas.Theme theme : GlyphAtlas.Theme.values()) {
+            JMenuItem themeItem = new JMenuItem(theme.label);
+            themeItem.addActionListener(e -> updateBoardColors(theme.light, theme.dark));
+            boardColorMenu.add(themeItem);
+        }
         
         JMenuItem toggleCoordinates = new JMenuItem("Show Coordinates");
         toggleCoordinates.addActionListener(e -> toggleBoardCoordinates());
         
+        JCheckBoxMenuItem showAnalysis = new JCheckBoxMenuItem("Show Analysis");
+        showAnalysis.addActionListener(e -> toggleAnalysis(showAnalysis.isSelected()));
+        
         JMenuItem about = new JMenuItem("About");
         about.addActionListener(e -> {
             JOptionPane.showMessageDialog(frame,
@@ -240,6 +331,7 @@ public class ChessGame {
         optionsMenu.add(timerSettings);
         optionsMenu.add(boardColorMenu);
         optionsMenu.add(toggleCoordinates);
+        optionsMenu.add(showAnalysis);
         optionsMenu.addSeparator();
         optionsMenu.add(about);
         
@@ -249,107 +341,204 @@ public class ChessGame {
         return menuBar;
     }
     
-    private void startNewGame(boolean isChess960) {
-        stopTimers();
-        board = new ChessBoard(isChess960);
-        updateBoardDisplay();
+    private void toggleAnalysis(boolean enabled) {
+        analysisEnabled = enabled;
+        if (enabled) {
+            frame.add(analysisPanel, BorderLayout.EAST);
+            rulesExecutor.execute(this::restartAnalysis);
+        } else {
+            frame.remove(analysisPanel);
+            analysisPanel.clear();
+        }
+        frame.pack();
+    }
+    
+    // Analyses the position now on the board; runs on the rules thread after every change of position
+    private void restartAnalysis() {
+        if (!analysisEnabled) return;
         
-        whiteTimeRemaining = 10 * 60;
-        blackTimeRemaining = 10 * 60;
-        updateTimerLabels();
+        GameSession current = session;
+        if (current == null || current.getResult() != null || current.isAwaitingPromotion()) {
+            analysisPanel.clear();
+        } else {
+            analysisPanel.analyze(current.getBoard().copy(), current.sideToMove());
+        }
+    }
+    
+    private void startNewGame(boolean isChess960) {
+        rulesExecutor.execute(() -> {
+            attachSession(new GameSession(isChess960, timeControl));
+            compactJournal();
+        });
+    }
+    
+    // Makes the session the one shown in the window and starts its clock; runs on the rules thread
+    private void attachSession(GameSession newSession) {
+        if (session != null) {
+            session.stop();
+        }
+        session = newSession;
+        session.addListener(new SessionListener());
         
-        isWhiteTurn = true;
-        gameActive = true;
-        statusLabel.setText("White's turn");
+        selectedPosition = null;
+        possibleMoves.clear();
+        session.start();
         
-        startTimer();
+        publishView();
+        restartAnalysis();
     }
     
-private void updateBoardDisplay() {
-    for (int row = 0; row < 8; row++) {
-        for (int col = 0; col < 8; col++) {
-            ChessPiece piece = board.getPieceAt(new Position(row, col));
-            JButton square = squares[row][col];
-            
-            // Reset background color
-            boolean isLightSquare = (row + col) % 2 == 0;
-            square.setBackground(isLightSquare ? lightSquareColor : darkSquareColor);
-            
-            if (piece != null) {
-                square.setText(piece.getSymbol());
-                square.setForeground(piece.getColor() == ChessPiece.Color.WHITE ? Color.WHITE : Color.BLACK);
-                Font font = new Font("Serif", Font.BOLD, 40);
-                square.setFont(font);
-            } else if (showCoordinates) {
-                char file = (char)('a' + col);
-                char rank = (char)('8' - row);
-                square.setText(String.valueOf(file) + rank);
-                square.setFont(new Font("Sans-Serif", Font.PLAIN, 10));
-                square.setForeground(Color.GRAY);
-            } else {
-                square.setText("");
+    // The window's view of session events. Move events arrive on the rules thread, clock and
+    // flag events on the clock thread.
+    private class SessionListener implements GameSession.Listener {
+        @Override
+        public void moveMade(GameSession source, Position from, Position to) {
+            writeJournal(j -> j.appendMove(from, to));
+        }
+        
+        @Override
+        public void promotionRequired(GameSession source, Position square) {
+            SwingUtilities.invokeLater(() -> promotePawn(source));
+        }
+        
+        @Override
+        public void pawnPromoted(GameSession source, Position square, ChessPiece piece) {
+            writeJournal(j -> j.appendPromotion(square, piece));
+        }
+        
+        @Override
+        public void clockChanged(GameSession source, long whiteMillis, long blackMillis) {
+            long white = displayedTime(whiteMillis);
+            long black = displayedTime(blackMillis);
+            if (white != lastDisplayedWhite || black != lastDisplayedBlack) {
+                lastDisplayedWhite = white;
+                lastDisplayedBlack = black;
+                clockUpdates.submit(source.getClock());
+                journalClock(whiteMillis, blackMillis);
             }
         }
+        
+        @Override
+        public void gameOver(GameSession source, GameSession.Result result, String reason) {
+            writeJournal(GameJournal::clear);
+            rulesExecutor.execute(() -> {
+                if (source != session) return;
+                publishView();
+                restartAnalysis();
+            });
+        }
     }
     
-    // Highlight selected square and possible moves
-    if (selectedPosition != null) {
-        squares[selectedPosition.row][selectedPosition.col].setBackground(new Color(173, 216, 230)); // Light blue
-        
-        for (Position move : possibleMoves) {
-            squares[move.row][move.col].setBackground(new Color(144, 238, 144)); // Light green
+    // What the window shows of a position, taken on the rules thread
+    private static final class BoardView {
+        final int[] pieceCodes;
+        final Position selected;
+        final List<Position> legalMoves;
+        final int ply;
+        final int historyLength;
+        final String status;
+        
+        BoardView(int[] pieceCodes, Position selected, List<Position> legalMoves, int ply, int historyLength, String status) {
+            this.pieceCodes = pieceCodes;
+            this.selected = selected;
+            this.legalMoves = legalMoves;
+            this.ply = ply;
+            this.historyLength = historyLength;
+            this.status = status;
         }
     }
-
-        
-        // Highlight selected square and possible moves
-        if (selectedPosition != null) {
-            squares[selectedPosition.row][selectedPosition.col].setBackground(new Color(173, 216, 230)); // Light blue
+    
+    // Queues the current position and selection for the event thread; runs on the rules thread
+    private void publishView() {
+        GameSession current = session;
+        ChessBoard board = current.getBoard();
+        viewUpdates.submit(new BoardView(GlyphAtlas.pieceCodes(board), selectedPosition, new ArrayList<>(possibleMoves),
+                                         board.getPly(), board.getHistoryLength(), statusText(current)));
+        clockUpdates.submit(current.getClock());
+    }
+    
+    private static String statusText(GameSession session) {
+        String side = session.isWhiteTurn() ? "White" : "Black";
+        if (session.getResult() != null) {
+            return session.getResultReason();
+        } else if (session.getBoard().isKingInCheck(session.sideToMove())) {
+            return side + " is in check!";
+        } else {
+            return side + "'s turn";
+        }
+    }
+    
+    private void applyView(BoardView view) {
+        ChessEvents.BoardUpdate event = new ChessEvents.BoardUpdate();
+        event.begin();
+        shownView = view;
+        int changedSquares = boardView.update(view.pieceCodes, view.selected, view.legalMoves);
+        statusLabel.setText(view.status);
+        
+        // Keep the ply slider in step with the board without triggering a seek, and leave the
+        // knob alone while it is being dragged
+        int value = plySlider.getValueIsAdjusting() ? plySlider.getValue() : view.ply;
+        plySlider.getModel().setRangeProperties(value, 0, 0, view.historyLength, plySlider.getValueIsAdjusting());
+        
+        if (event.shouldCommit()) {
+            event.ply = view.ply;
+            event.changedSquares = changedSquares;
+            event.highlightedMoves = view.legalMoves.size();
+            event.commit();
+        }
+    }
+    
+    // Moves through the recorded game, e.g. for undo, redo or the ply slider
+    private void navigateTo(int ply) {
+        rulesExecutor.execute(() -> {
+            if (session == null) return;
+            session.seek(ply);
+            
+            selectedPosition = null;
+            possibleMoves.clear();
+            publishView();
+            restartAnalysis();
             
-            for (Position move : possibleMoves) {
-                squares[move.row][move.col].setBackground(new Color(144, 238, 144)); // Light green
+            if (session.isActive()) {
+                compactJournal();
             }
-        }
+        });
     }
     
     private void handleSquareClick(Position position) {
-        if (!gameActive) return;
+        rulesExecutor.execute(() -> processClick(position));
+    }
+    
+    // Runs on the rules thread, one click at a time
+    private void processClick(Position position) {
+        if (session == null || !session.isActive() || session.isAwaitingPromotion()) return;
         
-        ChessPiece clickedPiece = board.getPieceAt(position);
+        ChessPiece clickedPiece = session.getBoard().getPieceAt(position);
         
         // If no piece is selected yet
         if (selectedPosition == null) {
-            if (clickedPiece != null && clickedPiece.getColor() == (isWhiteTurn ? ChessPiece.Color.WHITE : ChessPiece.Color.BLACK)) {
+            if (clickedPiece != null && clickedPiece.getColor() == session.sideToMove()) {
                 selectedPosition = position;
-                possibleMoves = board.getLegalMoves(position);
-                updateBoardDisplay();
+                possibleMoves = session.getLegalMoves(position);
+                publishView();
             }
         } 
         // If a piece is already selected
         else {
             // If the clicked position is in possible moves
             if (possibleMoves.contains(position)) {
-                // Execute the move
-                boolean moveResult = board.movePiece(selectedPosition, position);
-                if (moveResult) {
-                    // Check for special moves like promotion, castling, etc.
-                    handleSpecialMoves(selectedPosition, position);
-                    
-                    // Switch turn
-                    isWhiteTurn = !isWhiteTurn;
-                    statusLabel.setText((isWhiteTurn ? "White" : "Black") + "'s turn");
-                    
+                // Execute the move; promotion, turn, clock and game end are handled by the session
+                if (session.move(selectedPosition, position)) {
                     // Reset selected position and possible moves
                     selectedPosition = null;
                     possibleMoves.clear();
                     
-                    updateBoardDisplay();
+                    publishView();
+                    restartAnalysis();
                     
-                    // Check for game ending conditions
-                    checkGameEndingConditions();
-                    
-                    // Switch timer
-                    switchTimer();
+                    if (session.isActive() && journal != null && journal.needsCompaction()) {
+                        compactJournal();
+                    }
                 }
             } else {
                 // Deselect current piece if clicking on empty square or opponent's piece
@@ -357,158 +546,79 @@ private void updateBoardDisplay() {
                 possibleMoves.clear();
                 
                 // If clicking on own piece, select it
-                if (clickedPiece != null && clickedPiece.getColor() == (isWhiteTurn ? ChessPiece.Color.WHITE : ChessPiece.Color.BLACK)) {
+                if (clickedPiece != null && clickedPiece.getColor() == session.sideToMove()) {
                     selectedPosition = position;
-                    possibleMoves = board.getLegalMoves(position);
+                    possibleMoves = session.getLegalMoves(position);
                 }
                 
-                updateBoardDisplay();
+                publishView();
             }
         }
     }
     
-    private void handleSpecialMoves(Position from, Position to) {
-        ChessPiece movedPiece = board.getPieceAt(to);
-        
-        // Handle pawn promotion
-        if (movedPiece instanceof Pawn) {
-            if ((movedPiece.getColor() == ChessPiece.Color.WHITE && to.row == 0) || 
-                (movedPiece.getColor() == ChessPiece.Color.BLACK && to.row == 7)) {
-                promotePawn(to);
-            }
-        }
+    private void promotePawn(GameSession source) {
+        if (source != session || !source.isAwaitingPromotion()) return;
         
-        // Other special moves like castling and en passant are handled in the ChessBoard class
-    }
-    
-    private void promotePawn(Position position) {
         String[] options = {"Queen", "Rook", "Bishop", "Knight"};
         int choice = JOptionPane.showOptionDialog(frame, "Choose promotion piece:", "Pawn Promotion",
                                                   JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
         
-        ChessPiece.Color color = board.getPieceAt(position).getColor();
-        ChessPiece newPiece = null;
-        
+        int pieceType;
         switch (choice) {
-            case 0: // Queen
-                newPiece = new Queen(color);
-                break;
             case 1: // Rook
-                newPiece = new Rook(color);
+                pieceType = ChessBoard.ROOK;
                 break;
             case 2: // Bishop
-                newPiece = new Bishop(color);
+                pieceType = ChessBoard.BISHOP;
                 break;
             case 3: // Knight
-                newPiece = new Knight(color);
+                pieceType = ChessBoard.KNIGHT;
                 break;
-            default: // Default to Queen if somehow no choice is made
-                newPiece = new Queen(color);
+            default: // Queen, also if somehow no choice is made
+                pieceType = ChessBoard.QUEEN;
         }
         
-        board.setPieceAt(position, newPiece);
+        rulesExecutor.execute(() -> {
+            if (source != session) return;
+            source.promote(pieceType);
+            publishView();
+            restartAnalysis();
+        });
     }
     
-    private void checkGameEndingConditions() {
-        // Check for checkmate or stalemate
-        boolean whiteHasMove = board.playerHasLegalMoves(ChessPiece.Color.WHITE);
-        boolean blackHasMove = board.playerHasLegalMoves(ChessPiece.Color.BLACK);
-        boolean whiteInCheck = board.isKingInCheck(ChessPiece.Color.WHITE);
-        boolean blackInCheck = board.isKingInCheck(ChessPiece.Color.BLACK);
-        
-        if (isWhiteTurn && !whiteHasMove) {
-            gameActive = false;
-            if (whiteInCheck) {
-                statusLabel.setText("Checkmate! Black wins.");
-            } else {
-                statusLabel.setText("Stalemate! The game is a draw.");
-            }
-            stopTimers();
-        } else if (!isWhiteTurn && !blackHasMove) {
-            gameActive = false;
-            if (blackInCheck) {
-                statusLabel.setText("Checkmate! White wins.");
-            } else {
-                statusLabel.setText("Stalemate! The game is a draw.");
-            }
-            stopTimers();
-        } else if (whiteInCheck) {
-            statusLabel.setText("White is in check!");
-        } else if (blackInCheck) {
-            statusLabel.setText("Black is in check!");
-        }
+    // The value the label shows: tenths of a second below ten seconds, whole seconds above
+    private static long displayedTime(long millis) {
+        return millis < 10_000 ? millis / 100 : 100 + millis / 1000;
     }
     
-    private void startTimer() {
-        if (whiteTimer != null) whiteTimer.cancel();
-        if (blackTimer != null) blackTimer.cancel();
-        
-        whiteTimer = new Timer();
-        blackTimer = new Timer();
-        
-        TimerTask whiteTask = new TimerTask() {
-            @Override
-            public void run() {
-                if (isWhiteTurn && gameActive) {
-                    whiteTimeRemaining--;
-                    updateTimerLabels();
-                    
-                    if (whiteTimeRemaining <= 0) {
-                        SwingUtilities.invokeLater(() -> handleTimeout(true));
-                    }
-                }
-            }
-        };
-        
-        TimerTask blackTask = new TimerTask() {
-            @Override
-            public void run() {
-                if (!isWhiteTurn && gameActive) {
-                    blackTimeRemaining--;
-                    updateTimerLabels();
-                    
-                    if (blackTimeRemaining <= 0) {
-                        SwingUtilities.invokeLater(() -> handleTimeout(false));
-                    }
-                }
+    // Clock records are only appended; they reach the disk with the journal's next group sync
+    private void journalClock(long whiteMillis, long blackMillis) {
+        writeJournal(j -> {
+            j.appendClock(whiteMillis, blackMillis);
+            if (j.needsCompaction()) {
+                rulesExecutor.execute(() -> {
+                    if (session != null && session.isActive()) compactJournal();
+                });
             }
-        };
-        
-        whiteTimer.scheduleAtFixedRate(whiteTask, 1000, 1000);
-        blackTimer.scheduleAtFixedRate(blackTask, 1000, 1000);
-    }
-    
-    private void updateTimerLabels() {
-        whiteTimerLabel.setText("White: " + formatTime(whiteTimeRemaining));
-        blackTimerLabel.setText("Black: " + formatTime(blackTimeRemaining));
-    }
-    
-    private String formatTime(int seconds) {
-        int minutes = seconds / 60;
-        int secs = seconds % 60;
-        return String.format("%d:%02d", minutes, secs);
-    }
-    
-    private void switchTimer() {
-        // Timer switching is handled automatically in the timer tasks
+        });
     }
     
-    private void stopTimers() {
-        if (whiteTimer != null) whiteTimer.cancel();
-        if (blackTimer != null) blackTimer.cancel();
+    private void updateTimerLabels(GameClock clock) {
+        whiteTimerLabel.setText("White: " + formatTime(clock.getRemainingMillis(true)));
+        blackTimerLabel.setText("Black: " + formatTime(clock.getRemainingMillis(false)));
     }
     
-    private void handleTimeout(boolean isWhiteTimeout) {
-        gameActive = false;
-        if (isWhiteTimeout) {
-            statusLabel.setText("White's time has expired. Black wins!");
-        } else {
-            statusLabel.setText("Black's time has expired. White wins!");
+    private String formatTime(long millis) {
+        if (millis < 10_000) {
+            return String.format("0:%02d.%d", millis / 1000, millis % 1000 / 100);
         }
+        long seconds = millis / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
     }
     
     private void saveGame() {
-        if (!gameActive) {
+        GameSession current = session;
+        if (current == null || !current.isActive()) {
             JOptionPane.showMessageDialog(frame, "No active game to save.", "Save Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
@@ -517,19 +627,40 @@ private void updateBoardDisplay() {
         int result = fileChooser.showSaveDialog(frame);
         
         if (result == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-                GameState state = new GameState(
-                    board,
-                    isWhiteTurn,
-                    whiteTimeRemaining,
-                    blackTimeRemaining
-                );
-                oos.writeObject(state);
-                statusLabel.setText("Game saved successfully!");
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(frame, "Error saving game: " + e.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE);
-            }
+            Path file = fileChooser.getSelectedFile().toPath();
+            
+            showIoProgress("Saving");
+            runIo(new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws Exception {
+                    // Serialize on the rules thread, after any queued moves, so the saved state
+                    // is a consistent position
+                    long start = System.nanoTime();
+                    ChessEvents.GameSave event = new ChessEvents.GameSave();
+                    event.begin();
+                    byte[] data = rulesExecutor.submit(() -> serialize(current.snapshot())).get();
+                    writeAtomically(file, data, this::setProgress);
+                    SAVE_NANOS.recordSince(start);
+                    SAVE_BYTES.record(data.length);
+                    if (event.shouldCommit()) {
+                        event.path = file.toString();
+                        event.bytes = data.length;
+                        event.commit();
+                    }
+                    return null;
+                }
+                
+                @Override
+                protected void done() {
+                    hideIoProgress();
+                    try {
+                        get();
+                        statusLabel.setText("Game saved successfully!");
+                    } catch (Exception e) {
+                        JOptionPane.showMessageDialog(frame, "Error saving game: " + rootMessage(e), "Save Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            });
         }
     }
     
@@ -538,47 +669,172 @@ private void updateBoardDisplay() {
         int result = fileChooser.showOpenDialog(frame);
         
         if (result == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                GameState state = (GameState) ois.readObject();
-                
-                // Load game state
-                board = state.board;
-                isWhiteTurn = state.isWhiteTurn;
-                whiteTimeRemaining = state.whiteTimeRemaining;
-                blackTimeRemaining = state.blackTimeRemaining;
-                
-                // Reset UI state
-                selectedPosition = null;
-                possibleMoves.clear();
-                gameActive = true;
-                
-                // Update display
-                updateBoardDisplay();
-                updateTimerLabels();
-                statusLabel.setText((isWhiteTurn ? "White" : "Black") + "'s turn");
-                
-                // Restart timers
-                startTimer();
+            Path file = fileChooser.getSelectedFile().toPath();
+            
+            // The loaded game only replaces the current one once it has been fully read
+            showIoProgress("Loading");
+            runIo(new SwingWorker<GameState, Void>() {
+                @Override
+                protected GameState doInBackground() throws IOException, ClassNotFoundException {
+                    long start = System.nanoTime();
+                    ChessEvents.GameLoad event = new ChessEvents.GameLoad();
+                    event.begin();
+                    byte[] data = readFully(file, this::setProgress);
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                        GameState state = (GameState) ois.readObject();
+                        LOAD_NANOS.recordSince(start);
+                        LOAD_BYTES.record(data.length);
+                        if (event.shouldCommit()) {
+                            event.path = file.toString();
+                            event.bytes = data.length;
+                            event.positionHash = state.board.getPositionHash();
+                            event.ply = state.board.getPly();
+                            event.commit();
+                        }
+                        return state;
+                    }
+                }
                 
-            } catch (IOException | ClassNotFoundException e) {
-                JOptionPane.showMessageDialog(frame, "Error loading game: " + e.getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
+                @Override
+                protected void done() {
+                    hideIoProgress();
+                    try {
+                        restoreGame(get());
+                        rulesExecutor.execute(ChessGame.this::compactJournal);
+                    } catch (Exception e) {
+                        JOptionPane.showMessageDialog(frame, "Error loading game: " + rootMessage(e), "Load Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            });
+        }
+    }
+    
+    private static byte[] serialize(GameState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(state);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private interface ProgressListener {
+        void progress(int percent);
+    }
+    
+    // Writes to a temporary file next to the target and renames it, so a failed save never
+    // leaves a truncated game behind
+    private static void writeAtomically(Path file, byte[] data, ProgressListener listener) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                buffer.limit(Math.min(buffer.position() + IO_CHUNK_SIZE, data.length));
+                channel.write(buffer);
+                buffer.limit(data.length);
+                listener.progress((int) (100L * buffer.position() / Math.max(1, data.length)));
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static byte[] readFully(Path file, ProgressListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + size + " bytes");
+            }
+            
+            byte[] data = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                buffer.limit(Math.min(buffer.position() + IO_CHUNK_SIZE, data.length));
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("File ended after " + buffer.position() + " bytes");
+                }
+                buffer.limit(data.length);
+                listener.progress((int) (100L * buffer.position() / Math.max(1, data.length)));
             }
+            return data;
         }
     }
     
+    private static String rootMessage(Exception e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage();
+    }
+    
+    private void runIo(SwingWorker<?, ?> worker) {
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                ioProgress.setValue((Integer) e.getNewValue());
+            }
+        });
+        ioExecutor.execute(worker);
+    }
+    
+    private void showIoProgress(String action) {
+        ioProgress.setValue(0);
+        ioProgress.setString(action + "...");
+        ioProgress.setVisible(true);
+        statusLabel.getParent().revalidate();
+    }
+    
+    private void hideIoProgress() {
+        ioProgress.setVisible(false);
+        statusLabel.getParent().revalidate();
+    }
+    
+    private void restoreGame(GameState state) {
+        rulesExecutor.execute(() -> {
+            GameSession restored = GameSession.restore(state);
+            timeControl = restored.getClock().getTimeControl();
+            attachSession(restored);
+        });
+    }
+    
     // Position class to represent row and column coordinates
+    // Squares are interned: there is one Position per square, shared by every board and move list
     public static class Position implements Serializable {
         private static final long serialVersionUID = 1L;
         
+        private static final Position[] SQUARES = new Position[64];
+        
+        static {
+            for (int square = 0; square < 64; square++) {
+                SQUARES[square] = new Position(square / 8, square % 8);
+            }
+        }
+        
         final int row;
         final int col;
         
-        public Position(int row, int col) {
+        private Position(int row, int col) {
             this.row = row;
             this.col = col;
         }
         
+        public static Position of(int row, int col) {
+            if (row < 0 || row > 7 || col < 0 || col > 7) {
+                throw new IllegalArgumentException("Not a square: (" + row + ", " + col + ")");
+            }
+            return SQUARES[row * 8 + col];
+        }
+        
+        // Deserialized squares are replaced by the shared instance
+        private Object readResolve() {
+            return of(row, col);
+        }
+        
         @Override
         public boolean equals(Object obj) {
             if (this == obj) return true;
@@ -589,7 +845,7 @@ private void updateBoardDisplay() {
         
         @Override
         public int hashCode() {
-            return Objects.hash(row, col);
+            return row * 8 + col;
         }
         
         @Override
@@ -604,14 +860,16 @@ private void updateBoardDisplay() {
         
         final ChessBoard board;
         final boolean isWhiteTurn;
-        final int whiteTimeRemaining;
+        final int whiteTimeRemaining; // seconds, kept for older readers
         final int blackTimeRemaining;
+        final GameClock clock;
         
-        public GameState(ChessBoard board, boolean isWhiteTurn, int whiteTimeRemaining, int blackTimeRemaining) {
+        public GameState(ChessBoard board, boolean isWhiteTurn, GameClock clock) {
             this.board = board;
             this.isWhiteTurn = isWhiteTurn;
-            this.whiteTimeRemaining = whiteTimeRemaining;
-            this.blackTimeRemaining = blackTimeRemaining;
+            this.whiteTimeRemaining = (int) (clock.getRemainingMillis(true) / 1000);
+            this.blackTimeRemaining = (int) (clock.getRemainingMillis(false) / 1000);
+            this.clock = clock;
         }
     }
 }
@@ -627,18 +885,136 @@ class ChessBoard implements Serializable {
     private boolean blackCanCastleKingside = true;
     private boolean blackCanCastleQueenside = true;
     private ChessGame.Position enPassantTarget = null;
-    private List<MoveRecord> moveHistory = new ArrayList<>();
+    
+    // Files of the rooks that castle, fixed for the whole game
+    private int kingsideRookCol = 7;
+    private int queensideRookCol = 0;
+    
+    // Piece type codes used by packed moves and keyframes
+    static final int PAWN = 1;
+    static final int KNIGHT = 2;
+    static final int BISHOP = 3;
+    static final int ROOK = 4;
+    static final int QUEEN = 5;
+    static final int KING = 6;
+    
+    // Packed move layout (bits): from 0-5, to 6-11, captured type 12-14, promotion type 15-17,
+    // special 18-19, prior castling rights 20-23, prior en passant file + 1 24-27, castling rook file 28-30
+    private static final int SPECIAL_CASTLE = 1;
+    private static final int SPECIAL_EN_PASSANT = 2;
+    
+    // A full board copy is kept every KEYFRAME_INTERVAL plies so seeking never replays far
+    private static final int KEYFRAME_INTERVAL = 16;
+    
+    // Mixed into getPositionKey for black to move, since the position hash leaves the side out
+    private static final long BLACK_TO_MOVE_KEY = 0x9E3779B97F4A7C15L;
+    
+    // Only the work behind the caches is timed; cache hits are just counted
+    private static final Metrics.Histogram LEGAL_MOVES_NANOS = Metrics.histogram("chess_rules_legal_moves_nanos",
+        "Time to generate all legal moves of a position, which getLegalMoves and move validation read");
+    private static final Metrics.Counter LEGAL_MOVES_CACHED = Metrics.counter("chess_rules_legal_moves_cached_total",
+        "Legal move requests answered from the position's cached list");
+    private static final Metrics.Histogram KING_IN_CHECK_NANOS = Metrics.histogram("chess_rules_king_in_check_nanos",
+        "Time of isKingInCheck when the position's answer was not cached");
+    private static final Metrics.Counter KING_IN_CHECK_CACHED = Metrics.counter("chess_rules_king_in_check_cached_total",
+        "isKingInCheck calls answered from the cache");
+    private static final Metrics.Histogram MOVE_PIECE_NANOS = Metrics.histogram("chess_rules_move_piece_nanos",
+        "Time of movePiece, validation included");
+    
+    // Moves played so far are history[0..ply); history[ply..historyLength) can be redone
+    private int[] history = new int[128];
+    private int ply = 0;
+    private int historyLength = 0;
+    private List<byte[]> keyframes = new ArrayList<>();
+    
+    // Per-ply position hash and halfmove clock, indexed like history; entries since the last
+    // pawn move or capture form the window searched for repetitions
+    private long[] positionHashes = new long[129];
+    private int[] halfmoveClocks = new int[129];
+    private long materialSignature;
+    
+    // Legal moves and check status are generated once per position and shared by move
+    // validation, highlighting and end-of-game checks; version bumps on every board change
+    private transient int version;
+    private transient int legalMovesVersion;
+    private transient ChessPiece.Color legalMovesColor;
+    private transient int[] legalMoves;
+    private transient int whiteCheckVersion;
+    private transient int blackCheckVersion;
+    private transient boolean whiteInCheck;
+    private transient boolean blackInCheck;
+    
+    private static final long[] PIECE_KEYS = new long[16 * 64];
+    private static final long[] CASTLING_KEYS = new long[16];
+    private static final long[] EN_PASSANT_KEYS = new long[8];
+    
+    // Material signature: a 4-bit count per colour and piece kind, with bishops split by square colour
+    private static final int SIGNATURE_KINDS = 7; // pawn, knight, light bishop, dark bishop, rook, queen, king
+    private static final Set<Long> INSUFFICIENT_MATERIAL = new HashSet<>();
+    
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EEDC0DEL);
+        for (int i = 0; i < PIECE_KEYS.length; i++) PIECE_KEYS[i] = random.nextLong();
+        for (int i = 0; i < CASTLING_KEYS.length; i++) CASTLING_KEYS[i] = random.nextLong();
+        for (int i = 0; i < EN_PASSANT_KEYS.length; i++) EN_PASSANT_KEYS[i] = random.nextLong();
+        
+        // King against king, a lone knight, or bishops all on one square colour
+        long kings = signatureBit(ChessPiece.Color.WHITE, 6) + signatureBit(ChessPiece.Color.BLACK, 6);
+        INSUFFICIENT_MATERIAL.add(kings);
+        for (ChessPiece.Color color : ChessPiece.Color.values()) {
+            INSUFFICIENT_MATERIAL.add(kings + signatureBit(color, 1));
+        }
+        for (int kind = 2; kind <= 3; kind++) {
+            for (int white = 0; white <= 9; white++) {
+                for (int black = 0; black <= 9; black++) {
+                    INSUFFICIENT_MATERIAL.add(kings
+                        + white * signatureBit(ChessPiece.Color.WHITE, kind)
+                        + black * signatureBit(ChessPiece.Color.BLACK, kind));
+                }
+            }
+        }
+    }
     
     public ChessBoard(boolean isChess960) {
+        this(isChess960, isChess960 ? Chess960.random(new Random()) : Chess960.STANDARD);
+    }
+    
+    // A Chess960 game from the start position with the given Scharnagl number, 0-959
+    public static ChessBoard chess960(int number) {
+        return new ChessBoard(true, number);
+    }
+    
+    private ChessBoard(boolean isChess960, int startPosition) {
         this.isChess960 = isChess960;
-        initializeBoard();
+        initializeBoard(startPosition);
+        keyframes.add(createKeyframe());
+        updatePositionKeys();
     }
     
-    private void initializeBoard() {
+    // A position given square by square, e.g. from FEN. The history starts at this position;
+    // castling rights use the bits of castlingRights() and the rook files apply to both sides.
+    static ChessBoard fromPosition(ChessPiece[][] placement, boolean isChess960, int castlingRights,
+                                   int kingsideRookCol, int queensideRookCol,
+                                   ChessGame.Position enPassantTarget, int halfmoveClock) {
+        ChessBoard position = new ChessBoard(isChess960, Chess960.STANDARD);
+        for (int row = 0; row < 8; row++) {
+            position.board[row] = placement[row].clone();
+        }
+        position.setCastlingRights(castlingRights);
+        position.kingsideRookCol = kingsideRookCol;
+        position.queensideRookCol = queensideRookCol;
+        position.enPassantTarget = enPassantTarget;
+        position.halfmoveClocks[0] = halfmoveClock;
+        position.keyframes.set(0, position.createKeyframe());
+        position.updatePositionKeys();
+        return position;
+    }
+    
+    private void initializeBoard(int startPosition) {
         board = new ChessPiece[8][8];
         
         if (isChess960) {
-            setupChess960();
+            setupChess960(startPosition);
         } else {
             setupStandardChess();
         }
@@ -646,117 +1022,109 @@ class ChessBoard implements Serializable {
     
     private void setupStandardChess() {
         // Setup rooks
-        board[0][0] = new Rook(ChessPiece.Color.BLACK);
-        board[0][7] = new Rook(ChessPiece.Color.BLACK);
-        board[7][0] = new Rook(ChessPiece.Color.WHITE);
-        board[7][7] = new Rook(ChessPiece.Color.WHITE);
+        board[0][0] = Rook.BLACK;
+        board[0][7] = Rook.BLACK;
+        board[7][0] = Rook.WHITE;
+        board[7][7] = Rook.WHITE;
         
         // Setup knights
-        board[0][1] = new Knight(ChessPiece.Color.BLACK);
-        board[0][6] = new Knight(ChessPiece.Color.BLACK);
-        board[7][1] = new Knight(ChessPiece.Color.WHITE);
-        board[7][6] = new Knight(ChessPiece.Color.WHITE);
+        board[0][1] = Knight.BLACK;
+        board[0][6] = Knight.BLACK;
+        board[7][1] = Knight.WHITE;
+        board[7][6] = Knight.WHITE;
         
         // Setup bishops
-        board[0][2] = new Bishop(ChessPiece.Color.BLACK);
-        board[0][5] = new Bishop(ChessPiece.Color.BLACK);
-        board[7][2] = new Bishop(ChessPiece.Color.WHITE);
-        board[7][5] = new Bishop(ChessPiece.Color.WHITE);
+        board[0][2] = Bishop.BLACK;
+        board[0][5] = Bishop.BLACK;
+        board[7][2] = Bishop.WHITE;
+        board[7][5] = Bishop.WHITE;
         
         // Setup queens
-        board[0][3] = new Queen(ChessPiece.Color.BLACK);
-        board[7][3] = new Queen(ChessPiece.Color.WHITE);
+        board[0][3] = Queen.BLACK;
+        board[7][3] = Queen.WHITE;
         
         // Setup kings
-        board[0][4] = new King(ChessPiece.Color.BLACK);
-        board[7][4] = new King(ChessPiece.Color.WHITE);
+        board[0][4] = King.BLACK;
+        board[7][4] = King.WHITE;
         
         // Setup pawns
         for (int col = 0; col < 8; col++) {
-            board[1][col] = new Pawn(ChessPiece.Color.BLACK);
-            board[6][col] = new Pawn(ChessPiece.Color.WHITE);
+            board[1][col] = Pawn.BLACK;
+            board[6][col] = Pawn.WHITE;
         }
     }
     
-    private void setupChess960() {
-        Random random = new Random();
-        
-        // 1. Place bishops on opposite colored squares
-        int bishop1Col = random.nextInt(4) * 2; // Even squares (0, 2, 4, 6)
-        int bishop2Col = random.nextInt(4) * 2 + 1; // Odd squares (1, 3, 5, 7)
+    private void setupChess960(int number) {
+        byte[] backRank = Chess960.backRank(number);
         
-        board[0][bishop1Col] = new Bishop(ChessPiece.Color.BLACK);
-        board[0][bishop2Col] = new Bishop(ChessPiece.Color.BLACK);
-        board[7][bishop1Col] = new Bishop(ChessPiece.Color.WHITE);
-        board[7][bishop2Col] = new Bishop(ChessPiece.Color.WHITE);
-        
-        // 2. Place queen in a random empty square
-        int queenCol;
-        do {
-            queenCol = random.nextInt(8);
-        } while (board[0][queenCol] != null);
-        
-        board[0][queenCol] = new Queen(ChessPiece.Color.BLACK);
-        board[7][queenCol] = new Queen(ChessPiece.Color.WHITE);
-        
-        // 3. Place knights in random empty squares
-        int knight1Col;
-        do {
-            knight1Col = random.nextInt(8);
-        } while (board[0][knight1Col] != null);
-        
-        board[0][knight1Col] = new Knight(ChessPiece.Color.BLACK);
-        board[7][knight1Col] = new Knight(ChessPiece.Color.WHITE);
-        
-        int knight2Col;
-        do {
-            knight2Col = random.nextInt(8);
-        } while (board[0][knight2Col] != null);
-        
-        board[0][knight2Col] = new Knight(ChessPiece.Color.BLACK);
-        board[7][knight2Col] = new Knight(ChessPiece.Color.WHITE);
-        
-        // 4. Place rooks and king (king must be between rooks)
-        // Find the three remaining empty columns
-        List<Integer> emptyCols = new ArrayList<>();
+        // Both sides mirror each other; the rooks left and right of the king castle
+        queensideRookCol = -1;
         for (int col = 0; col < 8; col++) {
-            if (board[0][col] == null) {
-                emptyCols.add(col);
+            board[0][col] = createPiece(backRank[col], ChessPiece.Color.BLACK);
+            board[7][col] = createPiece(backRank[col], ChessPiece.Color.WHITE);
+            board[1][col] = Pawn.BLACK;
+            board[6][col] = Pawn.WHITE;
+            
+            if (backRank[col] == ROOK) {
+                if (queensideRookCol < 0) {
+                    queensideRookCol = col;
+                } else {
+                    kingsideRookCol = col;
+                }
             }
         }
-        
-        // Place rooks in the first and last empty columns
-        int rook1Col = emptyCols.get(0);
-        int rook2Col = emptyCols.get(2);
-        int kingCol = emptyCols.get(1);
-        
-        board[0][rook1Col] = new Rook(ChessPiece.Color.BLACK);
-        board[0][rook2Col] = new Rook(ChessPiece.Color.BLACK);
-        board[0][kingCol] = new King(ChessPiece.Color.BLACK);
-        
-        board[7][rook1Col] = new Rook(ChessPiece.Color.WHITE);
-        board[7][rook2Col] = new Rook(ChessPiece.Color.WHITE);
-        board[7][kingCol] = new King(ChessPiece.Color.WHITE);
-        
-        // 5. Setup pawns
+    }
+    
+    // The Scharnagl number of the position the game started from (518 for standard chess), or
+    // -1 if it started from some other position, e.g. a game saved before the history was kept
+    public int getStartPosition() {
+        byte[] start = keyframes.get(0);
+        byte[] backRank = new byte[8];
         for (int col = 0; col < 8; col++) {
-            board[1][col] = new Pawn(ChessPiece.Color.BLACK);
-            board[6][col] = new Pawn(ChessPiece.Color.WHITE);
+            if (start[col] != (start[56 + col] | 8) || start[8 + col] != (PAWN | 8) || start[48 + col] != PAWN) {
+                return -1;
+            }
+            backRank[col] = start[56 + col];
+        }
+        for (int square = 16; square < 48; square++) {
+            if (start[square] != 0) return -1;
         }
+        return Chess960.number(backRank);
     }
     
     public ChessPiece getPieceAt(ChessGame.Position position) {
         return board[position.row][position.col];
     }
     
+    public ChessPiece getPieceAt(int row, int col) {
+        return board[row][col];
+    }
+    
     public void setPieceAt(ChessGame.Position position, ChessPiece piece) {
         board[position.row][position.col] = piece;
+        updatePositionKeys();
     }
     
     public List<ChessGame.Position> getLegalMoves(ChessGame.Position position) {
         ChessPiece piece = getPieceAt(position);
         if (piece == null) return new ArrayList<>();
         
+        // Read from the position's cached move list; promotions appear once per target square
+        List<ChessGame.Position> possibleMoves = new ArrayList<>();
+        int from = position.row * 8 + position.col;
+        int lastTo = -1;
+        for (int move : getAllLegalMoves(piece.getColor())) {
+            int to = (move >>> 6) & 63;
+            if ((move & 63) == from && to != lastTo) {
+                possibleMoves.add(square(to));
+                lastTo = to;
+            }
+        }
+        return possibleMoves;
+    }
+    
+    private List<ChessGame.Position> generateLegalMoves(ChessGame.Position position) {
+        ChessPiece piece = getPieceAt(position);
         List<ChessGame.Position> possibleMoves = new ArrayList<>();
         
         // Get all possible moves based on piece type
@@ -779,142 +1147,64 @@ class ChessBoard implements Serializable {
         return possibleMoves;
     }
     
+    // Castling moves go to the king's destination in standard chess and to the castling rook's
+    // square in Chess960, where the king may move one square or not at all
     private void addCastlingMoves(ChessGame.Position kingPosition, List<ChessGame.Position> moves) {
         ChessPiece king = getPieceAt(kingPosition);
         if (!(king instanceof King)) return;
         
         ChessPiece.Color color = king.getColor();
         int row = (color == ChessPiece.Color.WHITE) ? 7 : 0;
+        if (kingPosition.row != row) return;
         
         // Check if king is in check
-        if (isKingInCheck(color)) return;
+        if (computeKingInCheck(color)) return;
         
-        // Handle Chess960 castling differently
-        if (isChess960) {
-            // Find king and rook positions
-            int kingCol = -1;
-            List<Integer> rookCols = new ArrayList<>();
-            
-            for (int col = 0; col < 8; col++) {
-                ChessPiece piece = board[row][col];
-                if (piece instanceof King && piece.getColor() == color) {
-                    kingCol = col;
-                } else if (piece instanceof Rook && piece.getColor() == color) {
-                    rookCols.add(col);
-                }
-            }
-            
-            if (kingCol == -1 || rookCols.size() != 2) return;
-            
-            int leftRookCol = rookCols.get(0);
-            int rightRookCol = rookCols.get(1);
-            
-            // Check queenside castling
-            if ((color == ChessPiece.Color.WHITE && whiteCanCastleQueenside) || 
-                (color == ChessPiece.Color.BLACK && blackCanCastleQueenside)) {
-                boolean pathClear = true;
-                
-                // Check if path between king and left rook is clear
-                int start = Math.min(kingCol, leftRookCol) + 1;
-                int end = Math.max(kingCol, leftRookCol);
-                for (int col = start; col < end; col++) {
-                    if (board[row][col] != null) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                
-                // Check that squares king moves through are not under attack
-                for (int col = Math.min(2, kingCol); col <= Math.max(2, kingCol); col++) {
-                    if (isSquareAttacked(new ChessGame.Position(row, col), color)) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                
-                if (pathClear) {
-                    moves.add(new ChessGame.Position(row, 2)); // King's destination for queenside castling
-                }
-            }
-            
-            // Check kingside castling
-            if ((color == ChessPiece.Color.WHITE && whiteCanCastleKingside) || 
-                (color == ChessPiece.Color.BLACK && blackCanCastleKingside)) {
-                boolean pathClear = true;
-                
-                // Check if path between king and right rook is clear
-                int start = Math.min(kingCol, rightRookCol) + 1;
-                int end = Math.max(kingCol, rightRookCol);
-                for (int col = start; col < end; col++) {
-                    if (board[row][col] != null) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                
-                // Check that squares king moves through are not under attack
-                for (int col = Math.min(6, kingCol); col <= Math.max(6, kingCol); col++) {
-                    if (isSquareAttacked(new ChessGame.Position(row, col), color)) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                
-                if (pathClear) {
-                    moves.add(new ChessGame.Position(row, 6)); // King's destination for kingside castling
+        for (boolean kingside : new boolean[] {true, false}) {
+            boolean allowed = color == ChessPiece.Color.WHITE
+                ? (kingside ? whiteCanCastleKingside : whiteCanCastleQueenside)
+                : (kingside ? blackCanCastleKingside : blackCanCastleQueenside);
+            if (!allowed) continue;
+            
+            int kingCol = kingPosition.col;
+            int rookCol = kingside ? kingsideRookCol : queensideRookCol;
+            int kingToCol = kingside ? 6 : 2;
+            int rookToCol = kingside ? 5 : 3;
+            ChessPiece rook = board[row][rookCol];
+            if (!(rook instanceof Rook) || rook.getColor() != color) continue;
+            
+            // Every square either piece crosses or lands on must be empty, apart from the two of them
+            boolean pathClear = true;
+            int low = Math.min(Math.min(kingCol, kingToCol), Math.min(rookCol, rookToCol));
+            int high = Math.max(Math.max(kingCol, kingToCol), Math.max(rookCol, rookToCol));
+            for (int col = low; col <= high && pathClear; col++) {
+                if (col != kingCol && col != rookCol && board[row][col] != null) {
+                    pathClear = false;
                 }
             }
-        } else {
-            // Standard chess castling
-            // Check kingside castling
-            if ((color == ChessPiece.Color.WHITE && whiteCanCastleKingside) || 
-                (color == ChessPiece.Color.BLACK && blackCanCastleKingside)) {
-                boolean pathClear = true;
-                
-                // Check if squares between king and rook are empty
-                for (int col = 5; col < 7; col++) {
-                    if (board[row][col] != null) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                
-                // Check if squares king moves through are not under attack
-                for (int col = 4; col <= 6; col++) {
-                    if (isSquareAttacked(new ChessGame.Position(row, col), color)) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                
-                if (pathClear) {
-                    moves.add(new ChessGame.Position(row, 6));
+            
+            // The king may not pass through or land on an attacked square
+            for (int col = Math.min(kingCol, kingToCol); col <= Math.max(kingCol, kingToCol) && pathClear; col++) {
+                if (isSquareAttacked(ChessGame.Position.of(row, col), color)) {
+                    pathClear = false;
                 }
             }
             
-            // Check queenside castling
-            if ((color == ChessPiece.Color.WHITE && whiteCanCastleQueenside) || 
-                (color == ChessPiece.Color.BLACK && blackCanCastleQueenside)) {
-                boolean pathClear = true;
-                
-                // Check if squares between king and rook are empty
-                for (int col = 1; col < 4; col++) {
-                    if (board[row][col] != null) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                
-                // Check if squares king moves through are not under attack
-                for (int col = 2; col <= 4; col++) {
-                    if (isSquareAttacked(new ChessGame.Position(row, col), color)) {
-                        pathClear = false;
-                        break;
-                    }
-                }
-                if (pathClear) {
-                    moves.add(new ChessGame.Position(row, 2));
-                }
+            // In Chess960 the rook may have been shielding the king's destination along the rank
+            if (pathClear && isChess960) {
+                board[row][kingCol] = null;
+                board[row][rookCol] = null;
+                board[row][kingToCol] = king;
+                board[row][rookToCol] = rook;
+                pathClear = !computeKingInCheck(color);
+                board[row][kingToCol] = null;
+                board[row][rookToCol] = null;
+                board[row][kingCol] = king;
+                board[row][rookCol] = rook;
+            }
+            
+            if (pathClear) {
+                moves.add(ChessGame.Position.of(row, isChess960 ? rookCol : kingToCol));
             }
         }
     }
@@ -934,7 +1224,7 @@ class ChessBoard implements Serializable {
             // Check if the pawn is adjacent to the en passant target column
             if ((col == enPassantTarget.col - 1 || col == enPassantTarget.col + 1) && 
                 row == (color == ChessPiece.Color.WHITE ? 3 : 4)) {
-                ChessGame.Position capturePosition = new ChessGame.Position(color == ChessPiece.Color.WHITE ? 2 : 5, enPassantTarget.col);
+                ChessGame.Position capturePosition = ChessGame.Position.of(color == ChessPiece.Color.WHITE ? 2 : 5, enPassantTarget.col);
                 if (isLegalMove(pawnPosition, capturePosition)) {
                     moves.add(capturePosition);
                 }
@@ -950,28 +1240,71 @@ class ChessBoard implements Serializable {
         ChessPiece capturedPiece = getPieceAt(to);
         ChessPiece.Color pieceColor = piece.getColor();
         
+        // An en passant capture also empties the captured pawn's square, which can open a rank
+        // to the king
+        boolean enPassant = piece instanceof Pawn && capturedPiece == null && from.col != to.col;
+        ChessPiece passedPawn = enPassant ? board[from.row][to.col] : null;
+        
         // Temporarily make the move
         board[to.row][to.col] = piece;
         board[from.row][from.col] = null;
+        if (enPassant) board[from.row][to.col] = null;
         
         // Check if king is in check after the move
-        boolean kingInCheck = isKingInCheck(pieceColor);
+        boolean kingInCheck = computeKingInCheck(pieceColor);
         
         // Restore the board
         board[from.row][from.col] = piece;
         board[to.row][to.col] = capturedPiece;
+        if (enPassant) board[from.row][to.col] = passedPawn;
         
         return !kingInCheck;
     }
     
     public boolean isKingInCheck(ChessPiece.Color kingColor) {
+        if (kingColor == ChessPiece.Color.WHITE) {
+            if (whiteCheckVersion != version) {
+                whiteInCheck = detectCheck(kingColor);
+                whiteCheckVersion = version;
+            } else {
+                KING_IN_CHECK_CACHED.increment();
+            }
+            return whiteInCheck;
+        }
+        if (blackCheckVersion != version) {
+            blackInCheck = detectCheck(kingColor);
+            blackCheckVersion = version;
+        } else {
+            KING_IN_CHECK_CACHED.increment();
+        }
+        return blackInCheck;
+    }
+    
+    // computeKingInCheck for the cache, timed and recorded
+    private boolean detectCheck(ChessPiece.Color kingColor) {
+        long start = System.nanoTime();
+        ChessEvents.CheckDetection event = ChessEvents.CHECK_DETECTION.isEnabled() ? new ChessEvents.CheckDetection() : null;
+        if (event != null) event.begin();
+        boolean inCheck = computeKingInCheck(kingColor);
+        if (event != null && event.shouldCommit()) {
+            event.positionHash = getPositionHash();
+            event.white = kingColor == ChessPiece.Color.WHITE;
+            event.inCheck = inCheck;
+            event.commit();
+        }
+        KING_IN_CHECK_NANOS.recordSince(start);
+        return inCheck;
+    }
+    
+    // Uncached, for positions changed temporarily while testing a move
+    private boolean computeKingInCheck(ChessPiece.Color kingColor) {
         // Find the king
         ChessGame.Position kingPosition = null;
         for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
                 ChessPiece piece = board[row][col];
                 if (piece instanceof King && piece.getColor() == kingColor) {
-                    kingPosition = new ChessGame.Position(row, col);
+                    kingPosition = ChessGame.Position.of(row, col);
                     break;
                 }
             }
@@ -991,28 +1324,26 @@ class ChessBoard implements Serializable {
         // Check attacks from all directions
         for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
-                ChessGame.Position from = new ChessGame.Position(row, col);
+                ChessGame.Position from = ChessGame.Position.of(row, col);
                 ChessPiece piece = getPieceAt(from);
                 
                 if (piece != null && piece.getColor() == opponentColor) {
+                    if (piece instanceof Pawn) {
+                        // Pawns attack diagonally forward whether or not the square is occupied,
+                        // and never the square they push to
+                        int direction = opponentColor == ChessPiece.Color.WHITE ? -1 : 1;
+                        if (square.row == row + direction && Math.abs(square.col - col) == 1) {
+                            return true;
+                        }
+                        continue;
+                    }
+                    
                     // Get raw moves (without checking if they'd put king in check)
                     List<ChessGame.Position> rawMoves = piece.getPossibleMoves(from, this);
                     
                     if (rawMoves.contains(square)) {
                         return true;
                     }
-                    
-                    // Special case for en passant
-                    if (piece instanceof Pawn && enPassantTarget != null) {
-                        if ((pieceColor == ChessPiece.Color.WHITE && square.row == 2) || 
-                            (pieceColor == ChessPiece.Color.BLACK && square.row == 5)) {
-                            if (square.col == enPassantTarget.col && 
-                                (from.col == square.col - 1 || from.col == square.col + 1) &&
-                                from.row == (pieceColor == ChessPiece.Color.WHITE ? 3 : 4)) {
-                                return true;
-                            }
-                        }
-                    }
                 }
             }
         }
@@ -1021,96 +1352,428 @@ class ChessBoard implements Serializable {
     }
     
     public boolean movePiece(ChessGame.Position from, ChessGame.Position to) {
+        long start = System.nanoTime();
         ChessPiece piece = getPieceAt(from);
         if (piece == null) return false;
         
-        List<ChessGame.Position> legalMoves = getLegalMoves(from);
-        if (!legalMoves.contains(to)) return false;
+        if (!isLegalMoveCached(from, to)) return false;
         
-        // Handle castling
-        if (piece instanceof King && Math.abs(from.col - to.col) > 1) {
-            handleCastling(from, to);
-            return true;
+        // A new move discards the redo line and any keyframes taken on it
+        while (keyframes.size() > ply / KEYFRAME_INTERVAL + 1) {
+            keyframes.remove(keyframes.size() - 1);
         }
-        
-        // Handle en passant capture
-        if (piece instanceof Pawn && to.col != from.col && getPieceAt(to) == null) {
-            // This is a diagonal move to an empty square, must be en passant
-            ChessGame.Position capturedPawnPos = new ChessGame.Position(from.row, to.col);
-            board[capturedPawnPos.row][capturedPawnPos.col] = null;
+        applyMove(from, to, 0);
+        historyLength = ply;
+        MOVE_PIECE_NANOS.recordSince(start);
+        return true;
+    }
+    
+    // Replaces the pawn that just reached the last rank and records the choice in the history
+    public void promotePawn(ChessGame.Position position, ChessPiece piece) {
+        setPieceAt(position, piece);
+        history[ply - 1] |= pieceType(piece) << 15;
+        historyLength = ply;
+        if (ply % KEYFRAME_INTERVAL == 0) {
+            keyframes.set(ply / KEYFRAME_INTERVAL, createKeyframe());
         }
+    }
+    
+    // Makes an already validated move and appends it to the packed history
+    private void applyMove(ChessGame.Position from, ChessGame.Position to, int promotionType) {
+        ChessPiece piece = getPieceAt(from);
+        ChessPiece target = getPieceAt(to);
         
-        // Update en passant target
-        if (piece instanceof Pawn && Math.abs(from.row - to.row) == 2) {
-            // Pawn moved two squares, set en passant target
-            enPassantTarget = new ChessGame.Position((from.row + to.row) / 2, to.col);
-        } else {
+        int record = (from.row * 8 + from.col)
+            | (to.row * 8 + to.col) << 6
+            | castlingRights() << 20
+            | (enPassantTarget == null ? 0 : enPassantTarget.col + 1) << 24;
+        
+        if (isCastling(piece, from, to)) {
+            // Handle castling
+            record |= SPECIAL_CASTLE << 18 | handleCastling(from, to) << 28;
             enPassantTarget = null;
+        } else {
+            if (target != null) {
+                record |= pieceType(target) << 12;
+            }
+            
+            // Handle en passant capture
+            if (piece instanceof Pawn && to.col != from.col && target == null) {
+                // This is a diagonal move to an empty square, must be en passant
+                board[from.row][to.col] = null;
+                record |= SPECIAL_EN_PASSANT << 18;
+            }
+            
+            // Update en passant target
+            if (piece instanceof Pawn && Math.abs(from.row - to.row) == 2) {
+                // Pawn moved two squares, set en passant target
+                enPassantTarget = ChessGame.Position.of((from.row + to.row) / 2, to.col);
+            } else {
+                enPassantTarget = null;
+            }
+            
+            // Update castling rights
+            updateCastlingRights(from, to, piece);
+            
+            // Make the move
+            board[to.row][to.col] = promotionType != 0 ? createPiece(promotionType, piece.getColor()) : piece;
+            board[from.row][from.col] = null;
+            record |= promotionType << 15;
         }
         
-        // Update castling rights
-        updateCastlingRights(from, to, piece);
+        if (ply == history.length) {
+            history = Arrays.copyOf(history, ply * 2);
+            positionHashes = Arrays.copyOf(positionHashes, ply * 2 + 1);
+            halfmoveClocks = Arrays.copyOf(halfmoveClocks, ply * 2 + 1);
+        }
+        history[ply++] = record;
         
-        // Record the move
-        moveHistory.add(new MoveRecord(from, to, piece, getPieceAt(to)));
+        // Pawn moves and captures are irreversible and restart the fifty-move count
+        boolean irreversible = piece instanceof Pawn || (record >>> 12 & 7) != 0;
+        halfmoveClocks[ply] = irreversible ? 0 : halfmoveClocks[ply - 1] + 1;
+        updatePositionKeys();
         
-        // Make the move
-        board[to.row][to.col] = piece;
-        board[from.row][from.col] = null;
+        if (ply % KEYFRAME_INTERVAL == 0 && keyframes.size() == ply / KEYFRAME_INTERVAL) {
+            keyframes.add(createKeyframe());
+        }
+    }
+    
+    public int getPly() {
+        return ply;
+    }
+    
+    public int getHistoryLength() {
+        return historyLength;
+    }
+    
+    // The move code played at a ply before the current one, 0 <= index < getPly()
+    public int getMove(int index) {
+        int record = history[index];
+        return (record & 0xFFF) | (record >>> 15 & 7) << 12;
+    }
+    
+    public boolean canUndo() {
+        return ply > 0;
+    }
+    
+    public boolean canRedo() {
+        return ply < historyLength;
+    }
+    
+    // Takes back the last move in constant time using only the packed record
+    public void undoMove() {
+        if (!canUndo()) return;
+        
+        int record = history[--ply];
+        int from = record & 63;
+        int to = (record >>> 6) & 63;
+        int capturedType = (record >>> 12) & 7;
+        int promotionType = (record >>> 15) & 7;
+        int special = (record >>> 18) & 3;
+        int row = from / 8;
+        
+        ChessPiece moved;
+        if (special == SPECIAL_CASTLE) {
+            int rookFromCol = (record >>> 28) & 7;
+            boolean kingside = rookFromCol > from % 8;
+            int kingToCol = kingside ? 6 : 2;
+            int rookToCol = kingside ? 5 : 3;
+            moved = board[row][kingToCol];
+            ChessPiece rook = board[row][rookToCol];
+            board[row][kingToCol] = null;
+            board[row][rookToCol] = null;
+            board[row][from % 8] = moved;
+            board[row][rookFromCol] = rook;
+        } else {
+            moved = board[to / 8][to % 8];
+            ChessPiece.Color opponent = moved.getColor() == ChessPiece.Color.WHITE ?
+                                        ChessPiece.Color.BLACK : ChessPiece.Color.WHITE;
+            
+            board[row][from % 8] = promotionType != 0 ? createPiece(PAWN, moved.getColor()) : moved;
+            board[to / 8][to % 8] = capturedType != 0 ? createPiece(capturedType, opponent) : null;
+            if (special == SPECIAL_EN_PASSANT) {
+                board[row][to % 8] = createPiece(PAWN, opponent);
+            }
+        }
         
-        return true;
+        setCastlingRights((record >>> 20) & 15);
+        int enPassantFile = (record >>> 24) & 15;
+        enPassantTarget = enPassantFile == 0 ? null :
+            ChessGame.Position.of(moved.getColor() == ChessPiece.Color.WHITE ? 2 : 5, enPassantFile - 1);
+        updatePositionKeys();
     }
     
-    private void handleCastling(ChessGame.Position from, ChessGame.Position to) {
-        int row = from.row;
-        ChessPiece king = getPieceAt(from);
+    public void redoMove() {
+        if (!canRedo()) return;
+        
+        int record = history[ply];
+        applyMove(square(record & 63), square((record >>> 6) & 63), (record >>> 15) & 7);
+    }
+    
+    // Jumps to any ply of the recorded line, via the nearest keyframe when that is closer
+    public void seek(int targetPly) {
+        int target = Math.max(0, Math.min(targetPly, historyLength));
         
-        // Determine rook positions based on standard chess or Chess960
-        int rookFromCol, rookToCol;
+        if (Math.abs(target - ply) > KEYFRAME_INTERVAL) {
+            int keyframe = target / KEYFRAME_INTERVAL;
+            ply = keyframe * KEYFRAME_INTERVAL;
+            restoreKeyframe(keyframes.get(keyframe));
+        }
         
-        if (isChess960) {
-            // In Chess960, find the rook on the appropriate side
-            if (to.col == 6) { // Kingside castling
-                rookFromCol = -1;
-                for (int col = 7; col > from.col; col--) {
-                    ChessPiece piece = board[row][col];
-                    if (piece instanceof Rook && piece.getColor() == king.getColor()) {
-                        rookFromCol = col;
-                        break;
-                    }
+        while (ply > target) {
+            undoMove();
+        }
+        while (ply < target) {
+            redoMove();
+        }
+    }
+    
+    private static ChessGame.Position square(int index) {
+        return ChessGame.Position.of(index / 8, index % 8);
+    }
+    
+    private int castlingRights() {
+        return (whiteCanCastleKingside ? 1 : 0)
+            | (whiteCanCastleQueenside ? 2 : 0)
+            | (blackCanCastleKingside ? 4 : 0)
+            | (blackCanCastleQueenside ? 8 : 0);
+    }
+    
+    private void setCastlingRights(int rights) {
+        whiteCanCastleKingside = (rights & 1) != 0;
+        whiteCanCastleQueenside = (rights & 2) != 0;
+        blackCanCastleKingside = (rights & 4) != 0;
+        blackCanCastleQueenside = (rights & 8) != 0;
+    }
+    
+    // Keyframe layout: 64 square codes (type, plus 8 for black), castling rights, en passant row and file
+    private byte[] createKeyframe() {
+        byte[] keyframe = new byte[67];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                ChessPiece piece = board[row][col];
+                if (piece != null) {
+                    keyframe[row * 8 + col] = (byte) (pieceType(piece) | (piece.getColor() == ChessPiece.Color.BLACK ? 8 : 0));
                 }
-                rookToCol = 5;
-            } else { // Queenside castling
-                rookFromCol = -1;
-                for (int col = 0; col < from.col; col++) {
-                    ChessPiece piece = board[row][col];
-                    if (piece instanceof Rook && piece.getColor() == king.getColor()) {
-                        rookFromCol = col;
-                        break;
-                    }
+            }
+        }
+        keyframe[64] = (byte) castlingRights();
+        keyframe[65] = (byte) (enPassantTarget == null ? -1 : enPassantTarget.row);
+        keyframe[66] = (byte) (enPassantTarget == null ? -1 : enPassantTarget.col);
+        return keyframe;
+    }
+    
+    private void restoreKeyframe(byte[] keyframe) {
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                int code = keyframe[row * 8 + col];
+                board[row][col] = code == 0 ? null :
+                    createPiece(code & 7, (code & 8) != 0 ? ChessPiece.Color.BLACK : ChessPiece.Color.WHITE);
+            }
+        }
+        setCastlingRights(keyframe[64]);
+        enPassantTarget = keyframe[65] < 0 ? null : ChessGame.Position.of(keyframe[65], keyframe[66]);
+        updatePositionKeys();
+    }
+    
+    public long getPositionHash() {
+        return positionHashes[ply];
+    }
+    
+    // The position hash with the side to move, for tables that search both sides' positions
+    public long getPositionKey(ChessPiece.Color toMove) {
+        return positionHashes[ply] ^ (toMove == ChessPiece.Color.BLACK ? BLACK_TO_MOVE_KEY : 0);
+    }
+    
+    public boolean isChess960() {
+        return isChess960;
+    }
+    
+    // Castling rights as bits: 1 white kingside, 2 white queenside, 4 black kingside, 8 black queenside
+    int getCastlingRights() {
+        return castlingRights();
+    }
+    
+    int getKingsideRookCol() {
+        return kingsideRookCol;
+    }
+    
+    int getQueensideRookCol() {
+        return queensideRookCol;
+    }
+    
+    // The square a pawn passed over on the last move, or null
+    ChessGame.Position getEnPassantTarget() {
+        return enPassantTarget;
+    }
+    
+    public int getHalfmoveClock() {
+        return halfmoveClocks[ply];
+    }
+    
+    // Compares only positions with the same side to move since the last irreversible move,
+    // so at most fifty hashes are checked however long the game is
+    public boolean isThreefoldRepetition() {
+        long hash = positionHashes[ply];
+        // Positions set up mid-game, e.g. from FEN, have no history before their first ply
+        int oldest = Math.max(0, ply - halfmoveClocks[ply]);
+        int repetitions = 1;
+        for (int i = ply - 2; i >= oldest; i -= 2) {
+            if (positionHashes[i] == hash && ++repetitions == 3) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public boolean isFiftyMoveRule() {
+        return halfmoveClocks[ply] >= 100;
+    }
+    
+    public boolean isInsufficientMaterial() {
+        return INSUFFICIENT_MATERIAL.contains(materialSignature);
+    }
+    
+    private static long signatureBit(ChessPiece.Color color, int kind) {
+        return 1L << (4 * (kind + (color == ChessPiece.Color.BLACK ? SIGNATURE_KINDS : 0)));
+    }
+    
+    // Recomputes the Zobrist hash and material signature of the current position
+    private void updatePositionKeys() {
+        long hash = 0;
+        long signature = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                ChessPiece piece = board[row][col];
+                if (piece == null) continue;
+                
+                int type = pieceType(piece);
+                hash ^= PIECE_KEYS[(type | (piece.getColor() == ChessPiece.Color.BLACK ? 8 : 0)) * 64 + row * 8 + col];
+                
+                int kind = type <= KNIGHT ? type - 1 : type == BISHOP ? 2 + (row + col) % 2 : type;
+                signature += signatureBit(piece.getColor(), kind);
+            }
+        }
+        hash ^= CASTLING_KEYS[castlingRights()];
+        
+        // The en passant file only distinguishes positions where the capture is available
+        if (enPassantTarget != null) {
+            int pawnRow = enPassantTarget.row == 2 ? 3 : 4;
+            ChessPiece.Color capturer = pawnRow == 3 ? ChessPiece.Color.WHITE : ChessPiece.Color.BLACK;
+            for (int col = enPassantTarget.col - 1; col <= enPassantTarget.col + 1; col += 2) {
+                if (col >= 0 && col < 8 && board[pawnRow][col] instanceof Pawn && board[pawnRow][col].getColor() == capturer) {
+                    hash ^= EN_PASSANT_KEYS[enPassantTarget.col];
+                    break;
                 }
-                rookToCol = 3;
             }
-        } else {
-            // Standard chess
-            if (to.col == 6) { // Kingside castling
-                rookFromCol = 7;
-                rookToCol = 5;
-            } else { // Queenside castling
-                rookFromCol = 0;
-                rookToCol = 3;
+        }
+        
+        positionHashes[ply] = hash;
+        materialSignature = signature;
+        version++;
+    }
+    
+    static int pieceType(ChessPiece piece) {
+        if (piece instanceof Pawn) return PAWN;
+        if (piece instanceof Knight) return KNIGHT;
+        if (piece instanceof Bishop) return BISHOP;
+        if (piece instanceof Rook) return ROOK;
+        if (piece instanceof Queen) return QUEEN;
+        return KING;
+    }
+    
+    // Pieces carry only their type and color, so all boards share one instance of each
+    static ChessPiece createPiece(int type, ChessPiece.Color color) {
+        boolean white = color == ChessPiece.Color.WHITE;
+        switch (type) {
+            case PAWN: return white ? Pawn.WHITE : Pawn.BLACK;
+            case KNIGHT: return white ? Knight.WHITE : Knight.BLACK;
+            case BISHOP: return white ? Bishop.WHITE : Bishop.BLACK;
+            case ROOK: return white ? Rook.WHITE : Rook.BLACK;
+            case QUEEN: return white ? Queen.WHITE : Queen.BLACK;
+            case KING: return white ? King.WHITE : King.BLACK;
+            default: throw new IllegalArgumentException("Unknown piece type: " + type);
+        }
+    }
+    
+    // Games saved before the packed history existed start their history at the loaded position
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (kingsideRookCol == 0) {
+            inferRookFiles();
+        }
+        if (history == null) {
+            history = new int[128];
+            ply = 0;
+            historyLength = 0;
+            keyframes = new ArrayList<>();
+            keyframes.add(createKeyframe());
+        }
+        if (positionHashes == null) {
+            positionHashes = new long[history.length + 1];
+            halfmoveClocks = new int[history.length + 1];
+        }
+        updatePositionKeys();
+    }
+    
+    // A king move of two or more files, or onto its own rook in Chess960
+    private boolean isCastling(ChessPiece piece, ChessGame.Position from, ChessGame.Position to) {
+        if (!(piece instanceof King)) return false;
+        ChessPiece target = getPieceAt(to);
+        return Math.abs(from.col - to.col) > 1 || (target instanceof Rook && target.getColor() == piece.getColor());
+    }
+    
+    // Games saved before the rook files were kept: standard files, or in Chess960 the outermost
+    // rooks still on the home rank beside a king that may castle
+    private void inferRookFiles() {
+        kingsideRookCol = 7;
+        queensideRookCol = 0;
+        if (!isChess960) return;
+        
+        for (int row : new int[] {7, 0}) {
+            int kingCol = -1;
+            for (int col = 0; col < 8; col++) {
+                if (board[row][col] instanceof King) kingCol = col;
+            }
+            if (kingCol < 0) continue;
+            for (int col = 7; col > kingCol; col--) {
+                if (board[row][col] instanceof Rook) {
+                    kingsideRookCol = col;
+                    break;
+                }
+            }
+            for (int col = 0; col < kingCol; col++) {
+                if (board[row][col] instanceof Rook) {
+                    queensideRookCol = col;
+                    break;
+                }
             }
+            return;
         }
+    }
+    
+    // Moves king and rook, returning the column the rook started on
+    private int handleCastling(ChessGame.Position from, ChessGame.Position to) {
+        int row = from.row;
+        ChessPiece king = getPieceAt(from);
         
-        // Move the king
-        board[to.row][to.col] = king;
-        board[from.row][from.col] = null;
+        // The king lands on the g-file (kingside) or c-file (queenside) and the rook beside it
+        boolean kingside = to.col > from.col;
+        ChessPiece target = getPieceAt(to);
+        int rookFromCol = target instanceof Rook && target.getColor() == king.getColor() ? to.col
+                        : kingside ? kingsideRookCol : queensideRookCol;
+        int kingToCol = kingside ? 6 : 2;
+        int rookToCol = kingside ? 5 : 3;
         
-        // Move the rook
+        // Lift both pieces first, since in Chess960 either may land on the other's square
         ChessPiece rook = board[row][rookFromCol];
-        board[row][rookToCol] = rook;
+        board[from.row][from.col] = null;
         board[row][rookFromCol] = null;
         
+        // Move the king and the rook
+        board[row][kingToCol] = king;
+        board[row][rookToCol] = rook;
+        
         // Update castling rights
         if (king.getColor() == ChessPiece.Color.WHITE) {
             whiteCanCastleKingside = false;
@@ -1119,6 +1782,8 @@ class ChessBoard implements Serializable {
             blackCanCastleKingside = false;
             blackCanCastleQueenside = false;
         }
+        
+        return rookFromCol;
     }
     
     private void updateCastlingRights(ChessGame.Position from, ChessGame.Position to, ChessPiece piece) {
@@ -1134,114 +1799,142 @@ class ChessBoard implements Serializable {
             return;
         }
         
-        // Rook moved or captured
+        // Rook moved from its starting square
         if (piece instanceof Rook) {
-            if (piece.getColor() == ChessPiece.Color.WHITE) {
-                if (from.row == 7) {
-                    if (from.col == 0) {
-                        whiteCanCastleQueenside = false;
-                    } else if (from.col == (isChess960 ? findRookCol(ChessPiece.Color.WHITE, true) : 7)) {
-                        whiteCanCastleKingside = false;
-                    }
-                }
-            } else {
-                if (from.row == 0) {
-                    if (from.col == 0) {
-                        blackCanCastleQueenside = false;
-                    } else if (from.col == (isChess960 ? findRookCol(ChessPiece.Color.BLACK, true) : 7)) {
-                        blackCanCastleKingside = false;
-                    }
-                }
-            }
+            clearRookCastlingRight(from);
         }
         
-        // Rook captured
-        ChessPiece capturedPiece = getPieceAt(to);
-        if (capturedPiece instanceof Rook) {
-            if (capturedPiece.getColor() == ChessPiece.Color.WHITE) {
-                if (to.row == 7) {
-                    if (to.col == 0) {
-                        whiteCanCastleQueenside = false;
-                    } else if (to.col == (isChess960 ? findRookCol(ChessPiece.Color.WHITE, true) : 7)) {
-                        whiteCanCastleKingside = false;
-                    }
-                }
-            } else {
-                if (to.row == 0) {
-                    if (to.col == 0) {
-                        blackCanCastleQueenside = false;
-                    } else if (to.col == (isChess960 ? findRookCol(ChessPiece.Color.BLACK, true) : 7)) {
-                        blackCanCastleKingside = false;
-                    }
-                }
-            }
+        // Rook captured on its starting square
+        if (getPieceAt(to) instanceof Rook) {
+            clearRookCastlingRight(to);
         }
     }
     
-    private int findRookCol(ChessPiece.Color color, boolean kingside) {
-        int row = (color == ChessPiece.Color.WHITE) ? 7 : 0;
-        
-        // Find king first
-        int kingCol = -1;
-        for (int col = 0; col < 8; col++) {
-            ChessPiece piece = board[row][col];
-            if (piece instanceof King && piece.getColor() == color) {
-                kingCol = col;
-                break;
+    private void clearRookCastlingRight(ChessGame.Position square) {
+        if (square.row == 7) {
+            if (square.col == queensideRookCol) whiteCanCastleQueenside = false;
+            if (square.col == kingsideRookCol) whiteCanCastleKingside = false;
+        } else if (square.row == 0) {
+            if (square.col == queensideRookCol) blackCanCastleQueenside = false;
+            if (square.col == kingsideRookCol) blackCanCastleKingside = false;
+        }
+    }
+    
+    // Move codes pack from (bits 0-5), to (6-11) and promotion type (12-14)
+    static int encodeMove(ChessGame.Position from, ChessGame.Position to, int promotionType) {
+        return (from.row * 8 + from.col) | (to.row * 8 + to.col) << 6 | promotionType << 12;
+    }
+    
+    static ChessGame.Position moveFrom(int move) {
+        return square(move & 63);
+    }
+    
+    static ChessGame.Position moveTo(int move) {
+        return square((move >>> 6) & 63);
+    }
+    
+    static int movePromotion(int move) {
+        return (move >>> 12) & 7;
+    }
+    
+    private boolean isLegalMoveCached(ChessGame.Position from, ChessGame.Position to) {
+        int fromSquare = from.row * 8 + from.col;
+        int toSquare = to.row * 8 + to.col;
+        for (int move : getAllLegalMoves(getPieceAt(from).getColor())) {
+            if ((move & 63) == fromSquare && ((move >>> 6) & 63) == toSquare) {
+                return true;
             }
         }
-        
-        if (kingCol == -1) return -1;
-        
-        // Find the appropriate rook
-        if (kingside) {
-            for (int col = 7; col > kingCol; col--) {
-                ChessPiece piece = board[row][col];
-                if (piece instanceof Rook && piece.getColor() == color) {
-                    return col;
-                }
+        return false;
+    }
+    
+    // All legal moves for one side in a fixed order: squares row by row, each piece's moves in
+    // generation order, and promotions expanded to queen, rook, bishop, knight. The array is
+    // cached for the current position and must not be modified.
+    public int[] getAllLegalMoves(ChessPiece.Color color) {
+        if (legalMoves == null || legalMovesVersion != version || legalMovesColor != color) {
+            long start = System.nanoTime();
+            ChessEvents.MoveGeneration event = ChessEvents.MOVE_GENERATION.isEnabled() ? new ChessEvents.MoveGeneration() : null;
+            if (event != null) event.begin();
+            legalMoves = generateAllLegalMoves(color);
+            legalMovesVersion = version;
+            legalMovesColor = color;
+            if (event != null && event.shouldCommit()) {
+                event.positionHash = getPositionHash();
+                event.white = color == ChessPiece.Color.WHITE;
+                event.moves = legalMoves.length;
+                event.commit();
             }
+            LEGAL_MOVES_NANOS.recordSince(start);
         } else {
-            for (int col = 0; col < kingCol; col++) {
-                ChessPiece piece = board[row][col];
-                if (piece instanceof Rook && piece.getColor() == color) {
-                    return col;
-                }
-            }
+            LEGAL_MOVES_CACHED.increment();
         }
-        
-        return -1;
+        return legalMoves;
     }
     
-    public boolean playerHasLegalMoves(ChessPiece.Color color) {
+    private int[] generateAllLegalMoves(ChessPiece.Color color) {
+        int[] moves = new int[64];
+        int count = 0;
+        
         for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
                 ChessPiece piece = board[row][col];
-                if (piece != null && piece.getColor() == color) {
-                    List<ChessGame.Position> moves = getLegalMoves(new ChessGame.Position(row, col));
-                    if (!moves.isEmpty()) {
-                        return true;
+                if (piece == null || piece.getColor() != color) continue;
+                
+                ChessGame.Position from = ChessGame.Position.of(row, col);
+                for (ChessGame.Position to : generateLegalMoves(from)) {
+                    if (count + 4 > moves.length) {
+                        moves = Arrays.copyOf(moves, moves.length * 2);
+                    }
+                    if (piece instanceof Pawn && (to.row == 0 || to.row == 7)) {
+                        moves[count++] = encodeMove(from, to, QUEEN);
+                        moves[count++] = encodeMove(from, to, ROOK);
+                        moves[count++] = encodeMove(from, to, BISHOP);
+                        moves[count++] = encodeMove(from, to, KNIGHT);
+                    } else {
+                        moves[count++] = encodeMove(from, to, 0);
                     }
                 }
             }
         }
-        return false;
+        
+        return Arrays.copyOf(moves, count);
     }
     
-    // Record of moves for tracking game history
-    private static class MoveRecord implements Serializable {
-        private static final long serialVersionUID = 1L;
-        
-        final ChessGame.Position from;
-        final ChessGame.Position to;
-        final ChessPiece piece;
-        final ChessPiece capturedPiece;
+    // Plays a move code, including its promotion choice. A promotion is only accepted for a pawn
+    // reaching the last rank, and only to a knight, bishop, rook or queen.
+    public boolean makeMove(int move) {
+        ChessGame.Position from = moveFrom(move);
+        ChessGame.Position to = moveTo(move);
+        int promotionType = movePromotion(move);
+        if (promotionType != 0) {
+            boolean promotes = getPieceAt(from) instanceof Pawn && (to.row == 0 || to.row == 7);
+            if (!promotes || promotionType < KNIGHT || promotionType > QUEEN) return false;
+        }
+        if (!movePiece(from, to)) return false;
         
-        public MoveRecord(ChessGame.Position from, ChessGame.Position to, ChessPiece piece, ChessPiece capturedPiece) {
-            this.from = from;
-            this.to = to;
-            this.piece = piece;
-            this.capturedPiece = capturedPiece;
+        if (promotionType != 0) {
+            promotePawn(to, createPiece(promotionType, getPieceAt(to).getColor()));
+        }
+        return true;
+    }
+    
+    public boolean playerHasLegalMoves(ChessPiece.Color color) {
+        return getAllLegalMoves(color).length > 0;
+    }
+    
+    // An independent board with the same position and history, e.g. for a background search
+    public ChessBoard copy() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(this);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (ChessBoard) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot copy board", e);
         }
     }
 }
@@ -1250,14 +1943,27 @@ class ChessBoard implements Serializable {
 abstract class ChessPiece implements Serializable {
     private static final long serialVersionUID = 1L;
     
-    public enum Color { WHITE, BLACK }
+    public enum Color {
+        WHITE, BLACK;
+        
+        public Color opposite() {
+            return this == WHITE ? BLACK : WHITE;
+        }
+    }
     
     private final Color color;
     
-    public ChessPiece(Color color) {
+    // Subclasses keep one instance per color; get pieces from ChessBoard.createPiece
+    protected ChessPiece(Color color) {
         this.color = color;
     }
     
+    // Deserialized pieces, including those in games saved before pieces were shared, are
+    // replaced by the shared instance
+    protected Object readResolve() {
+        return ChessBoard.createPiece(ChessBoard.pieceType(this), color);
+    }
+    
     public Color getColor() {
         return color;
     }
@@ -1285,16 +1991,16 @@ abstract class ChessPiece implements Serializable {
             int c = col + dc;
             
             while (isValidPosition(r, c)) {
-                ChessPiece pieceAtTarget = board.getPieceAt(new ChessGame.Position(r, c));
+                ChessPiece pieceAtTarget = board.getPieceAt(r, c);
                 
                 if (pieceAtTarget == null) {
                     // Empty square, can move here
-                    moves.add(new ChessGame.Position(r, c));
+                    moves.add(ChessGame.Position.of(r, c));
                 } else {
                     // Square is occupied
                     if (pieceAtTarget.getColor() != this.color) {
                         // Can capture opponent's piece
-                        moves.add(new ChessGame.Position(r, c));
+                        moves.add(ChessGame.Position.of(r, c));
                     }
                     break; // Can't move further in this direction
                 }
@@ -1312,7 +2018,10 @@ abstract class ChessPiece implements Serializable {
 class King extends ChessPiece {
     private static final long serialVersionUID = 1L;
     
-    public King(Color color) {
+    static final King WHITE = new King(Color.WHITE);
+    static final King BLACK = new King(Color.BLACK);
+    
+    private King(Color color) {
         super(color);
     }
     
@@ -1339,10 +2048,10 @@ class King extends ChessPiece {
             int newCol = col + direction[1];
             
             if (isValidPosition(newRow, newCol)) {
-                ChessPiece pieceAtTarget = board.getPieceAt(new ChessGame.Position(newRow, newCol));
+                ChessPiece pieceAtTarget = board.getPieceAt(newRow, newCol);
                 
                 if (pieceAtTarget == null || pieceAtTarget.getColor() != this.getColor()) {
-                    moves.add(new ChessGame.Position(newRow, newCol));
+                    moves.add(ChessGame.Position.of(newRow, newCol));
                 }
             }
         }
@@ -1357,7 +2066,10 @@ class King extends ChessPiece {
 class Queen extends ChessPiece {
     private static final long serialVersionUID = 1L;
     
-    public Queen(Color color) {
+    static final Queen WHITE = new Queen(Color.WHITE);
+    static final Queen BLACK = new Queen(Color.BLACK);
+    
+    private Queen(Color color) {
         super(color);
     }
     
@@ -1383,7 +2095,10 @@ class Queen extends ChessPiece {
 class Rook extends ChessPiece {
     private static final long serialVersionUID = 1L;
     
-    public Rook(Color color) {
+    static final Rook WHITE = new Rook(Color.WHITE);
+    static final Rook BLACK = new Rook(Color.BLACK);
+    
+    private Rook(Color color) {
         super(color);
     }
     
@@ -1409,7 +2124,10 @@ class Rook extends ChessPiece {
 class Bishop extends ChessPiece {
     private static final long serialVersionUID = 1L;
     
-    public Bishop(Color color) {
+    static final Bishop WHITE = new Bishop(Color.WHITE);
+    static final Bishop BLACK = new Bishop(Color.BLACK);
+    
+    private Bishop(Color color) {
         super(color);
     }
     
@@ -1434,7 +2152,10 @@ class Bishop extends ChessPiece {
 class Knight extends ChessPiece {
     private static final long serialVersionUID = 1L;
     
-    public Knight(Color color) {
+    static final Knight WHITE = new Knight(Color.WHITE);
+    static final Knight BLACK = new Knight(Color.BLACK);
+    
+    private Knight(Color color) {
         super(color);
     }
     
@@ -1462,10 +2183,10 @@ class Knight extends ChessPiece {
             int newCol = col + move[1];
             
             if (isValidPosition(newRow, newCol)) {
-                ChessPiece pieceAtTarget = board.getPieceAt(new ChessGame.Position(newRow, newCol));
+                ChessPiece pieceAtTarget = board.getPieceAt(newRow, newCol);
                 
                 if (pieceAtTarget == null || pieceAtTarget.getColor() != this.getColor()) {
-                    moves.add(new ChessGame.Position(newRow, newCol));
+                    moves.add(ChessGame.Position.of(newRow, newCol));
                 }
             }
         }
@@ -1478,7 +2199,10 @@ class Knight extends ChessPiece {
 class Pawn extends ChessPiece {
     private static final long serialVersionUID = 1L;
     
-    public Pawn(Color color) {
+    static final Pawn WHITE = new Pawn(Color.WHITE);
+    static final Pawn BLACK = new Pawn(Color.BLACK);
+    
+    private Pawn(Color color) {
         super(color);
     }
     
@@ -1498,14 +2222,14 @@ class Pawn extends ChessPiece {
         
         // Forward move
         int newRow = row + direction;
-        if (isValidPosition(newRow, col) && board.getPieceAt(new ChessGame.Position(newRow, col)) == null) {
-            moves.add(new ChessGame.Position(newRow, col));
+        if (isValidPosition(newRow, col) && board.getPieceAt(newRow, col) == null) {
+            moves.add(ChessGame.Position.of(newRow, col));
             
             // Double move from starting position
             if ((getColor() == Color.WHITE && row == 6) || (getColor() == Color.BLACK && row == 1)) {
                 newRow = row + 2 * direction;
-                if (isValidPosition(newRow, col) && board.getPieceAt(new ChessGame.Position(newRow, col)) == null) {
-                    moves.add(new ChessGame.Position(newRow, col));
+                if (isValidPosition(newRow, col) && board.getPieceAt(newRow, col) == null) {
+                    moves.add(ChessGame.Position.of(newRow, col));
                 }
             }
         }
@@ -1516,10 +2240,10 @@ class Pawn extends ChessPiece {
             newRow = row + direction;
             
             if (isValidPosition(newRow, newCol)) {
-                ChessPiece pieceAtTarget = board.getPieceAt(new ChessGame.Position(newRow, newCol));
+                ChessPiece pieceAtTarget = board.getPieceAt(newRow, newCol);
                 
                 if (pieceAtTarget != null && pieceAtTarget.getColor() != this.getColor()) {
-                    moves.add(new ChessGame.Position(newRow, newCol));
+                    moves.add(ChessGame.Position.of(newRow, newCol));
                 }
             }
         }
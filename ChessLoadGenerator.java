@@ -0,0 +1,160 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Drives a ChessServer with many concurrent games of random legal moves and reports throughput and
+// move latency. Every game is one connection playing both sides; a finished game is replaced by a
+// new one. All connections are opened before play starts, so the figures are for the full number
+// of games. Latency is the round trip of a MOVE request.
+// Usage: java ChessLoadGenerator [games] [seconds] [port]
+public class ChessLoadGenerator {
+    private static final int MAX_SAMPLES_PER_PLAYER = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : ChessServer.DEFAULT_PORT;
+
+        ThreadFactory threads = ChessServer.connectionThreads();
+        CountDownLatch connected = new CountDownLatch(gameCount);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(gameCount);
+        AtomicInteger failures = new AtomicInteger();
+        Player[] players = new Player[gameCount];
+
+        for (int i = 0; i < gameCount; i++) {
+            players[i] = new Player(new Random(i));
+            Player player = players[i];
+            threads.newThread(() -> {
+                try {
+                    player.connect(port);
+                    connected.countDown();
+                    go.await();
+                    player.play();
+                } catch (IOException | RuntimeException | InterruptedException e) {
+                    if (failures.incrementAndGet() <= 5) {
+                        System.err.println("Player failed: " + e);
+                    }
+                } finally {
+                    if (player.socket == null) connected.countDown();
+                    done.countDown();
+                }
+            }).start();
+        }
+        connected.await();
+        System.out.printf("%d connections open%n", gameCount - failures.get());
+
+        long start = System.nanoTime();
+        Player.deadline = start + seconds * 1_000_000_000L;
+        go.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long moves = 0;
+        long games = 0;
+        int samples = 0;
+        for (Player player : players) {
+            moves += player.moves;
+            games += player.games;
+            samples += player.sampleCount;
+        }
+        long[] latencies = new long[samples];
+        int offset = 0;
+        for (Player player : players) {
+            System.arraycopy(player.latencies, 0, latencies, offset, player.sampleCount);
+            offset += player.sampleCount;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%d concurrent games, %d failed connections, %.1f s%n", gameCount, failures.get(), elapsed);
+        System.out.printf("%d moves in %d games, %.0f moves/s%n", moves, games, moves / elapsed);
+        if (samples > 0) {
+            System.out.printf("Move latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6, latencies[samples - 1] / 1e6);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+    private static final class Player {
+        // Set before play starts; the start latch publishes it to every player
+        static long deadline;
+
+        final Random random;
+        final long[] latencies = new long[MAX_SAMPLES_PER_PLAYER];
+        int sampleCount;
+        long moves;
+        long games;
+
+        Socket socket;
+        private BufferedReader in;
+        private OutputStream out;
+
+        Player(Random random) {
+            this.random = random;
+        }
+
+        void connect(int port) throws IOException {
+            Socket opened = new Socket(InetAddress.getLoopbackAddress(), port);
+            opened.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(opened.getInputStream(), StandardCharsets.US_ASCII), 1024);
+            out = opened.getOutputStream();
+            socket = opened;
+        }
+
+        void play() throws IOException {
+            try {
+                while (System.nanoTime() < deadline) {
+                    request("NEW");
+                    games++;
+                    while (System.nanoTime() < deadline) {
+                        String[] legal = request("MOVES").split(" ");
+                        if (legal.length < 2) break;
+
+                        String move = legal[1 + random.nextInt(legal.length - 1)];
+                        long sent = System.nanoTime();
+                        String reply = request("MOVE " + move);
+                        long latency = System.nanoTime() - sent;
+
+                        moves++;
+                        if (sampleCount < latencies.length) {
+                            latencies[sampleCount++] = latency;
+                        } else {
+                            // Reservoir sampling keeps long runs representative within a fixed array
+                            long slot = (long) (random.nextDouble() * moves);
+                            if (slot < latencies.length) latencies[(int) slot] = latency;
+                        }
+                        if (!reply.endsWith(" *")) break;
+                    }
+                }
+                request("QUIT");
+            } finally {
+                socket.close();
+            }
+        }
+
+        // Sends one request and returns its reply, skipping event lines
+        private String request(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            while (true) {
+                String reply = in.readLine();
+                if (reply == null) throw new IOException("Server closed the connection");
+                if (reply.startsWith("EVENT ")) continue;
+                if (reply.startsWith("ERR")) throw new IOException(line + ": " + reply);
+                return reply;
+            }
+        }
+    }
+}
@@ -0,0 +1,484 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Hosts many games in one JVM behind a line-based protocol on localhost. Each connection plays
+// one game at a time; games are headless GameSessions whose clocks share the one clock thread and
+// are only looked at when a flag could fall.
+//
+// Requests, one per line; every request gets exactly one reply line starting with OK or ERR:
+//   NEW [960[:number]] [timeControl]   start a game; you play both sides until someone joins
+//   JOIN id                            take black in another connection's game
+//   MOVE e2e4 | e7e8q                  play a move; reply "OK move result" with result 1-0, 0-1, 1/2-1/2 or *
+//   MOVES                              legal moves of the side to move
+//   STATE                              "OK ply side whiteMillis blackMillis result"
+//   RESIGN
+//   WATCH id                           follow a game: "OK id moves m1 m2 ..." with the moves so far
+//   QUIT
+// Moves of the other player and games ending on time arrive unasked as "EVENT MOVE e7e5" and
+// "EVENT OVER result reason" lines, which can come before any reply. Spectators get every event
+// of the watched game as a "WATCH" line, e.g. "WATCH MOVE 3 g1f3" or "WATCH RESULT 1-0 reason".
+//
+// Usage: java ChessServer [port]
+// Metrics are published as JMX MBeans, and as text with -Dchess.metrics.port=N (see Metrics).
+public class ChessServer {
+    static final int DEFAULT_PORT = 7878;
+
+    // Platform threads only need room for a shallow read loop; 10,000 of them at the default
+    // stack size would reserve gigabytes of address space
+    private static final long PLATFORM_STACK_BYTES = 256 * 1024;
+    private static final int MAX_LINE = 256;
+    // Load tests open thousands of connections at once; the kernel caps this at its own limit
+    private static final int ACCEPT_BACKLOG = 10_000;
+    // Lines waiting for a client that has stopped reading; past this it is disconnected
+    private static final int MAX_QUEUED_LINES = 1024;
+    // How long a closing connection lets the flusher deliver what is queued
+    private static final long CLOSE_MILLIS = 1000;
+    // A client that takes longer than this to accept one batch is disconnected, so it cannot
+    // hold up the flusher for everyone else
+    private static final long WRITE_TIMEOUT_MILLIS = 500;
+    // Tells the flusher that a connection has nothing more to send
+    private static final String END_OF_OUTPUT = new String("END");
+
+    private final Map<Integer, HostedGame> games = new ConcurrentHashMap<>();
+    private final AtomicInteger nextGameId = new AtomicInteger(1);
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ThreadFactory threads = connectionThreads();
+    // Connections with lines queued, each listed once until the flusher has drained it
+    private final BlockingQueue<Connection> ready = new LinkedBlockingQueue<>();
+    // The connection the flusher is writing to, and since when, for the watchdog
+    private volatile Connection writing;
+    private volatile long writingSince;
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Metrics.export();
+        new ChessServer().serve(port);
+    }
+
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, ACCEPT_BACKLOG, InetAddress.getLoopbackAddress())) {
+            System.out.println("Serving games on " + server.getLocalSocketAddress());
+            startStatusReports();
+            startFlusher();
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                threads.newThread(new Connection(socket)).start();
+            }
+        }
+    }
+
+    // Virtual threads where the JVM has them (Java 21 and later), otherwise small-stack platform
+    // threads. Looked up reflectively so the server still builds and runs on Java 17.
+    static ThreadFactory connectionThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(null, runnable, "chess-connection-" + count.incrementAndGet(), PLATFORM_STACK_BYTES);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    private void startStatusReports() {
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+                System.out.printf("%d connections, %d games, %d MB heap used%n",
+                    connections.get(), games.size(), heap >> 20);
+            }
+        }, "chess-server-status");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    // One thread writes what other threads queue for every connection: a socket write only blocks
+    // once the client's receive window and the send buffer are both full, and the watchdog drops
+    // a client that keeps it there
+    private void startFlusher() {
+        Thread flusher = new Thread(() -> {
+            try {
+                while (true) {
+                    Connection connection = ready.take();
+                    writingSince = System.nanoTime();
+                    writing = connection;
+                    connection.flushQueued();
+                    writing = null;
+                }
+            } catch (InterruptedException e) {
+                // Shutting down
+            }
+        }, "chess-server-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        Thread watchdog = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(WRITE_TIMEOUT_MILLIS / 2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Read in the opposite order to the flusher, so the time is never older than the
+                // write it belongs to
+                Connection connection = writing;
+                long since = writingSince;
+                if (connection != null && System.nanoTime() - since > TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MILLIS)) {
+                    // Closing the socket ends the blocked write, and the reader cleans up
+                    connection.disconnect();
+                }
+            }
+        }, "chess-server-flush-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    // A game and the connections playing it. White is the creator; until someone joins, the
+    // creator moves for black too.
+    private final class HostedGame implements GameSession.Listener {
+        final int id;
+        final GameSession session;
+        final Connection white;
+        volatile Connection black;
+        final GameEventStream spectators = new GameEventStream();
+
+        HostedGame(int id, GameSession session, Connection white) {
+            this.id = id;
+            this.session = session;
+            this.white = white;
+            session.addListener(spectators);
+        }
+
+        boolean mayMove(Connection connection) {
+            Connection opponent = black;
+            if (opponent == null) return connection == white;
+            return connection == (session.isWhiteTurn() ? white : opponent);
+        }
+
+        ChessPiece.Color colorOf(Connection connection) {
+            return connection == black ? ChessPiece.Color.BLACK : ChessPiece.Color.WHITE;
+        }
+
+        Connection opponentOf(Connection connection) {
+            return connection == white ? black : white;
+        }
+
+        @Override
+        public void gameOver(GameSession source, GameSession.Result result, String reason) {
+            String event = "EVENT OVER " + GameSession.resultText(result) + " " + reason;
+            white.send(event);
+            Connection opponent = black;
+            if (opponent != null) opponent.send(event);
+        }
+
+        // Called when a player leaves; the game goes once nobody is left in it
+        void leave(Connection connection) {
+            if (session.isActive()) {
+                session.resign(colorOf(connection));
+            }
+            if (connection == white || black == null) {
+                session.stop();
+                games.remove(id);
+            }
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        // Replies and events go out through this queue. The reader drains it after each reply;
+        // lines queued on other threads are left to the shared flusher, so neither the clock
+        // thread nor a session lock ever waits for a slow client.
+        private final BlockingQueue<String> outbound = new LinkedBlockingQueue<>(MAX_QUEUED_LINES);
+        // Whether the connection is in the flusher's ready queue
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Held by whichever of the reader and the flusher is writing
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final CountDownLatch flushed = new CountDownLatch(1);
+        private OutputStream out;
+        private Thread reader;
+        private HostedGame game;
+        private GameEventStream.Subscription watching;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            connections.incrementAndGet();
+            reader = Thread.currentThread();
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream(), 512);
+                // Published to the flusher by the ready queue, since nothing is sent before this
+                out = new BufferedOutputStream(socket.getOutputStream(), 512);
+                StringBuilder line = new StringBuilder();
+                while (readLine(in, line)) {
+                    String request = line.toString().trim();
+                    if (request.equalsIgnoreCase("QUIT")) {
+                        send("OK bye");
+                        break;
+                    }
+                    String reply = handle(request);
+                    if (reply != null) send(reply);
+                    drain();
+                }
+            } catch (IOException e) {
+                // The client went away; its game is cleaned up below
+            } finally {
+                if (watching != null) watching.cancel();
+                if (game != null) game.leave(this);
+                close();
+                connections.decrementAndGet();
+            }
+        }
+
+        // Lets the flusher send what is queued, then closes the socket, which also frees the
+        // flusher if it is stuck on this client
+        private void close() {
+            try {
+                // A full queue means the client stopped reading; it gets nothing more
+                if (out != null && outbound.offer(END_OF_OUTPUT)) {
+                    schedule();
+                    flushed.await(CLOSE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                disconnect();
+            }
+        }
+
+        void disconnect() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already gone
+            }
+        }
+
+        private String handle(String request) {
+            String[] words = request.split("\\s+");
+            try {
+                switch (words[0].toUpperCase()) {
+                    case "NEW": return newGame(words);
+                    case "JOIN": return join(words);
+                    case "MOVE": return move(words);
+                    case "MOVES": return moves();
+                    case "STATE": return state();
+                    case "RESIGN": return resign();
+                    case "WATCH": return watch(words);
+                    default: return "ERR unknown request " + words[0];
+                }
+            } catch (IllegalArgumentException e) {
+                return "ERR " + e.getMessage();
+            }
+        }
+
+        private String newGame(String[] words) {
+            boolean chess960 = false;
+            int number = -1;
+            TimeControl timeControl = TimeControl.parse("10");
+            for (int i = 1; i < words.length; i++) {
+                if (words[i].startsWith("960")) {
+                    chess960 = true;
+                    if (words[i].startsWith("960:")) number = Integer.parseInt(words[i].substring(4));
+                } else {
+                    timeControl = TimeControl.parse(words[i]);
+                }
+            }
+
+            GameSession session = number >= 0 ? GameSession.chess960(number, timeControl)
+                                              : new GameSession(chess960, timeControl);
+            if (game != null) game.leave(this);
+            game = new HostedGame(nextGameId.getAndIncrement(), session, this);
+            session.addListener(game);
+            session.setClockEvents(false);
+            games.put(game.id, game);
+            session.start();
+            return "OK " + game.id;
+        }
+
+        private String join(String[] words) {
+            if (words.length < 2) return "ERR JOIN needs a game id";
+            HostedGame joined = games.get(Integer.parseInt(words[1]));
+            if (joined == null || joined.white == this) return "ERR no such game";
+            synchronized (joined) {
+                if (joined.black != null) return "ERR game is full";
+                joined.black = this;
+            }
+            if (game != null) game.leave(this);
+            game = joined;
+            return "OK " + joined.id + " black";
+        }
+
+        private String move(String[] words) {
+            if (game == null) return "ERR no game";
+            if (words.length < 2) return "ERR MOVE needs a move";
+            if (!game.mayMove(this)) return "ERR not your move";
+
+            int move = Notation.parseCoordinate(words[1].toLowerCase());
+            if (!game.session.move(move)) return "ERR illegal move " + words[1];
+
+            Connection opponent = game.opponentOf(this);
+            if (opponent != null) opponent.send("EVENT MOVE " + words[1].toLowerCase());
+            return "OK " + words[1].toLowerCase() + " " + GameSession.resultText(game.session.getResult());
+        }
+
+        private String moves() {
+            if (game == null) return "ERR no game";
+            StringBuilder reply = new StringBuilder("OK");
+            for (int move : game.session.getAllLegalMoves()) {
+                reply.append(' ').append(Notation.coordinate(move));
+            }
+            return reply.toString();
+        }
+
+        private String state() {
+            if (game == null) return "ERR no game";
+            GameSession session = game.session;
+            GameClock clock = session.getClock();
+            return "OK " + session.getBoard().getPly() + " " + (session.isWhiteTurn() ? "w" : "b") + " "
+                + clock.getRemainingMillis(true) + " " + clock.getRemainingMillis(false) + " "
+                + GameSession.resultText(session.getResult());
+        }
+
+        // Replies itself: the reply must go out before the first event, which can come at once
+        private String watch(String[] words) {
+            if (words.length < 2) return "ERR WATCH needs a game id";
+            HostedGame watched = games.get(Integer.parseInt(words[1]));
+            if (watched == null) return "ERR no such game";
+            if (watching != null) watching.cancel();
+
+            // Moves are published under the session's lock, so none falls between the list and
+            // the subscription
+            synchronized (watched.session) {
+                ChessBoard board = watched.session.getBoard();
+                StringBuilder reply = new StringBuilder("OK ").append(watched.id).append(" moves");
+                for (int ply = 0; ply < board.getPly(); ply++) {
+                    reply.append(' ').append(Notation.coordinate(board.getMove(ply)));
+                }
+                send(reply.toString());
+                watching = watched.spectators.subscribe(this::forward);
+            }
+            return null;
+        }
+
+        // One write for the whole batch, however many events it holds
+        private void forward(List<GameEventStream.Event> events, boolean missed) {
+            if (events.isEmpty() && !missed) return;
+            StringBuilder lines = new StringBuilder();
+            if (missed) lines.append("WATCH MISSED");
+            for (GameEventStream.Event event : events) {
+                if (lines.length() > 0) lines.append('\n');
+                lines.append("WATCH ").append(event);
+            }
+            send(lines.toString());
+        }
+
+        private String resign() {
+            if (game == null) return "ERR no game";
+            game.session.resign(game.colorOf(this));
+            return "OK " + GameSession.resultText(game.session.getResult());
+        }
+
+        // Queues a line for the client; never blocks. Replies and events come from different
+        // threads and go out in the order they were queued.
+        void send(String line) {
+            if (outbound.offer(line)) {
+                // The reader drains its own replies
+                if (Thread.currentThread() != reader) schedule();
+            } else {
+                // Too far behind to catch up: drop the client, and the reader cleans up
+                disconnect();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) ready.add(this);
+        }
+
+        // Writes everything queued and flushes once, so a burst of events goes out in one packet.
+        // If the other writer is busy here, it is left to that one.
+        void drain() {
+            if (!writeLock.tryLock()) return;
+            try {
+                write();
+            } finally {
+                writeLock.unlock();
+            }
+            // A line queued while the flusher was turned away above would otherwise wait here
+            if (!outbound.isEmpty()) schedule();
+        }
+
+        // Called on the flusher for a connection taken off the ready queue
+        void flushQueued() {
+            // Cleared first, so a line queued during the drain lists the connection again
+            scheduled.set(false);
+            drain();
+        }
+
+        private void write() {
+            try {
+                String line;
+                while ((line = outbound.poll()) != null) {
+                    if (line == END_OF_OUTPUT) {
+                        // Anything after it is for a client that has already gone
+                        outbound.clear();
+                        out.flush();
+                        flushed.countDown();
+                        return;
+                    }
+                    out.write(line.getBytes(StandardCharsets.US_ASCII));
+                    out.write('\n');
+                }
+                out.flush();
+            } catch (IOException e) {
+                // The client went away; the reader notices the closed socket and cleans up
+                outbound.clear();
+                flushed.countDown();
+            }
+        }
+
+        // Reads one line into the builder without a per-connection character decoder
+        private boolean readLine(InputStream in, StringBuilder line) throws IOException {
+            line.setLength(0);
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') return true;
+                if (line.length() >= MAX_LINE) throw new IOException("Request line too long");
+                line.append((char) c);
+            }
+            return line.length() > 0;
+        }
+    }
+}
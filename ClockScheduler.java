@@ -0,0 +1,58 @@
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// One daemon thread that drives clock checks and display refreshes for every game in the JVM.
+// Tasks must be short; anything touching Swing should hand off with invokeLater.
+final class ClockScheduler {
+    static final long TICK_MILLIS = 50;
+    private static final long TICK_NANOS = TICK_MILLIS * 1_000_000L;
+
+    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "chess-clock");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Metrics.Histogram DRIFT_NANOS = Metrics.histogram("chess_clock_tick_drift_nanos",
+        "How late clock ticks and flag checks start after their scheduled time");
+
+    static {
+        // Servers cancel and re-arm flag checks for thousands of games; drop cancelled tasks at once
+        EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private ClockScheduler() {
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable tick) {
+        // Fixed rate: tick n is due TICK_MILLIS * n after the first, however late the others ran
+        long[] due = {System.nanoTime() + TICK_NANOS};
+        return EXECUTOR.scheduleAtFixedRate(() -> {
+            DRIFT_NANOS.recordSince(due[0]);
+            due[0] += TICK_NANOS;
+            runReporting(tick);
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs a short task once after the given delay
+    public static ScheduledFuture<?> runLater(Runnable task, long delayNanos) {
+        long due = System.nanoTime() + delayNanos;
+        return EXECUTOR.schedule(() -> {
+            DRIFT_NANOS.recordSince(due);
+            runReporting(task);
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // A failing game must not cancel the clocks of the others, and the executor would otherwise
+    // keep the exception in the future where nobody looks; report it as if it had been uncaught,
+    // but keep the thread
+    private static void runReporting(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+}
@@ -0,0 +1,416 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+// Headless board diagrams in PNG and SVG, drawn with the same themes and glyph tiles as the
+// board window. Needs no display.
+//
+// PNGs are palette images. Every atlas tile is indexed once, with glyph edges reduced to SHADES
+// steps between glyph and background colour, and arrows add two fixed tints of those colours.
+// That keeps each diagram under 256 colours, so rows are assembled from tile rows with array
+// copies, and TileDeflater compresses them mostly from tile rows it compressed in advance. SVG
+// squares are spliced from markup prepared once per piece and background.
+//
+// Usage: java -Djava.awt.headless=true DiagramRenderer [--svg] [--size pixels] [--theme name]
+//            [--threads n] output-dir < games.txt
+// Each input line is one diagram: moves in coordinate form from the starting position, e.g.
+// "e2e4 e7e5 g1f3". The last move is highlighted.
+class DiagramRenderer {
+    private static final int ARROW_ALPHA = 160;
+    private static final int SHADES = 10;
+    private static final int BASE_COLORS = 4 * (1 + 2 * SHADES); // times three arrow tints, at most 256
+    private static final byte[] PNG_SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+    // One position to draw: piece codes and backgrounds as in BoardComponent, plus arrows
+    static final class Diagram {
+        final int[] tiles = new int[64];
+        final int[] arrows;
+
+        Diagram(int[] pieceCodes, Collection<ChessGame.Position> highlights, int[] arrows) {
+            for (int square = 0; square < 64; square++) {
+                tiles[square] = pieceCodes[square] | squareBackground(square) << 4;
+            }
+            for (ChessGame.Position square : highlights) {
+                tiles[square.row * 8 + square.col] = (tiles[square.row * 8 + square.col] & 15) | GlyphAtlas.SELECTED << 4;
+            }
+            this.arrows = arrows.clone();
+        }
+
+        Diagram(ChessBoard board, Collection<ChessGame.Position> highlights, int[] arrows) {
+            this(GlyphAtlas.pieceCodes(board), highlights, arrows);
+        }
+    }
+
+    // Per-thread scratch space, reused from one diagram to the next
+    private final class Workspace {
+        final int width = 8 * squareSize;
+        final byte[] rows = new byte[width * (width + 1)]; // filter byte plus indices per row
+        final BufferedImage arrowMask = new BufferedImage(width, width, BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] mask = ((DataBufferByte) arrowMask.getRaster().getDataBuffer()).getData();
+        final boolean[] drawn = new boolean[8 * width]; // tile rows an arrow passes over
+        final byte[] compressed = new byte[2 * rows.length + 1024];
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * 1024);
+        final CRC32 crc = new CRC32();
+        final StringBuilder svg = new StringBuilder(16 * 1024);
+    }
+
+    private final int squareSize;
+    private final GlyphAtlas.Theme theme;
+    private final GlyphAtlas atlas;
+    private final byte[][] indexedTiles = new byte[64][]; // by tile: piece code | background << 4
+    private final byte[] palette = new byte[3 * 3 * BASE_COLORS];
+    private final TileDeflater deflater;
+    private final String[] svgTiles = new String[64 * 64];
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    DiagramRenderer(int squareSize, GlyphAtlas.Theme theme) {
+        this.squareSize = squareSize;
+        this.theme = theme;
+        this.atlas = new GlyphAtlas(squareSize, theme.light, theme.dark);
+        indexAtlas();
+        this.deflater = new TileDeflater(indexedTiles, squareSize, 8);
+    }
+
+    private static Color[] backgrounds(GlyphAtlas.Theme theme) {
+        return new Color[] {theme.light, theme.dark, GlyphAtlas.SELECTED_COLOR, GlyphAtlas.LEGAL_MOVE_COLOR};
+    }
+
+    // Builds the palette and maps every atlas pixel to the nearest shade of its tile
+    private void indexAtlas() {
+        Color[] backgrounds = backgrounds(theme);
+        for (int background = 0; background < 4; background++) {
+            Color base = backgrounds[background];
+            for (int shade = 0; shade <= 2 * SHADES; shade++) {
+                Color glyph = shade <= SHADES ? Color.WHITE : Color.BLACK;
+                int step = shade <= SHADES ? shade : shade - SHADES;
+                int index = background * (1 + 2 * SHADES) + shade;
+                setPalette(index, mix(base, glyph, step * 255 / SHADES));
+                setPalette(index + BASE_COLORS, mix(mix(base, glyph, step * 255 / SHADES), GlyphAtlas.ARROW_COLOR, ARROW_ALPHA / 2));
+                setPalette(index + 2 * BASE_COLORS, mix(mix(base, glyph, step * 255 / SHADES), GlyphAtlas.ARROW_COLOR, ARROW_ALPHA));
+            }
+
+            for (int code = 0; code < 16; code++) {
+                int type = code & 7;
+                if (code != 0 && (type == 0 || type > ChessBoard.KING)) continue;
+
+                Color glyph = (code & 8) != 0 ? Color.BLACK : Color.WHITE;
+                int offset = glyph == Color.WHITE ? 0 : SHADES;
+                byte[] tile = new byte[squareSize * squareSize];
+                for (int y = 0; y < squareSize; y++) {
+                    for (int x = 0; x < squareSize; x++) {
+                        int step = code == 0 ? 0 : shade(atlas.tilePixel(code, background, x, y), base, glyph);
+                        tile[y * squareSize + x] = (byte) (background * (1 + 2 * SHADES) + (step == 0 ? 0 : offset + step));
+                    }
+                }
+                indexedTiles[code | background << 4] = tile;
+            }
+        }
+    }
+
+    // How far a pixel lies from the background towards the glyph colour, in SHADES steps
+    private static int shade(int rgb, Color base, Color glyph) {
+        int[] pixel = {(rgb >> 16) & 255, (rgb >> 8) & 255, rgb & 255};
+        int[] from = {base.getRed(), base.getGreen(), base.getBlue()};
+        int[] to = {glyph.getRed(), glyph.getGreen(), glyph.getBlue()};
+        double along = 0;
+        double length = 0;
+        for (int i = 0; i < 3; i++) {
+            along += (pixel[i] - from[i]) * (double) (to[i] - from[i]);
+            length += (to[i] - from[i]) * (double) (to[i] - from[i]);
+        }
+        return (int) Math.round(Math.max(0, Math.min(1, along / length)) * SHADES);
+    }
+
+    private static Color mix(Color base, Color over, int alpha) {
+        return new Color(
+            (base.getRed() * (255 - alpha) + over.getRed() * alpha) / 255,
+            (base.getGreen() * (255 - alpha) + over.getGreen() * alpha) / 255,
+            (base.getBlue() * (255 - alpha) + over.getBlue() * alpha) / 255);
+    }
+
+    private void setPalette(int index, Color color) {
+        palette[3 * index] = (byte) color.getRed();
+        palette[3 * index + 1] = (byte) color.getGreen();
+        palette[3 * index + 2] = (byte) color.getBlue();
+    }
+
+    // Draws into a new image
+    public BufferedImage render(Diagram diagram) {
+        BufferedImage image = new BufferedImage(8 * squareSize, 8 * squareSize, BufferedImage.TYPE_INT_RGB);
+        render(diagram, image);
+        return image;
+    }
+
+    private void render(Diagram diagram, BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        try {
+            for (int square = 0; square < 64; square++) {
+                int tile = diagram.tiles[square];
+                atlas.drawTile(g, (square % 8) * squareSize, (square / 8) * squareSize, tile & 15, tile >>> 4);
+            }
+            for (int i = diagram.arrows.length - 1; i >= 0; i--) {
+                GlyphAtlas.drawArrow(g, diagram.arrows[i], squareSize, i == 0 ? ARROW_ALPHA : ARROW_ALPHA / 2);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    public byte[] toPng(Diagram diagram) {
+        Workspace workspace = workspaces.get();
+        int width = workspace.width;
+        byte[] rows = workspace.rows;
+
+        // Arrows are filled into a mask holding the tint of each covered pixel, weakest first
+        boolean arrows = diagram.arrows.length > 0;
+        if (arrows) {
+            Arrays.fill(workspace.mask, (byte) 0);
+            Graphics2D g = workspace.arrowMask.createGraphics();
+            try {
+                for (int i = diagram.arrows.length - 1; i >= 0; i--) {
+                    int tint = i == 0 ? 2 : 1;
+                    g.setColor(new Color(tint, tint, tint));
+                    g.fill(GlyphAtlas.arrowShape(diagram.arrows[i], squareSize));
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+
+        // Filter type 0 rows of palette indices, copied a tile row at a time
+        int offset = 0;
+        for (int y = 0; y < width; y++) {
+            rows[offset++] = 0;
+            int tileRow = (y % squareSize) * squareSize;
+            int rank = y / squareSize * 8;
+            for (int file = 0; file < 8; file++) {
+                System.arraycopy(indexedTiles[diagram.tiles[rank + file]], tileRow, rows, offset + file * squareSize, squareSize);
+            }
+            if (arrows) {
+                for (int x = 0, m = y * width; x < width; x++, m++) {
+                    if (workspace.mask[m] != 0) {
+                        rows[offset + x] += (byte) (workspace.mask[m] * BASE_COLORS);
+                        workspace.drawn[y * 8 + x / squareSize] = true;
+                    }
+                }
+            }
+            offset += width;
+        }
+
+        int length = deflater.deflate(rows, width, diagram.tiles, arrows ? workspace.drawn : null, workspace.compressed);
+        if (arrows) {
+            Arrays.fill(workspace.drawn, false);
+        }
+
+        ByteArrayOutputStream out = workspace.bytes;
+        out.reset();
+        out.write(PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+        byte[] header = ByteBuffer.allocate(13).putInt(width).putInt(width)
+            .put((byte) 8).put((byte) 3).put((byte) 0).put((byte) 0).put((byte) 0).array(); // 8-bit palette
+        writeChunk(workspace, "IHDR", header, header.length);
+        writeChunk(workspace, "PLTE", palette, palette.length);
+        writeChunk(workspace, "IDAT", workspace.compressed, length);
+        writeChunk(workspace, "IEND", new byte[0], 0);
+        return out.toByteArray();
+    }
+
+    private static void writeChunk(Workspace workspace, String type, byte[] data, int length) {
+        ByteArrayOutputStream out = workspace.bytes;
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = workspace.crc;
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        writeInt(out, length);
+        out.write(typeBytes, 0, 4);
+        out.write(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    public String toSvg(Diagram diagram) {
+        int size = 8 * squareSize;
+        StringBuilder svg = workspaces.get().svg;
+        svg.setLength(0);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(size).append("\" height=\"").append(size)
+           .append("\" viewBox=\"0 0 ").append(size).append(' ').append(size).append("\">\n");
+
+        for (int square = 0; square < 64; square++) {
+            svg.append(svgTile(square, diagram.tiles[square]));
+        }
+        for (int i = diagram.arrows.length - 1; i >= 0; i--) {
+            appendSvgArrow(svg, diagram.arrows[i], i == 0 ? ARROW_ALPHA : ARROW_ALPHA / 2);
+        }
+        return svg.append("</svg>\n").toString();
+    }
+
+    // Markup for one square with its background and piece, built on first use
+    private String svgTile(int square, int tile) {
+        int index = square * 64 + tile;
+        String markup = svgTiles[index];
+        if (markup == null) {
+            int x = (square % 8) * squareSize;
+            int y = (square / 8) * squareSize;
+            Color[] backgrounds = backgrounds(theme);
+
+            StringBuilder text = new StringBuilder();
+            text.append("<rect x=\"").append(x).append("\" y=\"").append(y).append("\" width=\"").append(squareSize)
+                .append("\" height=\"").append(squareSize).append("\" fill=\"").append(hex(backgrounds[tile >>> 4])).append("\"/>\n");
+
+            int code = tile & 15;
+            if (code != 0) {
+                ChessPiece.Color color = (code & 8) != 0 ? ChessPiece.Color.BLACK : ChessPiece.Color.WHITE;
+                text.append("<text x=\"").append(x + squareSize / 2).append("\" y=\"").append(y + squareSize / 2)
+                    .append("\" font-family=\"serif\" font-weight=\"bold\" font-size=\"").append(squareSize * 2 / 3)
+                    .append("\" text-anchor=\"middle\" dominant-baseline=\"central\" fill=\"")
+                    .append(color == ChessPiece.Color.WHITE ? "#ffffff" : "#000000").append("\">")
+                    .append(ChessBoard.createPiece(code & 7, color).getSymbol()).append("</text>\n");
+            }
+            // Racing threads build equal strings, so a lost update is harmless
+            markup = text.toString();
+            svgTiles[index] = markup;
+        }
+        return markup;
+    }
+
+    private void appendSvgArrow(StringBuilder svg, int move, int alpha) {
+        ChessGame.Position from = ChessBoard.moveFrom(move);
+        ChessGame.Position to = ChessBoard.moveTo(move);
+        double x1 = (from.col + 0.5) * squareSize;
+        double y1 = (from.row + 0.5) * squareSize;
+        double x2 = (to.col + 0.5) * squareSize;
+        double y2 = (to.row + 0.5) * squareSize;
+        double angle = Math.atan2(y2 - y1, x2 - x1);
+        double head = squareSize * 0.35;
+        String fill = String.format(Locale.ROOT, "fill=\"#1e6ec8\" fill-opacity=\"%.2f\"", alpha / 255.0);
+
+        svg.append(String.format(Locale.ROOT,
+            "<line x1=\"%.1f\" y1=\"%.1f\" x2=\"%.1f\" y2=\"%.1f\" stroke=\"#1e6ec8\" stroke-opacity=\"%.2f\" stroke-width=\"%.1f\" stroke-linecap=\"round\"/>\n",
+            x1, y1, x2 - Math.cos(angle) * head * 0.8, y2 - Math.sin(angle) * head * 0.8, alpha / 255.0, squareSize / 8.0));
+        svg.append(String.format(Locale.ROOT, "<polygon points=\"%.1f,%.1f %.1f,%.1f %.1f,%.1f\" %s/>\n",
+            x2, y2,
+            x2 - head * Math.cos(angle - 0.45), y2 - head * Math.sin(angle - 0.45),
+            x2 - head * Math.cos(angle + 0.45), y2 - head * Math.sin(angle + 0.45), fill));
+    }
+
+    // Renders every diagram on the given number of threads and writes diagram-00001.png (or .svg)
+    // and so on into the directory. Returns the number of bytes written.
+    public long renderAll(List<Diagram> diagrams, Path directory, boolean svg, int threads) throws IOException {
+        Files.createDirectories(directory);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Each task takes every threads-th diagram so the work splits evenly
+            List<Future<Long>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                results.add(executor.submit(() -> {
+                    long written = 0;
+                    for (int i = first; i < diagrams.size(); i += threads) {
+                        byte[] data = svg ? toSvg(diagrams.get(i)).getBytes(StandardCharsets.UTF_8) : toPng(diagrams.get(i));
+                        Files.write(directory.resolve(String.format("diagram-%05d.%s", i + 1, svg ? "svg" : "png")), data);
+                        written += data.length;
+                    }
+                    return written;
+                }));
+            }
+
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Rendering interrupted");
+        } catch (java.util.concurrent.ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int squareBackground(int square) {
+        return (square / 8 + square % 8) % 2 == 0 ? GlyphAtlas.LIGHT : GlyphAtlas.DARK;
+    }
+
+    private static String hex(Color color) {
+        return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean svg = false;
+        int size = 45;
+        GlyphAtlas.Theme theme = GlyphAtlas.Theme.DEFAULT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path directory = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--svg": svg = true; break;
+                case "--size": size = Integer.parseInt(args[++i]); break;
+                case "--theme": theme = GlyphAtlas.Theme.valueOf(args[++i].toUpperCase(Locale.ROOT)); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                default: directory = Paths.get(args[i]);
+            }
+        }
+        if (directory == null) {
+            System.err.println("Usage: DiagramRenderer [--svg] [--size pixels] [--theme default|blue|green] [--threads n] output-dir < games.txt");
+            System.exit(2);
+        }
+
+        List<Diagram> diagrams = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            diagrams.add(parseDiagram(line.trim(), diagrams.size() + 1));
+        }
+
+        long start = System.nanoTime();
+        long bytes = new DiagramRenderer(size, theme).renderAll(diagrams, directory, svg, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d diagrams, %,d bytes in %.2f s (%.0f per second on %d threads)%n",
+            diagrams.size(), bytes, seconds, diagrams.size() / seconds, threads);
+    }
+
+    private static Diagram parseDiagram(String line, int lineNumber) {
+        ChessBoard board = new ChessBoard(false);
+        ChessPiece.Color toMove = ChessPiece.Color.WHITE;
+        List<ChessGame.Position> highlights = new ArrayList<>();
+        for (String text : line.isEmpty() ? new String[0] : line.split("\\s+")) {
+            int move;
+            try {
+                move = Notation.parseCoordinate(text);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage());
+            }
+            // Checked against the side to move, since the board would move either color's pieces
+            boolean legal = Arrays.stream(board.getAllLegalMoves(toMove)).anyMatch(candidate -> candidate == move);
+            if (!legal || !board.makeMove(move)) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": illegal move " + text);
+            }
+            toMove = toMove.opposite();
+            highlights = Arrays.asList(ChessBoard.moveFrom(move), ChessBoard.moveTo(move));
+        }
+        return new Diagram(board, highlights, new int[0]);
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Measures DiagramRenderer throughput for PNG and SVG on one thread and on every core, in
+// memory so disk speed does not count. Usage: java -Djava.awt.headless=true
+// DiagramRendererBenchmark [diagrams] [squareSize] [seed]
+public class DiagramRendererBenchmark {
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int squareSize = args.length > 1 ? Integer.parseInt(args[1]) : 45;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1L;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<DiagramRenderer.Diagram> diagrams = randomDiagrams(count, new Random(seed));
+        DiagramRenderer renderer = new DiagramRenderer(squareSize, GlyphAtlas.Theme.DEFAULT);
+
+        // Warm up both paths before timing
+        run(renderer, diagrams.subList(0, Math.min(500, count)), false, cores);
+        run(renderer, diagrams.subList(0, Math.min(500, count)), true, cores);
+
+        System.out.printf("%d diagrams, %dx%d pixels, %d cores%n", count, 8 * squareSize, 8 * squareSize, cores);
+        System.out.printf("%-6s %8s %14s %12s%n", "Format", "threads", "diagrams/s", "bytes/diagram");
+        for (boolean svg : new boolean[] {false, true}) {
+            for (int threads : cores > 1 ? new int[] {1, cores} : new int[] {1}) {
+                long start = System.nanoTime();
+                long bytes = run(renderer, diagrams, svg, threads);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-6s %8d %14.0f %12.0f%n", svg ? "SVG" : "PNG", threads, count / seconds, (double) bytes / count);
+            }
+        }
+    }
+
+    private static long run(DiagramRenderer renderer, List<DiagramRenderer.Diagram> diagrams, boolean svg, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                results.add(executor.submit(() -> {
+                    long bytes = 0;
+                    for (int i = first; i < diagrams.size(); i += threads) {
+                        bytes += svg ? renderer.toSvg(diagrams.get(i)).length() : renderer.toPng(diagrams.get(i)).length;
+                    }
+                    return bytes;
+                }));
+            }
+            long total = 0;
+            for (Future<Long> result : results) total += result.get();
+            return total;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Positions from random games, with the last move highlighted and one arrow
+    private static List<DiagramRenderer.Diagram> randomDiagrams(int count, Random random) {
+        List<DiagramRenderer.Diagram> diagrams = new ArrayList<>();
+        while (diagrams.size() < count) {
+            ChessBoard board = new ChessBoard(false);
+            ChessPiece.Color color = ChessPiece.Color.WHITE;
+            int plies = 10 + random.nextInt(60);
+            int last = -1;
+            for (int ply = 0; ply < plies; ply++) {
+                int[] moves = board.getAllLegalMoves(color);
+                if (moves.length == 0) break;
+                last = moves[random.nextInt(moves.length)];
+                board.makeMove(last);
+                color = color.opposite();
+            }
+
+            int[] replies = board.getAllLegalMoves(color);
+            int[] arrows = replies.length > 0 ? new int[] {replies[random.nextInt(replies.length)]} : new int[0];
+            List<ChessGame.Position> highlights = last < 0 ? Collections.emptyList()
+                : Arrays.asList(ChessBoard.moveFrom(last), ChessBoard.moveTo(last));
+            diagrams.add(new DiagramRenderer.Diagram(board, highlights, arrows));
+        }
+        return diagrams;
+    }
+}
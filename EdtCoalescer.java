@@ -0,0 +1,51 @@
+import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Hands values from background threads to the Swing event thread, keeping only the latest one.
+// However often submit() is called, at most one delivery is queued at a time and deliveries are
+// at least minIntervalMillis apart, so a busy producer cannot flood the event queue.
+final class EdtCoalescer<T> {
+    static final long FRAME_MILLIS = 16;
+
+    private final Consumer<T> consumer;
+    private final long minIntervalNanos;
+    private final AtomicReference<T> pending = new AtomicReference<>();
+    private volatile long lastDeliveryNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+    private volatile long postedNanos;
+
+    private static final Metrics.Histogram LATENCY_NANOS = Metrics.histogram("chess_edt_update_latency_nanos",
+        "Time from handing an update to the event thread until it runs there");
+
+    EdtCoalescer(long minIntervalMillis, Consumer<T> consumer) {
+        this.consumer = consumer;
+        this.minIntervalNanos = minIntervalMillis * 1_000_000L;
+    }
+
+    // May be called from any thread; replaces a value that has not been delivered yet
+    public void submit(T value) {
+        if (value == null) throw new NullPointerException("value");
+        if (pending.getAndSet(value) != null) return;
+
+        long wait = lastDeliveryNanos + minIntervalNanos - System.nanoTime();
+        if (wait <= 0) {
+            post();
+        } else {
+            ClockScheduler.runLater(this::post, wait);
+        }
+    }
+
+    private void post() {
+        postedNanos = System.nanoTime();
+        SwingUtilities.invokeLater(this::deliver);
+    }
+
+    private void deliver() {
+        lastDeliveryNanos = System.nanoTime();
+        LATENCY_NANOS.record(lastDeliveryNanos - postedNanos);
+        T value = pending.getAndSet(null);
+        if (value != null) {
+            consumer.accept(value);
+        }
+    }
+}
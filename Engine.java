@@ -0,0 +1,408 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A small alpha-beta searcher over ChessBoard: iterative deepening, several best lines at the
+// root, a capture-only quiescence search and a material plus piece-square evaluation. It plays
+// moves on the board it is given, so callers pass a copy. Scores are centipawns for the side to
+// move; mates are MATE minus the distance in plies. Engines given the same transposition table
+// share their results, so several can search one position on separate threads.
+class Engine {
+    static final int MATE = 100_000;
+    private static final int INFINITY = 1_000_000;
+    private static final int MAX_PLY = 64;
+    private static final int[] VALUES = {0, 100, 320, 330, 500, 900, 0};
+
+    // Progress is reported every REPORT_NODES nodes as well as after each depth
+    private static final int REPORT_NODES = 4096;
+
+    static final class Line {
+        final int score;
+        final int[] moves;
+        final String san;
+
+        Line(int score, int[] moves, String san) {
+            this.score = score;
+            this.moves = moves;
+            this.san = san;
+        }
+    }
+
+    static final class Info {
+        final int depth; // last completed depth
+        final long nodes;
+        final long nanos;
+        final List<Line> lines;
+
+        Info(int depth, long nodes, long nanos, List<Line> lines) {
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+            this.lines = lines;
+        }
+
+        long nodesPerSecond() {
+            return nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+        }
+    }
+
+    interface Listener {
+        // Called on the searching thread
+        void info(Info info);
+    }
+
+    private final ChessBoard board;
+    private final ChessPiece.Color rootColor;
+    private final TranspositionTable table;
+    private volatile boolean stopped = false;
+
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+    private Listener listener;
+    private long nodes;
+    private long nodeLimit = Long.MAX_VALUE;
+    private long startNanos;
+    private int completedDepth;
+    private List<Line> lines = Collections.emptyList();
+
+    Engine(ChessBoard board, ChessPiece.Color toMove) {
+        this(board, toMove, null);
+    }
+
+    Engine(ChessBoard board, ChessPiece.Color toMove, TranspositionTable table) {
+        this.board = board;
+        this.rootColor = toMove;
+        this.table = table;
+    }
+
+    // May be called from any thread; search() returns soon after
+    public void stop() {
+        stopped = true;
+    }
+
+    // Stops the search once it has visited this many nodes; search() still returns the lines of
+    // the deepest completed depth
+    void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    // Nodes searched so far; read from other threads it may lag a little
+    long getNodes() {
+        return nodes;
+    }
+
+    // Searches to maxDepth or until stopped and returns the best lines of the deepest completed
+    // depth, best first
+    public List<Line> search(int maxDepth, int lineCount, Listener listener) {
+        this.listener = listener;
+        startNanos = System.nanoTime();
+        nodes = 0;
+
+        int[] rootMoves = board.getAllLegalMoves(rootColor).clone();
+        int[] scores = new int[rootMoves.length];
+        int[][] variations = new int[rootMoves.length][];
+
+        for (int depth = 1; depth <= maxDepth && rootMoves.length > 0; depth++) {
+            int searched = 0;
+            for (int i = 0; i < rootMoves.length; i++) {
+                // Moves only need an exact score while they could still make the best lineCount
+                int alpha = searched < lineCount ? -INFINITY : lineCountBest(scores, i, lineCount);
+
+                board.makeMove(rootMoves[i]);
+                int score = -negamax(depth - 1, -INFINITY, -alpha, 1, rootColor.opposite());
+                board.undoMove();
+                if (stopped) break;
+
+                scores[i] = score;
+                variations[i] = new int[pvLength[1]];
+                variations[i][0] = rootMoves[i];
+                System.arraycopy(pv[1], 1, variations[i], 1, pvLength[1] - 1);
+                searched++;
+            }
+            if (stopped) break;
+
+            sortByScore(rootMoves, scores, variations);
+            completedDepth = depth;
+            lines = toLines(scores, variations, lineCount);
+            report();
+
+            if (Math.abs(scores[0]) >= MATE - depth) break;
+        }
+
+        report();
+        return lines;
+    }
+
+    private int negamax(int depth, int alpha, int beta, int ply, ChessPiece.Color color) {
+        pvLength[ply] = ply;
+        countNode();
+        if (stopped) return 0;
+
+        if (board.isThreefoldRepetition() || board.isFiftyMoveRule() || board.isInsufficientMaterial()) {
+            return 0;
+        }
+        if (depth <= 0 || ply >= MAX_PLY) {
+            return quiesce(alpha, beta, ply, color);
+        }
+
+        long key = 0;
+        int tableMove = 0;
+        if (table != null) {
+            key = board.getPositionKey(color);
+            long entry = table.probe(key);
+            if (entry != 0) {
+                tableMove = TranspositionTable.move(entry);
+                // Replies to root moves are always searched, so every line keeps a second move
+                if (TranspositionTable.depth(entry) >= depth && ply > 1) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                            || (bound == TranspositionTable.LOWER && score >= beta)
+                            || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+        }
+
+        int[] moves = orderMoves(board.getAllLegalMoves(color), false);
+        if (moves.length == 0) {
+            return board.isKingInCheck(color) ? -(MATE - ply) : 0;
+        }
+        moveToFront(moves, tableMove);
+
+        int originalAlpha = alpha;
+        int bestMove = 0;
+        for (int move : moves) {
+            board.makeMove(move);
+            int score = -negamax(depth - 1, -beta, -alpha, ply + 1, color.opposite());
+            board.undoMove();
+            if (stopped) return 0;
+
+            if (score > alpha) {
+                alpha = score;
+                bestMove = move;
+                pv[ply][ply] = move;
+                System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+                pvLength[ply] = pvLength[ply + 1];
+                if (alpha >= beta) break;
+            }
+        }
+
+        if (table != null) {
+            int bound = alpha >= beta ? TranspositionTable.LOWER
+                      : alpha > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            table.store(key, bestMove != 0 ? bestMove : tableMove, depth, bound, toTable(alpha, ply));
+        }
+        return alpha;
+    }
+
+    // Mate scores are stored as distance from the stored position rather than from the root, so
+    // they stay right when the position is reached again at another ply
+    private static int toTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) return score + ply;
+        if (score <= -(MATE - MAX_PLY)) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) return score - ply;
+        if (score <= -(MATE - MAX_PLY)) return score + ply;
+        return score;
+    }
+
+    private static void moveToFront(int[] moves, int move) {
+        if (move == 0) return;
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    // Plays out captures and promotions so the evaluation is not taken in the middle of an exchange
+    private int quiesce(int alpha, int beta, int ply, ChessPiece.Color color) {
+        pvLength[ply] = ply;
+        int[] legalMoves = board.getAllLegalMoves(color);
+        if (legalMoves.length == 0) {
+            return board.isKingInCheck(color) ? -(MATE - ply) : 0;
+        }
+
+        int standPat = evaluate(color);
+        if (standPat >= beta || ply >= MAX_PLY) return standPat;
+        if (standPat > alpha) alpha = standPat;
+
+        for (int move : orderMoves(legalMoves, true)) {
+            board.makeMove(move);
+            countNode();
+            int score = -quiesce(-beta, -alpha, ply + 1, color.opposite());
+            board.undoMove();
+            if (stopped) return 0;
+
+            if (score > alpha) {
+                alpha = score;
+                if (alpha >= beta) break;
+            }
+        }
+        return alpha;
+    }
+
+    // Captures first, most valuable victim and least valuable attacker first, then quiet moves
+    // in generation order. With capturesOnly the quiet moves are dropped.
+    private int[] orderMoves(int[] moves, boolean capturesOnly) {
+        int[] ordered = new int[moves.length];
+        int[] keys = new int[moves.length];
+        int count = 0;
+
+        for (int move : moves) {
+            int key = captureValue(move);
+            if (capturesOnly && key == 0) continue;
+
+            // Insertion sort: lists are short and mostly end up in generation order
+            int i = count++;
+            while (i > 0 && keys[i - 1] < key) {
+                ordered[i] = ordered[i - 1];
+                keys[i] = keys[i - 1];
+                i--;
+            }
+            ordered[i] = move;
+            keys[i] = key;
+        }
+        return count == moves.length ? ordered : java.util.Arrays.copyOf(ordered, count);
+    }
+
+    private int captureValue(int move) {
+        ChessGame.Position from = ChessBoard.moveFrom(move);
+        ChessGame.Position to = ChessBoard.moveTo(move);
+        ChessPiece attacker = board.getPieceAt(from.row, from.col);
+        ChessPiece victim = board.getPieceAt(to.row, to.col);
+        int attackerType = ChessBoard.pieceType(attacker);
+
+        int value = VALUES[ChessBoard.movePromotion(move)];
+        if (victim != null && victim.getColor() != attacker.getColor()) {
+            value += 10 * VALUES[ChessBoard.pieceType(victim)] - VALUES[attackerType] / 10;
+        } else if (attackerType == ChessBoard.PAWN && from.col != to.col) {
+            value += 10 * VALUES[ChessBoard.PAWN] - VALUES[ChessBoard.PAWN] / 10; // en passant
+        }
+        return value;
+    }
+
+    // Material and piece placement for the given side, in centipawns
+    int evaluate(ChessPiece.Color color) {
+        int score = 0;
+        int officers = 0;
+        int kingCentre = 0;
+
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                ChessPiece piece = board.getPieceAt(row, col);
+                if (piece == null) continue;
+
+                int type = ChessBoard.pieceType(piece);
+                boolean white = piece.getColor() == ChessPiece.Color.WHITE;
+                int sign = piece.getColor() == color ? 1 : -1;
+
+                // 5 on the four middle squares down to -1 in the corners
+                int centre = 6 - (Math.abs(2 * row - 7) + Math.abs(2 * col - 7)) / 2;
+                int value = VALUES[type];
+                switch (type) {
+                    case ChessBoard.PAWN:
+                        int advance = white ? 6 - row : row - 1;
+                        value += 2 * advance * advance + (advance > 0 && (col == 3 || col == 4) ? 10 : 0);
+                        break;
+                    case ChessBoard.KNIGHT:
+                        value += 4 * centre;
+                        break;
+                    case ChessBoard.BISHOP:
+                    case ChessBoard.QUEEN:
+                        value += 2 * centre;
+                        break;
+                    case ChessBoard.KING:
+                        kingCentre += sign * centre;
+                        break;
+                    default:
+                        break;
+                }
+                if (type != ChessBoard.PAWN && type != ChessBoard.KING) officers += VALUES[type];
+                score += sign * value;
+            }
+        }
+
+        // Kings shelter while the officers are on the board and centralise once they are gone
+        score += (officers > 2600 ? -3 : 3) * kingCentre;
+        return score;
+    }
+
+    private void countNode() {
+        if (++nodes >= nodeLimit) stopped = true;
+        if ((nodes & (REPORT_NODES - 1)) == 0) {
+            report();
+        }
+    }
+
+    private void report() {
+        if (listener != null) {
+            listener.info(new Info(completedDepth, nodes, System.nanoTime() - startNanos, lines));
+        }
+    }
+
+    // The score a move must beat to enter the best lineCount among the first searched moves
+    private static int lineCountBest(int[] scores, int searched, int lineCount) {
+        int[] best = java.util.Arrays.copyOf(scores, searched);
+        java.util.Arrays.sort(best);
+        return best[searched - lineCount];
+    }
+
+    private static void sortByScore(int[] moves, int[] scores, int[][] variations) {
+        for (int i = 1; i < moves.length; i++) {
+            int move = moves[i];
+            int score = scores[i];
+            int[] variation = variations[i];
+            int j = i;
+            while (j > 0 && scores[j - 1] < score) {
+                moves[j] = moves[j - 1];
+                scores[j] = scores[j - 1];
+                variations[j] = variations[j - 1];
+                j--;
+            }
+            moves[j] = move;
+            scores[j] = score;
+            variations[j] = variation;
+        }
+    }
+
+    private List<Line> toLines(int[] scores, int[][] variations, int lineCount) {
+        List<Line> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(lineCount, scores.length); i++) {
+            result.add(new Line(scores[i], variations[i], toSan(variations[i])));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    // Replays a variation from the root to name its moves
+    private String toSan(int[] variation) {
+        StringBuilder san = new StringBuilder();
+        ChessPiece.Color color = rootColor;
+        for (int move : variation) {
+            if (san.length() > 0) san.append(' ');
+            san.append(Notation.toSan(board, move, board.getAllLegalMoves(color), color));
+            board.makeMove(move);
+            color = color.opposite();
+        }
+        for (int i = 0; i < variation.length; i++) {
+            board.undoMove();
+        }
+        return san.toString();
+    }
+
+    // "+0.35", "-1.20", or "#3" / "#-3" for mates, from the given side's point of view
+    static String formatScore(int score) {
+        if (Math.abs(score) >= MATE - MAX_PLY) {
+            int moves = (MATE - Math.abs(score) + 1) / 2;
+            return score > 0 ? "#" + moves : "#-" + moves;
+        }
+        return String.format("%+.2f", score / 100.0);
+    }
+}
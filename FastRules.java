@@ -0,0 +1,483 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// A compact move generator for search and bulk counting: one int per square, moves made and
+// unmade in place, and legality tested by making each move and looking for an attack on the
+// king, with no objects allocated per position. It follows ChessBoard's rules and move codes
+// exactly, Chess960 castling included (king takes own rook), but shares none of its code, so
+// RulesFuzzer can check one against the other.
+final class FastRules {
+    static final int MAX_MOVES = 256;
+
+    // Square contents: piece type (ChessBoard.PAWN..KING) plus BLACK, or 0 for empty
+    private static final int BLACK = 8;
+    private static final int WHITE_KINGSIDE = 1;
+    private static final int WHITE_QUEENSIDE = 2;
+    private static final int BLACK_KINGSIDE = 4;
+    private static final int BLACK_QUEENSIDE = 8;
+
+    // Target squares of a knight or king on each square, and for each square and direction the
+    // squares a slider passes, nearest first; directions 0-3 are orthogonal, 4-7 diagonal
+    private static final int[][] KNIGHT_TARGETS = new int[64][];
+    private static final int[][] KING_TARGETS = new int[64][];
+    private static final int[][][] RAYS = new int[64][8][];
+    private static final int[] DIRECTION_ROWS = {-1, 1, 0, 0, -1, -1, 1, 1};
+    private static final int[] DIRECTION_COLS = {0, 0, -1, 1, -1, 1, -1, 1};
+
+    // Zobrist keys by piece * 64 + square, then castling rights, en passant file and side to move
+    private static final long[] PIECE_KEYS = new long[16 * 64];
+    private static final long[] CASTLING_KEYS = new long[16];
+    private static final long[] EN_PASSANT_KEYS = new long[8];
+    private static final long BLACK_TO_MOVE_KEY;
+
+    static {
+        int[][] knightSteps = {{-2, -1}, {-2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}, {2, -1}, {2, 1}};
+        for (int square = 0; square < 64; square++) {
+            int row = square / 8;
+            int col = square % 8;
+            KNIGHT_TARGETS[square] = targets(row, col, knightSteps);
+            int[][] kingSteps = new int[8][];
+            for (int direction = 0; direction < 8; direction++) {
+                kingSteps[direction] = new int[] {DIRECTION_ROWS[direction], DIRECTION_COLS[direction]};
+                int[] ray = new int[7];
+                int length = 0;
+                for (int r = row + DIRECTION_ROWS[direction], c = col + DIRECTION_COLS[direction];
+                     r >= 0 && r < 8 && c >= 0 && c < 8;
+                     r += DIRECTION_ROWS[direction], c += DIRECTION_COLS[direction]) {
+                    ray[length++] = r * 8 + c;
+                }
+                RAYS[square][direction] = Arrays.copyOf(ray, length);
+            }
+            KING_TARGETS[square] = targets(row, col, kingSteps);
+        }
+
+        SplittableRandom random = new SplittableRandom(0x5EED);
+        for (int i = 0; i < PIECE_KEYS.length; i++) PIECE_KEYS[i] = random.nextLong();
+        for (int i = 0; i < CASTLING_KEYS.length; i++) CASTLING_KEYS[i] = random.nextLong();
+        for (int i = 0; i < EN_PASSANT_KEYS.length; i++) EN_PASSANT_KEYS[i] = random.nextLong();
+        BLACK_TO_MOVE_KEY = random.nextLong();
+    }
+
+    private final int[] squares = new int[64];
+    private final boolean chess960;
+    private final int kingsideRookCol;
+    private final int queensideRookCol;
+    private boolean whiteToMove;
+    private int castlingRights;
+    private int enPassant = -1; // the square a pawn just passed over, or -1
+    private final int[] kings = new int[2]; // by colour, white first
+
+    // Undo records: captured piece 0-3, castling rights 4-7, en passant square + 1 8-14,
+    // castled 15, en passant capture 16; the move itself is in played
+    private int[] undo = new int[128];
+    private int[] played = new int[128];
+    private int ply;
+
+    // Per-ply move buffers for generate() during perft, so counting allocates nothing
+    private int[][] buffers = new int[0][];
+
+    // Takes the position of the board with the given side to move; the board is not changed
+    FastRules(ChessBoard board, ChessPiece.Color toMove) {
+        for (int square = 0; square < 64; square++) {
+            ChessPiece piece = board.getPieceAt(square / 8, square % 8);
+            if (piece == null) continue;
+            boolean black = piece.getColor() == ChessPiece.Color.BLACK;
+            squares[square] = ChessBoard.pieceType(piece) | (black ? BLACK : 0);
+            if (ChessBoard.pieceType(piece) == ChessBoard.KING) kings[black ? 1 : 0] = square;
+        }
+        chess960 = board.isChess960();
+        kingsideRookCol = board.getKingsideRookCol();
+        queensideRookCol = board.getQueensideRookCol();
+        whiteToMove = toMove == ChessPiece.Color.WHITE;
+        castlingRights = board.getCastlingRights();
+        ChessGame.Position target = board.getEnPassantTarget();
+        enPassant = target == null ? -1 : target.row * 8 + target.col;
+    }
+
+    // An independent copy of the current position; moves made before the copy cannot be undone
+    // on it
+    private FastRules(FastRules other) {
+        System.arraycopy(other.squares, 0, squares, 0, 64);
+        chess960 = other.chess960;
+        kingsideRookCol = other.kingsideRookCol;
+        queensideRookCol = other.queensideRookCol;
+        whiteToMove = other.whiteToMove;
+        castlingRights = other.castlingRights;
+        enPassant = other.enPassant;
+        kings[0] = other.kings[0];
+        kings[1] = other.kings[1];
+    }
+
+    FastRules copy() {
+        return new FastRules(this);
+    }
+
+    // Zobrist key of the position, side to move included. Computed from the squares on each
+    // call rather than kept up to date by every move, since only callers like perft tables need it.
+    long key() {
+        long key = whiteToMove ? 0 : BLACK_TO_MOVE_KEY;
+        for (int square = 0; square < 64; square++) {
+            if (squares[square] != 0) key ^= PIECE_KEYS[squares[square] * 64 + square];
+        }
+        key ^= CASTLING_KEYS[castlingRights];
+        if (enPassant >= 0) key ^= EN_PASSANT_KEYS[enPassant % 8];
+        return key;
+    }
+
+    boolean isWhiteToMove() {
+        return whiteToMove;
+    }
+
+    boolean inCheck() {
+        return isAttacked(kings[whiteToMove ? 0 : 1], !whiteToMove);
+    }
+
+    // Legal moves of the side to move, as ChessBoard move codes, into moves; returns the count.
+    // The order is not ChessBoard's.
+    int generate(int[] moves) {
+        int count = generatePseudoLegal(moves);
+        int legal = 0;
+        boolean white = whiteToMove;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            makeMove(move);
+            if (!isAttacked(kings[white ? 0 : 1], !white)) moves[legal++] = move;
+            undoMove();
+        }
+        return legal;
+    }
+
+    // Plays a move generated for this position; anything else corrupts the position
+    void makeMove(int move) {
+        int from = move & 63;
+        int to = move >>> 6 & 63;
+        int promotion = move >>> 12 & 7;
+        int piece = squares[from];
+        int type = piece & 7;
+        int black = piece & BLACK;
+        int record = castlingRights << 4 | (enPassant + 1) << 8;
+
+        if (ply == undo.length) {
+            undo = Arrays.copyOf(undo, ply * 2);
+            played = Arrays.copyOf(played, ply * 2);
+        }
+
+        if (type == ChessBoard.KING && isCastling(from, to, piece)) {
+            int row = from / 8;
+            boolean kingside = castlingRookCol(from, to) > from % 8;
+            int rookFrom = row * 8 + castlingRookCol(from, to);
+            squares[from] = 0;
+            squares[rookFrom] = 0;
+            squares[row * 8 + (kingside ? 6 : 2)] = piece;
+            squares[row * 8 + (kingside ? 5 : 3)] = ChessBoard.ROOK | black;
+            kings[black == 0 ? 0 : 1] = row * 8 + (kingside ? 6 : 2);
+            castlingRights &= black == 0 ? ~(WHITE_KINGSIDE | WHITE_QUEENSIDE) : ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+            enPassant = -1;
+            record |= 1 << 15;
+        } else {
+            int captured = squares[to];
+            if (type == ChessBoard.PAWN && to == enPassant && captured == 0 && from % 8 != to % 8) {
+                // The passed pawn stands beside the mover, not on the target square
+                squares[from / 8 * 8 + to % 8] = 0;
+                record |= 1 << 16;
+            }
+            record |= captured;
+
+            if (type == ChessBoard.KING) {
+                castlingRights &= black == 0 ? ~(WHITE_KINGSIDE | WHITE_QUEENSIDE) : ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+                kings[black == 0 ? 0 : 1] = to;
+            }
+            if (type == ChessBoard.ROOK) clearRookRight(from);
+            if ((captured & 7) == ChessBoard.ROOK) clearRookRight(to);
+
+            squares[to] = promotion != 0 ? promotion | black : piece;
+            squares[from] = 0;
+            enPassant = type == ChessBoard.PAWN && Math.abs(to - from) == 16 ? (from + to) / 2 : -1;
+        }
+
+        undo[ply] = record;
+        played[ply++] = move;
+        whiteToMove = !whiteToMove;
+    }
+
+    void undoMove() {
+        int move = played[--ply];
+        int record = undo[ply];
+        int from = move & 63;
+        int to = move >>> 6 & 63;
+        whiteToMove = !whiteToMove;
+        castlingRights = record >>> 4 & 15;
+        enPassant = (record >>> 8 & 127) - 1;
+
+        if ((record & 1 << 15) != 0) {
+            int row = from / 8;
+            boolean kingside = castlingRookCol(from, to) > from % 8;
+            int black = whiteToMove ? 0 : BLACK;
+            squares[row * 8 + (kingside ? 6 : 2)] = 0;
+            squares[row * 8 + (kingside ? 5 : 3)] = 0;
+            squares[row * 8 + castlingRookCol(from, to)] = ChessBoard.ROOK | black;
+            squares[from] = ChessBoard.KING | black;
+            kings[black == 0 ? 0 : 1] = from;
+            return;
+        }
+
+        int piece = squares[to];
+        if ((move >>> 12 & 7) != 0) piece = ChessBoard.PAWN | (piece & BLACK);
+        squares[from] = piece;
+        squares[to] = record & 15;
+        if ((record & 1 << 16) != 0) {
+            squares[from / 8 * 8 + to % 8] = ChessBoard.PAWN | (piece & BLACK ^ BLACK);
+        }
+        if ((piece & 7) == ChessBoard.KING) kings[(piece & BLACK) == 0 ? 0 : 1] = from;
+    }
+
+    // Leaf positions at the given depth, counted with bulk counting at the last ply
+    long perft(int depth) {
+        if (buffers.length < depth) {
+            buffers = new int[depth][MAX_MOVES];
+        }
+        return perft(depth, buffers);
+    }
+
+    private long perft(int depth, int[][] buffers) {
+        int[] moves = buffers[depth - 1];
+        int count = generate(moves);
+        if (depth == 1) return count;
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            makeMove(moves[i]);
+            nodes += perft(depth - 1, buffers);
+            undoMove();
+        }
+        return nodes;
+    }
+
+    // The first four FEN fields, written as Fen.format writes them
+    String positionFields() {
+        StringBuilder fen = new StringBuilder();
+        for (int row = 0; row < 8; row++) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                int piece = squares[row * 8 + col];
+                if (piece == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) fen.append(empty);
+                empty = 0;
+                char letter = " pnbrqk".charAt(piece & 7);
+                fen.append((piece & BLACK) == 0 ? Character.toUpperCase(letter) : letter);
+            }
+            if (empty > 0) fen.append(empty);
+            if (row < 7) fen.append('/');
+        }
+        fen.append(whiteToMove ? " w " : " b ");
+        if (castlingRights == 0) {
+            fen.append('-');
+        } else {
+            char kingside = chess960 ? (char) ('a' + kingsideRookCol) : 'k';
+            char queenside = chess960 ? (char) ('a' + queensideRookCol) : 'q';
+            if ((castlingRights & WHITE_KINGSIDE) != 0) fen.append(Character.toUpperCase(kingside));
+            if ((castlingRights & WHITE_QUEENSIDE) != 0) fen.append(Character.toUpperCase(queenside));
+            if ((castlingRights & BLACK_KINGSIDE) != 0) fen.append(kingside);
+            if ((castlingRights & BLACK_QUEENSIDE) != 0) fen.append(queenside);
+        }
+        fen.append(' ').append(enPassant < 0 ? "-" : "" + (char) ('a' + enPassant % 8) + (char) ('8' - enPassant / 8));
+        return fen.toString();
+    }
+
+    private int generatePseudoLegal(int[] moves) {
+        int count = 0;
+        int own = whiteToMove ? 0 : BLACK;
+        for (int from = 0; from < 64; from++) {
+            int piece = squares[from];
+            if (piece == 0 || (piece & BLACK) != own) continue;
+            switch (piece & 7) {
+                case ChessBoard.PAWN:
+                    count = pawnMoves(from, moves, count);
+                    break;
+                case ChessBoard.KNIGHT:
+                    count = stepMoves(from, KNIGHT_TARGETS[from], moves, count);
+                    break;
+                case ChessBoard.BISHOP:
+                    count = slideMoves(from, 4, 8, moves, count);
+                    break;
+                case ChessBoard.ROOK:
+                    count = slideMoves(from, 0, 4, moves, count);
+                    break;
+                case ChessBoard.QUEEN:
+                    count = slideMoves(from, 0, 8, moves, count);
+                    break;
+                default:
+                    count = stepMoves(from, KING_TARGETS[from], moves, count);
+                    count = castlingMoves(from, moves, count);
+                    break;
+            }
+        }
+        return count;
+    }
+
+    private int pawnMoves(int from, int[] moves, int count) {
+        boolean white = whiteToMove;
+        int step = white ? -8 : 8;
+        int row = from / 8;
+        int col = from % 8;
+        int to = from + step;
+        if (squares[to] == 0) {
+            count = pawnMove(from, to, moves, count);
+            if (row == (white ? 6 : 1) && squares[to + step] == 0) {
+                moves[count++] = from | (to + step) << 6;
+            }
+        }
+        for (int dc = -1; dc <= 1; dc += 2) {
+            if (col + dc < 0 || col + dc > 7) continue;
+            int target = to + dc;
+            int piece = squares[target];
+            if (piece != 0 ? (piece & BLACK) != (white ? 0 : BLACK) : target == enPassant && row == (white ? 3 : 4)) {
+                count = pawnMove(from, target, moves, count);
+            }
+        }
+        return count;
+    }
+
+    private static int pawnMove(int from, int to, int[] moves, int count) {
+        int move = from | to << 6;
+        if (to < 8 || to >= 56) {
+            moves[count++] = move | ChessBoard.QUEEN << 12;
+            moves[count++] = move | ChessBoard.ROOK << 12;
+            moves[count++] = move | ChessBoard.BISHOP << 12;
+            moves[count++] = move | ChessBoard.KNIGHT << 12;
+        } else {
+            moves[count++] = move;
+        }
+        return count;
+    }
+
+    private int stepMoves(int from, int[] targets, int[] moves, int count) {
+        int own = squares[from] & BLACK;
+        for (int to : targets) {
+            int piece = squares[to];
+            if (piece == 0 || (piece & BLACK) != own) moves[count++] = from | to << 6;
+        }
+        return count;
+    }
+
+    private int slideMoves(int from, int firstDirection, int endDirection, int[] moves, int count) {
+        int own = squares[from] & BLACK;
+        for (int direction = firstDirection; direction < endDirection; direction++) {
+            for (int to : RAYS[from][direction]) {
+                int piece = squares[to];
+                if (piece == 0) {
+                    moves[count++] = from | to << 6;
+                    continue;
+                }
+                if ((piece & BLACK) != own) moves[count++] = from | to << 6;
+                break;
+            }
+        }
+        return count;
+    }
+
+    // Castling moves whose path is clear and not attacked; landing in check is left to the
+    // general legality test, which also catches a Chess960 rook that was shielding the king
+    private int castlingMoves(int from, int[] moves, int count) {
+        boolean white = whiteToMove;
+        int row = white ? 7 : 0;
+        if (from / 8 != row) return count;
+        int kingCol = from % 8;
+        int rook = ChessBoard.ROOK | (white ? 0 : BLACK);
+        boolean checked = false;
+
+        for (int side = 0; side < 2; side++) {
+            boolean kingside = side == 0;
+            int right = white ? (kingside ? WHITE_KINGSIDE : WHITE_QUEENSIDE) : (kingside ? BLACK_KINGSIDE : BLACK_QUEENSIDE);
+            if ((castlingRights & right) == 0) continue;
+            int rookCol = kingside ? kingsideRookCol : queensideRookCol;
+            if (squares[row * 8 + rookCol] != rook) continue;
+            if (!checked) {
+                if (isAttacked(from, !white)) return count;
+                checked = true;
+            }
+
+            int kingToCol = kingside ? 6 : 2;
+            int rookToCol = kingside ? 5 : 3;
+            int low = Math.min(Math.min(kingCol, kingToCol), Math.min(rookCol, rookToCol));
+            int high = Math.max(Math.max(kingCol, kingToCol), Math.max(rookCol, rookToCol));
+            boolean clear = true;
+            for (int col = low; col <= high && clear; col++) {
+                clear = col == kingCol || col == rookCol || squares[row * 8 + col] == 0;
+            }
+            for (int col = Math.min(kingCol, kingToCol); col <= Math.max(kingCol, kingToCol) && clear; col++) {
+                clear = !isAttacked(row * 8 + col, !white);
+            }
+            if (clear) {
+                moves[count++] = from | (row * 8 + (chess960 ? rookCol : kingToCol)) << 6;
+            }
+        }
+        return count;
+    }
+
+    private boolean isCastling(int from, int to, int king) {
+        if (chess960) return squares[to] == (ChessBoard.ROOK | (king & BLACK));
+        return Math.abs(to - from) == 2;
+    }
+
+    private int castlingRookCol(int from, int to) {
+        if (chess960) return to % 8;
+        return to % 8 > from % 8 ? kingsideRookCol : queensideRookCol;
+    }
+
+    private void clearRookRight(int square) {
+        int col = square % 8;
+        if (square / 8 == 7) {
+            if (col == queensideRookCol) castlingRights &= ~WHITE_QUEENSIDE;
+            if (col == kingsideRookCol) castlingRights &= ~WHITE_KINGSIDE;
+        } else if (square / 8 == 0) {
+            if (col == queensideRookCol) castlingRights &= ~BLACK_QUEENSIDE;
+            if (col == kingsideRookCol) castlingRights &= ~BLACK_KINGSIDE;
+        }
+    }
+
+    private boolean isAttacked(int square, boolean byWhite) {
+        int them = byWhite ? 0 : BLACK;
+        int row = square / 8;
+        int col = square % 8;
+
+        // A white pawn attacks upwards, so it stands one row below the square
+        int pawnRow = byWhite ? row + 1 : row - 1;
+        if (pawnRow >= 0 && pawnRow < 8) {
+            int pawn = ChessBoard.PAWN | them;
+            if (col > 0 && squares[pawnRow * 8 + col - 1] == pawn) return true;
+            if (col < 7 && squares[pawnRow * 8 + col + 1] == pawn) return true;
+        }
+        int knight = ChessBoard.KNIGHT | them;
+        for (int from : KNIGHT_TARGETS[square]) {
+            if (squares[from] == knight) return true;
+        }
+        int king = ChessBoard.KING | them;
+        for (int from : KING_TARGETS[square]) {
+            if (squares[from] == king) return true;
+        }
+        for (int direction = 0; direction < 8; direction++) {
+            int slider = direction < 4 ? ChessBoard.ROOK : ChessBoard.BISHOP;
+            for (int from : RAYS[square][direction]) {
+                int piece = squares[from];
+                if (piece == 0) continue;
+                if ((piece & BLACK) == them && ((piece & 7) == slider || (piece & 7) == ChessBoard.QUEEN)) return true;
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static int[] targets(int row, int col, int[][] steps) {
+        int[] targets = new int[steps.length];
+        int count = 0;
+        for (int[] step : steps) {
+            int r = row + step[0];
+            int c = col + step[1];
+            if (r >= 0 && r < 8 && c >= 0 && c < 8) targets[count++] = r * 8 + c;
+        }
+        return Arrays.copyOf(targets, count);
+    }
+}
@@ -0,0 +1,182 @@
+// Forsyth-Edwards Notation for ChessBoard positions. Castling rights are read as KQkq or, for
+// Chess960, as Shredder/X-FEN rook files (HAha); Chess960 positions are written with rook files.
+final class Fen {
+    static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private static final String PIECE_LETTERS = " pnbrqk";
+
+    // A parsed position: the board holds everything but the side to move and the move number
+    static final class Setup {
+        final ChessBoard board;
+        final ChessPiece.Color toMove;
+        final int fullmoveNumber;
+
+        Setup(ChessBoard board, ChessPiece.Color toMove, int fullmoveNumber) {
+            this.board = board;
+            this.toMove = toMove;
+            this.fullmoveNumber = fullmoveNumber;
+        }
+    }
+
+    private Fen() {
+    }
+
+    // Throws IllegalArgumentException for anything that is not a playable position
+    public static Setup parse(String fen, boolean chess960) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) {
+            throw new IllegalArgumentException("FEN needs at least four fields: " + fen);
+        }
+
+        ChessPiece[][] placement = new ChessPiece[8][8];
+        String[] ranks = fields[0].split("/");
+        if (ranks.length != 8) {
+            throw new IllegalArgumentException("FEN needs eight ranks: " + fields[0]);
+        }
+        int[] kingCols = {-1, -1};
+        for (int row = 0; row < 8; row++) {
+            int col = 0;
+            for (char c : ranks[row].toCharArray()) {
+                if (c >= '1' && c <= '8') {
+                    col += c - '0';
+                    continue;
+                }
+                int type = PIECE_LETTERS.indexOf(Character.toLowerCase(c));
+                if (type <= 0 || col > 7) {
+                    throw new IllegalArgumentException("Bad rank in FEN: " + ranks[row]);
+                }
+                ChessPiece.Color color = Character.isUpperCase(c) ? ChessPiece.Color.WHITE : ChessPiece.Color.BLACK;
+                placement[row][col] = ChessBoard.createPiece(type, color);
+                if (type == ChessBoard.KING && row == (color == ChessPiece.Color.WHITE ? 7 : 0)) {
+                    kingCols[color.ordinal()] = col;
+                }
+                col++;
+            }
+            if (col != 8) {
+                throw new IllegalArgumentException("Rank does not have eight squares: " + ranks[row]);
+            }
+        }
+
+        ChessPiece.Color toMove;
+        if (fields[1].equals("w")) {
+            toMove = ChessPiece.Color.WHITE;
+        } else if (fields[1].equals("b")) {
+            toMove = ChessPiece.Color.BLACK;
+        } else {
+            throw new IllegalArgumentException("Side to move must be w or b: " + fields[1]);
+        }
+
+        // Rights whose king or rook is not on its home square are dropped, as GUIs send them loosely
+        int rights = 0;
+        int kingsideRookCol = 7;
+        int queensideRookCol = 0;
+        if (!fields[2].equals("-")) {
+            for (char c : fields[2].toCharArray()) {
+                ChessPiece.Color color = Character.isUpperCase(c) ? ChessPiece.Color.WHITE : ChessPiece.Color.BLACK;
+                int row = color == ChessPiece.Color.WHITE ? 7 : 0;
+                int kingCol = kingCols[color.ordinal()];
+                if (kingCol < 0) continue;
+
+                char letter = Character.toLowerCase(c);
+                int rookCol;
+                if (letter == 'k') {
+                    rookCol = outermostRook(placement, row, color, kingCol, 1);
+                } else if (letter == 'q') {
+                    rookCol = outermostRook(placement, row, color, kingCol, -1);
+                } else if (letter >= 'a' && letter <= 'h') {
+                    rookCol = letter - 'a';
+                } else {
+                    throw new IllegalArgumentException("Bad castling rights: " + fields[2]);
+                }
+                ChessPiece rook = rookCol < 0 ? null : placement[row][rookCol];
+                if (!(rook instanceof Rook) || rook.getColor() != color || rookCol == kingCol) continue;
+
+                boolean kingside = rookCol > kingCol;
+                if (kingside) {
+                    kingsideRookCol = rookCol;
+                } else {
+                    queensideRookCol = rookCol;
+                }
+                rights |= (kingside ? 1 : 2) << (color == ChessPiece.Color.WHITE ? 0 : 2);
+            }
+        }
+
+        ChessGame.Position enPassant = null;
+        if (!fields[3].equals("-")) {
+            enPassant = Notation.parseSquare(fields[3]);
+            if (enPassant.row != (toMove == ChessPiece.Color.WHITE ? 2 : 5)) {
+                throw new IllegalArgumentException("En passant square on the wrong rank: " + fields[3]);
+            }
+        }
+
+        int halfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+        int fullmoveNumber = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+        if (halfmoveClock < 0 || fullmoveNumber < 1) {
+            throw new IllegalArgumentException("Bad move counters: " + fen);
+        }
+
+        ChessBoard board = ChessBoard.fromPosition(placement, chess960, rights, kingsideRookCol,
+                                                   queensideRookCol, enPassant, halfmoveClock);
+        if (!hasKing(placement, ChessPiece.Color.WHITE) || !hasKing(placement, ChessPiece.Color.BLACK)
+                || board.isKingInCheck(toMove.opposite())) {
+            throw new IllegalArgumentException("Not a legal position: " + fen);
+        }
+        return new Setup(board, toMove, fullmoveNumber);
+    }
+
+    public static String format(ChessBoard board, ChessPiece.Color toMove, int fullmoveNumber) {
+        StringBuilder fen = new StringBuilder();
+        for (int row = 0; row < 8; row++) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                ChessPiece piece = board.getPieceAt(row, col);
+                if (piece == null) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) fen.append(empty);
+                empty = 0;
+                char letter = PIECE_LETTERS.charAt(ChessBoard.pieceType(piece));
+                fen.append(piece.getColor() == ChessPiece.Color.WHITE ? Character.toUpperCase(letter) : letter);
+            }
+            if (empty > 0) fen.append(empty);
+            if (row < 7) fen.append('/');
+        }
+
+        fen.append(toMove == ChessPiece.Color.WHITE ? " w " : " b ");
+
+        int rights = board.getCastlingRights();
+        if (rights == 0) {
+            fen.append('-');
+        } else {
+            char kingside = board.isChess960() ? (char) ('a' + board.getKingsideRookCol()) : 'k';
+            char queenside = board.isChess960() ? (char) ('a' + board.getQueensideRookCol()) : 'q';
+            if ((rights & 1) != 0) fen.append(Character.toUpperCase(kingside));
+            if ((rights & 2) != 0) fen.append(Character.toUpperCase(queenside));
+            if ((rights & 4) != 0) fen.append(kingside);
+            if ((rights & 8) != 0) fen.append(queenside);
+        }
+
+        ChessGame.Position enPassant = board.getEnPassantTarget();
+        fen.append(' ').append(enPassant == null ? "-" : Notation.squareName(enPassant));
+        fen.append(' ').append(board.getHalfmoveClock()).append(' ').append(fullmoveNumber);
+        return fen.toString();
+    }
+
+    private static int outermostRook(ChessPiece[][] placement, int row, ChessPiece.Color color, int kingCol, int direction) {
+        for (int col = direction > 0 ? 7 : 0; col != kingCol; col -= direction) {
+            ChessPiece piece = placement[row][col];
+            if (piece instanceof Rook && piece.getColor() == color) return col;
+        }
+        return -1;
+    }
+
+    private static boolean hasKing(ChessPiece[][] placement, ChessPiece.Color color) {
+        for (ChessPiece[] rank : placement) {
+            for (ChessPiece piece : rank) {
+                if (piece instanceof King && piece.getColor() == color) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.Serializable;
+
+// Chess clock for both players, measured against System.nanoTime so it neither drifts nor loses
+// the sub-second part of a move. Time is only read when asked for; nothing ticks inside the clock.
+class GameClock implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int WHITE = 0;
+    private static final int BLACK = 1;
+    private static final int NONE = -1;
+
+    private final TimeControl control;
+    private final long[] remainingNanos = new long[2];
+    private final int[] stage = new int[2];
+    private final int[] movesInStage = new int[2];
+    private int running = NONE;
+    private transient long turnStartNanos;
+
+    public GameClock(TimeControl control) {
+        this.control = control;
+        remainingNanos[WHITE] = control.stage(0).baseMillis * 1_000_000L;
+        remainingNanos[BLACK] = control.stage(0).baseMillis * 1_000_000L;
+    }
+
+    public TimeControl getTimeControl() {
+        return control;
+    }
+
+    // Runs the given side's clock, stopping the other without any increment
+    public synchronized void start(boolean white) {
+        stop();
+        running = white ? WHITE : BLACK;
+        turnStartNanos = System.nanoTime();
+    }
+
+    public synchronized void stop() {
+        if (running != NONE) {
+            remainingNanos[running] -= System.nanoTime() - turnStartNanos;
+            running = NONE;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running != NONE;
+    }
+
+    // Ends the running side's move: charges its time, applies delay, increment and stage changes,
+    // and starts the opponent's clock
+    public synchronized void switchTurn() {
+        if (running == NONE) return;
+
+        long now = System.nanoTime();
+        long elapsed = now - turnStartNanos;
+        int side = running;
+
+        TimeControl.Stage current = control.stage(stage[side]);
+        remainingNanos[side] -= elapsed;
+        if (remainingNanos[side] > 0) {
+            remainingNanos[side] += Math.min(elapsed, current.delayMillis * 1_000_000L);
+            remainingNanos[side] += current.incrementMillis * 1_000_000L;
+            if (countMove(side == WHITE)) {
+                remainingNanos[side] += control.stage(stage[side]).baseMillis * 1_000_000L;
+            }
+        }
+
+        running = 1 - side;
+        turnStartNanos = now;
+    }
+
+    // Advances the move count of a side, returning true when that starts a new stage
+    synchronized boolean countMove(boolean white) {
+        int side = white ? WHITE : BLACK;
+        TimeControl.Stage current = control.stage(stage[side]);
+        if (current.moves == 0 || ++movesInStage[side] < current.moves) {
+            return false;
+        }
+        movesInStage[side] = 0;
+        if (stage[side] < control.stageCount() - 1) {
+            stage[side]++;
+        }
+        return true;
+    }
+
+    public synchronized long getRemainingMillis(boolean white) {
+        int side = white ? WHITE : BLACK;
+        long remaining = remainingNanos[side];
+        if (running == side) {
+            remaining -= System.nanoTime() - turnStartNanos;
+        }
+        return Math.max(0, remaining / 1_000_000L);
+    }
+
+    public synchronized void setRemainingMillis(long white, long black) {
+        remainingNanos[WHITE] = white * 1_000_000L;
+        remainingNanos[BLACK] = black * 1_000_000L;
+        if (running != NONE) {
+            turnStartNanos = System.nanoTime();
+        }
+    }
+
+    public boolean isFlagged(boolean white) {
+        return getRemainingMillis(white) <= 0;
+    }
+
+    // A stopped copy holding the time left right now, for saving
+    public synchronized GameClock snapshot() {
+        GameClock copy = new GameClock(control);
+        copy.remainingNanos[WHITE] = getRemainingMillis(true) * 1_000_000L;
+        copy.remainingNanos[BLACK] = getRemainingMillis(false) * 1_000_000L;
+        copy.stage[WHITE] = stage[WHITE];
+        copy.stage[BLACK] = stage[BLACK];
+        copy.movesInStage[WHITE] = movesInStage[WHITE];
+        copy.movesInStage[BLACK] = movesInStage[BLACK];
+        return copy;
+    }
+}
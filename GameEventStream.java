@@ -0,0 +1,300 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Fans the events of one game out to any number of spectators. Add the stream as a listener of
+// the GameSession; the session calls listeners under its lock, so there is one writer at a time.
+// Events go into a ring buffer and the writer never waits for a reader.
+//
+// A few dispatcher threads, shared by every stream in the JVM, deliver events. A stream wakes
+// only the dispatchers that have its subscribers. Each subscriber receives everything published
+// since its last delivery as one batch. Superseded clock readings are dropped, so a slow
+// subscriber sees fewer, larger batches and never slows the game. Subscribers that turn out slow
+// are called from a separate pool so they do not delay the fast ones. A subscriber that falls a
+// whole ring behind loses the oldest events and is told so.
+final class GameEventStream implements GameSession.Listener {
+    static final int DEFAULT_CAPACITY = 256;
+
+    enum Type { MOVE, PROMOTION, CLOCK, CHECK, RESULT, POSITION }
+
+    // One event; the text is the move in coordinate notation, the promotion piece, the colour
+    // in check, or the result and reason
+    static final class Event {
+        final long sequence;
+        final long publishedNanos;
+        final Type type;
+        final int ply;
+        final String text;
+        final long whiteMillis;
+        final long blackMillis;
+
+        Event(long sequence, Type type, int ply, String text, long whiteMillis, long blackMillis) {
+            this.sequence = sequence;
+            this.publishedNanos = System.nanoTime();
+            this.type = type;
+            this.ply = ply;
+            this.text = text;
+            this.whiteMillis = whiteMillis;
+            this.blackMillis = blackMillis;
+        }
+
+        // One line for text protocols, e.g. "MOVE 12 g1f3", "CLOCK 12 59000 60000"
+        @Override
+        public String toString() {
+            switch (type) {
+                case CLOCK: return "CLOCK " + ply + " " + whiteMillis + " " + blackMillis;
+                case POSITION: return "POSITION " + ply;
+                default: return type + " " + ply + " " + text;
+            }
+        }
+    }
+
+    interface Subscriber {
+        // Called with the events since the last call, oldest first, never by two threads at once.
+        // The list is only valid during the call. missed is true when older events were dropped
+        // because the subscriber fell a whole ring behind. A call that blocks delays only the
+        // next call to the same subscriber, once the subscriber is known to be slow.
+        void events(List<Event> events, boolean missed);
+    }
+
+    final class Subscription {
+        private final Subscriber subscriber;
+        private final int dispatcher;
+        // Next sequence to deliver. Only one thread delivers at a time: the dispatcher, or the
+        // slow lane while busy is set.
+        private long cursor;
+        // The last delivery took longer than SLOW_NANOS; deliver on the slow lane
+        private boolean slow;
+        private volatile boolean busy;
+
+        private Subscription(Subscriber subscriber, int dispatcher, long cursor) {
+            this.subscriber = subscriber;
+            this.dispatcher = dispatcher;
+            this.cursor = cursor;
+        }
+
+        void cancel() {
+            subscriptions.get(dispatcher).remove(this);
+        }
+
+        // Hands over everything published since the last delivery
+        private void deliver(List<Event> batch, List<Event> view) {
+            boolean missed = collect(batch);
+            long start = System.nanoTime();
+            try {
+                subscriber.events(view, missed);
+            } catch (RuntimeException e) {
+                // A failing spectator must not stop deliveries to the others; report it as if it
+                // had been uncaught, but keep the thread
+                cancel();
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+            slow = System.nanoTime() - start > SLOW_NANOS;
+        }
+
+        private void deliverAlone() {
+            List<Event> batch = new ArrayList<>();
+            deliver(batch, Collections.unmodifiableList(batch));
+            busy = false;
+            // Events published meanwhile were skipped by the dispatcher, which must look again
+            if (cursor != published) wake(dispatcher);
+        }
+
+        // Fills the batch and moves the cursor past it; returns whether events were lost
+        private boolean collect(List<Event> batch) {
+            long end = published;
+            long start = cursor;
+            boolean missed = false;
+            if (end - start > ring.length) {
+                start = end - ring.length;
+                missed = true;
+            }
+
+            // Newest first, so a clock reading can be dropped when a later one follows
+            batch.clear();
+            boolean laterClock = false;
+            for (long sequence = end - 1; sequence >= start; sequence--) {
+                Event event = ring[(int) sequence & mask];
+                if (event == null || event.sequence != sequence) {
+                    // Overwritten while we read: the writer lapped this subscriber
+                    missed = true;
+                    break;
+                }
+                if (event.type == Type.CLOCK) {
+                    if (laterClock) continue;
+                    laterClock = true;
+                }
+                batch.add(event);
+            }
+            Collections.reverse(batch);
+            cursor = end;
+            return missed;
+        }
+    }
+
+    // Subscribers that take longer than this per delivery move to the slow lane, so they stop
+    // delaying the others on their dispatcher
+    private static final long SLOW_NANOS = 1_000_000;
+    private static final int SLOW_LANE_THREADS = 16;
+
+    private static final Dispatcher[] DISPATCHERS = startDispatchers(Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger NEXT_DISPATCHER = new AtomicInteger();
+    private static final ExecutorService SLOW_LANE = Executors.newFixedThreadPool(SLOW_LANE_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "game-event-slow-lane");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Event[] ring;
+    private final int mask;
+    private volatile long published;
+    private final List<List<Subscription>> subscriptions;
+    // 1 while this stream is queued on a dispatcher, so a burst of events queues it once
+    private final AtomicIntegerArray queued = new AtomicIntegerArray(DISPATCHERS.length);
+
+    GameEventStream() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // The capacity is rounded up to a power of two
+    GameEventStream(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        ring = new Event[size];
+        mask = size - 1;
+        List<List<Subscription>> lists = new ArrayList<>(DISPATCHERS.length);
+        for (int i = 0; i < DISPATCHERS.length; i++) {
+            lists.add(new CopyOnWriteArrayList<>());
+        }
+        subscriptions = List.copyOf(lists);
+    }
+
+    // Delivers events published from now on. A spectator that needs the game so far should
+    // subscribe and read the session while holding the session's lock, so nothing falls between.
+    Subscription subscribe(Subscriber subscriber) {
+        int dispatcher = Math.floorMod(NEXT_DISPATCHER.getAndIncrement(), DISPATCHERS.length);
+        Subscription subscription = new Subscription(subscriber, dispatcher, published);
+        subscriptions.get(dispatcher).add(subscription);
+        // Events published before the list was non-empty did not queue the stream
+        wake(dispatcher);
+        return subscription;
+    }
+
+    long getPublishedCount() {
+        return published;
+    }
+
+    // Only one thread may publish at a time
+    void publish(Type type, int ply, String text, long whiteMillis, long blackMillis) {
+        long sequence = published;
+        ring[(int) sequence & mask] = new Event(sequence, type, ply, text, whiteMillis, blackMillis);
+        published = sequence + 1;
+        for (int i = 0; i < subscriptions.size(); i++) {
+            if (!subscriptions.get(i).isEmpty()) wake(i);
+        }
+    }
+
+    private void wake(int dispatcher) {
+        if (queued.compareAndSet(dispatcher, 0, 1)) {
+            DISPATCHERS[dispatcher].schedule(this);
+        }
+    }
+
+    @Override
+    public void moveMade(GameSession session, ChessGame.Position from, ChessGame.Position to) {
+        publish(Type.MOVE, session.getBoard().getPly(), Notation.squareName(from) + Notation.squareName(to), 0, 0);
+    }
+
+    @Override
+    public void pawnPromoted(GameSession session, ChessGame.Position square, ChessPiece piece) {
+        String letter = String.valueOf(" pnbrqk".charAt(ChessBoard.pieceType(piece)));
+        publish(Type.PROMOTION, session.getBoard().getPly(), letter, 0, 0);
+    }
+
+    @Override
+    public void clockChanged(GameSession session, long whiteMillis, long blackMillis) {
+        publish(Type.CLOCK, session.getBoard().getPly(), null, whiteMillis, blackMillis);
+    }
+
+    @Override
+    public void check(GameSession session, ChessPiece.Color color) {
+        publish(Type.CHECK, session.getBoard().getPly(), color == ChessPiece.Color.WHITE ? "white" : "black", 0, 0);
+    }
+
+    @Override
+    public void gameOver(GameSession session, GameSession.Result result, String reason) {
+        publish(Type.RESULT, session.getBoard().getPly(), GameSession.resultText(result) + " " + reason, 0, 0);
+    }
+
+    @Override
+    public void positionChanged(GameSession session) {
+        publish(Type.POSITION, session.getBoard().getPly(), null, 0, 0);
+    }
+
+    // Runs on the dispatcher; batch is the dispatcher's own list, reused for every delivery
+    private void deliver(int dispatcher, List<Event> batch, List<Event> view) {
+        long end = published;
+        for (Subscription subscription : subscriptions.get(dispatcher)) {
+            if (subscription.busy || subscription.cursor == end) continue;
+            if (subscription.slow) {
+                subscription.busy = true;
+                SLOW_LANE.execute(subscription::deliverAlone);
+            } else {
+                subscription.deliver(batch, view);
+            }
+        }
+    }
+
+    private static Dispatcher[] startDispatchers(int count) {
+        Dispatcher[] dispatchers = new Dispatcher[Math.max(1, count)];
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = new Dispatcher(i);
+            dispatchers[i].start();
+        }
+        return dispatchers;
+    }
+
+    private static final class Dispatcher extends Thread {
+        private final int index;
+        private final ConcurrentLinkedQueue<GameEventStream> ready = new ConcurrentLinkedQueue<>();
+        private final List<Event> batch = new ArrayList<>();
+        private final List<Event> view = Collections.unmodifiableList(batch);
+        private volatile boolean sleeping;
+
+        Dispatcher(int index) {
+            super("game-event-dispatcher-" + index);
+            this.index = index;
+            setDaemon(true);
+        }
+
+        void schedule(GameEventStream stream) {
+            ready.add(stream);
+            if (sleeping) LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                GameEventStream stream = ready.poll();
+                if (stream == null) {
+                    // Publishers check sleeping after queueing, we check the queue after setting
+                    // it, so a stream queued in between is never left waiting
+                    sleeping = true;
+                    if (ready.isEmpty()) LockSupport.park(this);
+                    sleeping = false;
+                    continue;
+                }
+                // Cleared before delivering, so events published meanwhile queue the stream again
+                stream.queued.set(index, 0);
+                stream.deliver(index, batch, view);
+            }
+        }
+    }
+}
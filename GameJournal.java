@@ -0,0 +1,251 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// Append-only autosave journal. The game is stored as a snapshot of the last compaction point
+// plus a pre-allocated file of fixed-size records (moves, promotions and clock changes) written
+// since then. Recovery loads the snapshot and replays the records on top of it.
+class GameJournal implements Closeable {
+    private static final String JOURNAL_FILE = "game.journal";
+    private static final String SNAPSHOT_FILE = "game.snapshot";
+
+    // Heads every snapshot. Version 2 stores promotions as ChessBoard piece types instead of
+    // letters; a snapshot of any other version is discarded, and its records with it, since
+    // they only replay on top of the snapshot of their own epoch.
+    private static final int FORMAT_VERSION = 0x434A0002;
+
+    // Record layout: type, a, b, checksum, white time, black time, epoch
+    static final int RECORD_SIZE = 16;
+    private static final int CAPACITY = 4096; // records in the pre-allocated file
+    private static final int SYNC_GROUP = 16; // records per fsync
+    private static final int COMPACT_INTERVAL = 256; // moves between snapshots
+    // Compaction is asked for while this many slots are still free, since it runs later on
+    // another thread and the moves and clock changes in between still need room
+    private static final int COMPACT_HEADROOM = 256;
+
+    private static final byte TYPE_MOVE = 1;
+    private static final byte TYPE_PROMOTION = 2;
+    private static final byte TYPE_CLOCK = 3;
+
+    private final Path snapshotPath;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE);
+    private int epoch;
+    private int recordCount;
+    private int movesSinceSnapshot;
+    private int unsynced;
+
+    private GameJournal(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.channel = FileChannel.open(directory.resolve(JOURNAL_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Pre-allocate so appends never extend the file
+        long size = (long) CAPACITY * RECORD_SIZE;
+        if (channel.size() < size) {
+            channel.write(ByteBuffer.wrap(new byte[]{0}), size - 1);
+            channel.force(true);
+        }
+        epoch = highestEpoch();
+    }
+
+    public static GameJournal open(Path directory) throws IOException {
+        return new GameJournal(directory);
+    }
+
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".chessgame");
+    }
+
+    // Rebuilds the journaled game, or returns null if there is nothing to recover
+    public synchronized ChessGame.GameState recover() throws IOException {
+        if (!Files.exists(snapshotPath)) return null;
+
+        ChessGame.GameState state = null;
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (ois.readInt() == FORMAT_VERSION) {
+                epoch = ois.readInt();
+                state = (ChessGame.GameState) ois.readObject();
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Corrupt snapshot: " + e.getMessage(), e);
+        }
+        if (state == null) {
+            // Written by an older version
+            Files.deleteIfExists(snapshotPath);
+            return null;
+        }
+
+        ChessBoard board = state.board;
+        boolean isWhiteTurn = state.isWhiteTurn;
+        GameClock clock = state.clock;
+        if (clock == null) {
+            clock = new GameClock(TimeControl.parse("10"));
+            clock.setRemainingMillis(state.whiteTimeRemaining * 1000L, state.blackTimeRemaining * 1000L);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(CAPACITY * RECORD_SIZE);
+        channel.read(buffer, 0);
+        buffer.flip();
+
+        recordCount = 0;
+        movesSinceSnapshot = 0;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            byte type = buffer.get();
+            byte a = buffer.get();
+            byte b = buffer.get();
+            byte checksum = buffer.get();
+            int white = buffer.getInt();
+            int black = buffer.getInt();
+            int recordEpoch = buffer.getInt();
+
+            // Stop at the first unwritten, stale or torn record
+            if (recordEpoch != epoch || checksum != checksum(type, a, b, white, black, recordEpoch)) {
+                break;
+            }
+
+            if (type == TYPE_MOVE) {
+                if (!board.movePiece(square(a), square(b))) break;
+                clock.countMove(isWhiteTurn);
+                isWhiteTurn = !isWhiteTurn;
+                movesSinceSnapshot++;
+            } else if (type == TYPE_PROMOTION) {
+                ChessGame.Position position = square(a);
+                ChessPiece pawn = board.getPieceAt(position);
+                // Anything but a piece a pawn can become is a corrupt record
+                if (pawn == null || b < ChessBoard.KNIGHT || b > ChessBoard.QUEEN) break;
+                board.promotePawn(position, ChessBoard.createPiece(b, pawn.getColor()));
+            } else if (type == TYPE_CLOCK) {
+                clock.setRemainingMillis(white, black);
+            } else {
+                break;
+            }
+            recordCount++;
+        }
+
+        return new ChessGame.GameState(board, isWhiteTurn, clock);
+    }
+
+    // Starts a new journal epoch from a full snapshot of the current game
+    public synchronized void compact(ChessGame.GameState state) throws IOException {
+        int nextEpoch = epoch + 1;
+        Path temp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+             ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(out))) {
+            oos.writeInt(FORMAT_VERSION);
+            oos.writeInt(nextEpoch);
+            oos.writeObject(state);
+            oos.flush();
+            out.getFD().sync();
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Records from the previous epoch are ignored from here on, so the file is not cleared
+        epoch = nextEpoch;
+        recordCount = 0;
+        movesSinceSnapshot = 0;
+        unsynced = 0;
+    }
+
+    public synchronized void appendMove(ChessGame.Position from, ChessGame.Position to) throws IOException {
+        append(TYPE_MOVE, (byte) index(from), (byte) index(to), 0, 0);
+        movesSinceSnapshot++;
+    }
+
+    public synchronized void appendPromotion(ChessGame.Position position, ChessPiece piece) throws IOException {
+        append(TYPE_PROMOTION, (byte) index(position), (byte) ChessBoard.pieceType(piece), 0, 0);
+    }
+
+    // Remaining times in milliseconds
+    public synchronized void appendClock(long whiteMillis, long blackMillis) throws IOException {
+        append(TYPE_CLOCK, (byte) 0, (byte) 0, (int) whiteMillis, (int) blackMillis);
+    }
+
+    // True once the journal should be folded into a new snapshot
+    public synchronized boolean needsCompaction() {
+        return movesSinceSnapshot >= COMPACT_INTERVAL || recordCount >= CAPACITY - COMPACT_HEADROOM;
+    }
+
+    public synchronized void sync() throws IOException {
+        if (unsynced > 0) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    // Forgets the journaled game, e.g. once it has finished
+    public synchronized void clear() throws IOException {
+        Files.deleteIfExists(snapshotPath);
+        recordCount = 0;
+        movesSinceSnapshot = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    private void append(byte type, byte a, byte b, int white, int black) throws IOException {
+        if (recordCount >= CAPACITY) {
+            throw new IOException("Journal is full; compaction required");
+        }
+
+        record.clear();
+        record.put(type).put(a).put(b).put(checksum(type, a, b, white, black, epoch));
+        record.putInt(white).putInt(black).putInt(epoch);
+        record.flip();
+
+        long position = (long) recordCount * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        recordCount++;
+
+        if (++unsynced >= SYNC_GROUP) {
+            sync();
+        }
+    }
+
+    // New epochs must not collide with stale records left by an earlier game
+    private int highestEpoch() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CAPACITY * RECORD_SIZE);
+        channel.read(buffer, 0);
+        buffer.flip();
+
+        int highest = 0;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            byte type = buffer.get();
+            byte a = buffer.get();
+            byte b = buffer.get();
+            byte checksum = buffer.get();
+            int white = buffer.getInt();
+            int black = buffer.getInt();
+            int recordEpoch = buffer.getInt();
+            if (type != 0 && checksum == checksum(type, a, b, white, black, recordEpoch)) {
+                highest = Math.max(highest, recordEpoch);
+            }
+        }
+        return highest;
+    }
+
+    private static byte checksum(byte type, byte a, byte b, int white, int black, int epoch) {
+        int h = type;
+        h = h * 31 + a;
+        h = h * 31 + b;
+        h = h * 31 + white;
+        h = h * 31 + black;
+        h = h * 31 + epoch;
+        return (byte) (h ^ (h >>> 8) ^ (h >>> 16) ^ (h >>> 24) ^ 0x5A);
+    }
+
+    private static int index(ChessGame.Position position) {
+        return position.row * 8 + position.col;
+    }
+
+    private static ChessGame.Position square(byte index) {
+        return ChessGame.Position.of(index / 8, index % 8);
+    }
+}
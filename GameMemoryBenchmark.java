@@ -0,0 +1,82 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Measures what hosting many games costs: retained heap per live game, fresh and after some
+// moves, and bytes allocated per move played. Run with a fixed heap (e.g. -Xmx1g) so collections
+// settle. Usage: java GameMemoryBenchmark [games] [plies] [seed]
+public class GameMemoryBenchmark {
+    public static void main(String[] args) {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1L;
+
+        // Warm up the move generator so JIT work and class loading stay out of the figures
+        playGames(200, plies, new Random(seed));
+
+        long before = usedHeap();
+        List<ChessBoard> fresh = new ArrayList<>(gameCount);
+        for (int i = 0; i < gameCount; i++) {
+            fresh.add(new ChessBoard(false));
+        }
+        long freshBytes = usedHeap() - before;
+        System.out.printf("Fresh game:        %8.0f bytes retained (%d games)%n", (double) freshBytes / gameCount, fresh.size());
+        fresh = null;
+
+        before = usedHeap();
+        long allocatedBefore = allocatedBytes();
+        Random random = new Random(seed);
+        List<ChessBoard> played = playGames(gameCount, plies, random);
+        long allocated = allocatedBytes() - allocatedBefore;
+        long playedBytes = usedHeap() - before;
+
+        long moves = 0;
+        for (ChessBoard board : played) {
+            moves += board.getPly();
+        }
+        System.out.printf("After %3d plies:   %8.0f bytes retained%n", plies, (double) playedBytes / gameCount);
+        System.out.printf("Allocated:         %8.0f bytes per move (%d moves, legal move generation included)%n",
+            (double) allocated / moves, moves);
+
+        long heapLimit = Runtime.getRuntime().maxMemory();
+        System.out.printf("Games per %d MB heap at %d plies: about %d%n",
+            heapLimit >> 20, plies, heapLimit / Math.max(1, playedBytes / gameCount));
+    }
+
+    // Random legal games kept alive together, as a server hosting them would
+    private static List<ChessBoard> playGames(int gameCount, int plies, Random random) {
+        List<ChessBoard> boards = new ArrayList<>(gameCount);
+        for (int i = 0; i < gameCount; i++) {
+            ChessBoard board = new ChessBoard(false);
+            ChessPiece.Color color = ChessPiece.Color.WHITE;
+            for (int ply = 0; ply < plies; ply++) {
+                int[] moves = board.getAllLegalMoves(color);
+                if (moves.length == 0) break;
+                board.makeMove(moves[random.nextInt(moves.length)]);
+                color = color.opposite();
+            }
+            boards.add(board);
+        }
+        return boards;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Collect until the figure stops falling; one System.gc() is only a hint
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if (now >= used) break;
+            used = now;
+        }
+        return used;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,401 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless game: board, turn, clock and result, with events for clients. The Swing window is one
+// such client; servers and batch jobs use it directly without loading any UI classes.
+//
+// Methods may be called from any thread. Listeners run on the calling thread for moves and on
+// the shared clock thread for clock and flag events, so UI clients must hand off to their own
+// event thread.
+class GameSession {
+    public enum Result { WHITE_WINS, BLACK_WINS, DRAW }
+
+    // "1-0", "0-1", "1/2-1/2", or "*" for a game still going, as PGN and the server write them
+    static String resultText(Result result) {
+        if (result == null) return "*";
+        switch (result) {
+            case WHITE_WINS: return "1-0";
+            case BLACK_WINS: return "0-1";
+            default: return "1/2-1/2";
+        }
+    }
+
+    public interface Listener {
+        default void moveMade(GameSession session, ChessGame.Position from, ChessGame.Position to) {}
+
+        // The pawn on square needs a piece; the client must answer with promote()
+        default void promotionRequired(GameSession session, ChessGame.Position square) {}
+
+        default void pawnPromoted(GameSession session, ChessGame.Position square, ChessPiece piece) {}
+
+        default void clockChanged(GameSession session, long whiteMillis, long blackMillis) {}
+
+        default void check(GameSession session, ChessPiece.Color color) {}
+
+        default void gameOver(GameSession session, Result result, String reason) {}
+
+        // The position was replaced, e.g. by undo, redo or seeking
+        default void positionChanged(GameSession session) {}
+    }
+
+    private final ChessBoard board;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private GameClock clock;
+    private boolean whiteToMove;
+    private boolean started = false;
+    private Result result = null;
+    private String resultReason = null;
+    private ChessGame.Position pendingPromotion = null;
+    private ScheduledFuture<?> clockTick;
+    private long lastTickTenths = -1;
+    private boolean clockEvents = true;
+    private long flagCheckDue;
+    // Whether this session is included in ACTIVE_GAMES
+    private boolean countedActive;
+
+    private static final LongAdder ACTIVE_GAMES = new LongAdder();
+
+    static {
+        Metrics.gauge("chess_games_active", "Sessions started and not yet over or stopped", ACTIVE_GAMES::sum);
+    }
+
+    public GameSession(boolean isChess960, TimeControl timeControl) {
+        this(new ChessBoard(isChess960), true, new GameClock(timeControl));
+    }
+
+    // A Chess960 game from the start position with the given number, 0-959
+    public static GameSession chess960(int number, TimeControl timeControl) {
+        return new GameSession(ChessBoard.chess960(number), true, new GameClock(timeControl));
+    }
+
+    private GameSession(ChessBoard board, boolean whiteToMove, GameClock clock) {
+        this.board = board;
+        this.whiteToMove = whiteToMove;
+        this.clock = clock;
+    }
+
+    public static GameSession restore(ChessGame.GameState state) {
+        GameClock clock = state.clock;
+        if (clock == null) {
+            // Saved before the clock engine: only whole seconds were stored
+            clock = new GameClock(TimeControl.parse("10"));
+            clock.setRemainingMillis(state.whiteTimeRemaining * 1000L, state.blackTimeRemaining * 1000L);
+        }
+        return new GameSession(state.board, state.isWhiteTurn, clock);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Starts the side to move's clock; the game accepts moves from here on
+    public synchronized void start() {
+        started = true;
+        if (result == null) {
+            startClock();
+            checkGameEnd();
+        }
+        countActive();
+    }
+
+    // Stops the clock without ending the game, e.g. when the session is discarded
+    public synchronized void stop() {
+        started = false;
+        stopClock();
+        countActive();
+    }
+
+    // With clock events off the clock is only checked when the side to move would run out of
+    // time, instead of every tick, and clockChanged fires only on moves. Servers hosting many
+    // games use this so idle games cost the shared clock thread nothing.
+    public synchronized void setClockEvents(boolean clockEvents) {
+        this.clockEvents = clockEvents;
+        if (isActive()) startClock();
+    }
+
+    public synchronized boolean isActive() {
+        return started && result == null;
+    }
+
+    public synchronized ChessBoard getBoard() {
+        return board;
+    }
+
+    public synchronized boolean isWhiteTurn() {
+        return whiteToMove;
+    }
+
+    public synchronized ChessPiece.Color sideToMove() {
+        return whiteToMove ? ChessPiece.Color.WHITE : ChessPiece.Color.BLACK;
+    }
+
+    public synchronized GameClock getClock() {
+        return clock;
+    }
+
+    public synchronized Result getResult() {
+        return result;
+    }
+
+    public synchronized String getResultReason() {
+        return resultReason;
+    }
+
+    public synchronized boolean isAwaitingPromotion() {
+        return pendingPromotion != null;
+    }
+
+    // Legal move codes of the side to move, in ChessBoard order; empty when no move can be made
+    public synchronized int[] getAllLegalMoves() {
+        if (!isActive() || pendingPromotion != null) return new int[0];
+        return board.getAllLegalMoves(sideToMove()).clone();
+    }
+
+    // Legal targets for a piece of the side to move; empty for anything else
+    public synchronized List<ChessGame.Position> getLegalMoves(ChessGame.Position position) {
+        ChessPiece piece = board.getPieceAt(position);
+        if (!isActive() || pendingPromotion != null || piece == null || piece.getColor() != sideToMove()) {
+            return new java.util.ArrayList<>();
+        }
+        return board.getLegalMoves(position);
+    }
+
+    // Plays a move of the side to move. A pawn reaching the last rank waits for promote().
+    public synchronized boolean move(ChessGame.Position from, ChessGame.Position to) {
+        if (!isActive() || pendingPromotion != null) return false;
+
+        ChessPiece piece = board.getPieceAt(from);
+        if (piece == null || piece.getColor() != sideToMove()) return false;
+        if (!board.movePiece(from, to)) return false;
+
+        for (Listener listener : listeners) {
+            listener.moveMade(this, from, to);
+        }
+
+        if (piece instanceof Pawn && (to.row == 0 || to.row == 7)) {
+            pendingPromotion = to;
+            for (Listener listener : listeners) {
+                listener.promotionRequired(this, to);
+            }
+            return true;
+        }
+
+        finishMove();
+        return true;
+    }
+
+    // Plays a ChessBoard move code, including its promotion piece
+    public synchronized boolean move(int move) {
+        if (!move(ChessBoard.moveFrom(move), ChessBoard.moveTo(move))) return false;
+
+        if (pendingPromotion != null) {
+            int promotionType = ChessBoard.movePromotion(move);
+            promote(promotionType != 0 ? promotionType : ChessBoard.QUEEN);
+        }
+        return true;
+    }
+
+    public synchronized void promote(int pieceType) {
+        if (pendingPromotion == null) return;
+        if (pieceType < ChessBoard.KNIGHT || pieceType > ChessBoard.QUEEN) {
+            throw new IllegalArgumentException("Cannot promote to piece type " + pieceType);
+        }
+
+        ChessGame.Position square = pendingPromotion;
+        ChessPiece piece = ChessBoard.createPiece(pieceType, board.getPieceAt(square).getColor());
+        pendingPromotion = null;
+        board.promotePawn(square, piece);
+
+        for (Listener listener : listeners) {
+            listener.pawnPromoted(this, square, piece);
+        }
+        finishMove();
+    }
+
+    // Jumps to a ply of the recorded game; the game resumes from there unless a flag has fallen
+    public synchronized void seek(int ply) {
+        int target = Math.max(0, Math.min(ply, board.getHistoryLength()));
+        if (target == board.getPly() && pendingPromotion == null) return;
+
+        if ((target - board.getPly()) % 2 != 0) {
+            whiteToMove = !whiteToMove;
+        }
+        board.seek(target);
+        pendingPromotion = null;
+
+        if (!clock.isFlagged(true) && !clock.isFlagged(false)) {
+            result = null;
+            resultReason = null;
+        }
+
+        for (Listener listener : listeners) {
+            listener.positionChanged(this);
+        }
+
+        if (isActive()) {
+            startClock();
+            checkGameEnd();
+        }
+        countActive();
+    }
+
+    public synchronized void resign(ChessPiece.Color color) {
+        if (!isActive()) return;
+        boolean white = color == ChessPiece.Color.WHITE;
+        endGame(white ? Result.BLACK_WINS : Result.WHITE_WINS,
+            (white ? "White" : "Black") + " resigns. " + (white ? "Black" : "White") + " wins.");
+    }
+
+    // Replaces the clock, e.g. when the time control changes mid-game
+    public synchronized void setTimeControl(TimeControl timeControl) {
+        boolean running = clock.isRunning();
+        clock.stop();
+        clock = new GameClock(timeControl);
+        if (running) {
+            clock.start(whiteToMove);
+        }
+        fireClockChanged();
+    }
+
+    public synchronized ChessGame.GameState snapshot() {
+        // A copy, so the state can be written out on another thread while play goes on
+        return new ChessGame.GameState(board.copy(), whiteToMove, clock.snapshot());
+    }
+
+    private void finishMove() {
+        whiteToMove = !whiteToMove;
+        clock.switchTurn();
+        fireClockChanged();
+        checkGameEnd();
+        if (!clockEvents && isActive()) {
+            scheduleFlagCheck(false);
+        }
+    }
+
+    private void checkGameEnd() {
+        ChessEvents.GameEndCheck event = ChessEvents.GAME_END_CHECK.isEnabled() ? new ChessEvents.GameEndCheck() : null;
+        if (event != null) event.begin();
+        // Only the side to move can be mated, stalemated or in check
+        ChessPiece.Color toMove = sideToMove();
+        boolean hasMove = board.playerHasLegalMoves(toMove);
+        boolean inCheck = board.isKingInCheck(toMove);
+        String opponent = whiteToMove ? "Black" : "White";
+
+        if (!hasMove) {
+            if (inCheck) {
+                endGame(whiteToMove ? Result.BLACK_WINS : Result.WHITE_WINS, "Checkmate! " + opponent + " wins.");
+            } else {
+                endGame(Result.DRAW, "Stalemate! The game is a draw.");
+            }
+        } else if (board.isThreefoldRepetition()) {
+            endGame(Result.DRAW, "Draw by threefold repetition.");
+        } else if (board.isFiftyMoveRule()) {
+            endGame(Result.DRAW, "Draw by the fifty-move rule.");
+        } else if (board.isInsufficientMaterial()) {
+            endGame(Result.DRAW, "Draw by insufficient material.");
+        } else if (inCheck) {
+            for (Listener listener : listeners) {
+                listener.check(this, toMove);
+            }
+        }
+
+        if (event != null && event.shouldCommit()) {
+            event.positionHash = board.getPositionHash();
+            event.ply = board.getPly();
+            event.legalMoves = board.getAllLegalMoves(toMove).length;
+            event.inCheck = inCheck;
+            event.outcome = result == null ? null : resultReason;
+            event.commit();
+        }
+    }
+
+    private void endGame(Result result, String reason) {
+        this.result = result;
+        this.resultReason = reason;
+        stopClock();
+        countActive();
+        for (Listener listener : listeners) {
+            listener.gameOver(this, result, reason);
+        }
+    }
+
+    private void countActive() {
+        boolean active = isActive();
+        if (active != countedActive) {
+            countedActive = active;
+            ACTIVE_GAMES.add(active ? 1 : -1);
+        }
+    }
+
+    private void startClock() {
+        if (clockTick != null) clockTick.cancel(false);
+        clockTick = null;
+        clock.start(whiteToMove);
+        if (clockEvents) {
+            clockTick = ClockScheduler.schedule(this::tick);
+        } else {
+            scheduleFlagCheck(true);
+        }
+    }
+
+    // Arms a one-shot check for when the side to move runs out. A pending check that is due
+    // sooner is kept and simply re-arms itself, so most moves schedule nothing.
+    private void scheduleFlagCheck(boolean replace) {
+        long due = System.nanoTime() + (clock.getRemainingMillis(whiteToMove) + 1) * 1_000_000L;
+        if (clockTick != null && !clockTick.isDone()) {
+            if (!replace && flagCheckDue - due <= 0) return;
+            clockTick.cancel(false);
+        }
+        flagCheckDue = due;
+        clockTick = ClockScheduler.runLater(this::tick, due - System.nanoTime());
+    }
+
+    private void stopClock() {
+        if (clockTick != null) clockTick.cancel(false);
+        clockTick = null;
+        clock.stop();
+    }
+
+    // Runs on the shared clock thread
+    private synchronized void tick() {
+        if (!isActive()) return;
+
+        if (clock.isFlagged(whiteToMove)) {
+            String side = whiteToMove ? "White" : "Black";
+            String opponent = whiteToMove ? "Black" : "White";
+            // A one-shot check is not re-armed, so a failing listener must not keep the game going
+            try {
+                fireClockChanged();
+            } finally {
+                endGame(whiteToMove ? Result.BLACK_WINS : Result.WHITE_WINS,
+                    side + "'s time has expired. " + opponent + " wins!");
+            }
+            return;
+        }
+
+        if (!clockEvents) {
+            scheduleFlagCheck(true);
+            return;
+        }
+
+        long tenths = clock.getRemainingMillis(whiteToMove) / 100;
+        if (tenths != lastTickTenths) {
+            lastTickTenths = tenths;
+            fireClockChanged();
+        }
+    }
+
+    private void fireClockChanged() {
+        long white = clock.getRemainingMillis(true);
+        long black = clock.getRemainingMillis(false);
+        for (Listener listener : listeners) {
+            listener.clockChanged(this, white, black);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+// Pre-rendered board tiles: every piece glyph (and the empty square) on every square background,
+// laid out in one image per square size and colour theme. Drawing a square is a single image copy.
+class GlyphAtlas {
+    static final int LIGHT = 0;
+    static final int DARK = 1;
+    static final int SELECTED = 2;
+    static final int LEGAL_MOVE = 3;
+
+    static final Color SELECTED_COLOR = new Color(173, 216, 230); // Light blue
+    static final Color LEGAL_MOVE_COLOR = new Color(144, 238, 144); // Light green
+
+    // Board colour themes offered in the Options menu and by the diagram renderer
+    enum Theme {
+        DEFAULT("Default", new Color(240, 217, 183), new Color(180, 136, 99)),
+        BLUE("Blue Theme", new Color(220, 230, 245), new Color(75, 115, 153)),
+        GREEN("Green Theme", new Color(235, 240, 208), new Color(118, 150, 86));
+
+        final String label;
+        final Color light;
+        final Color dark;
+
+        Theme(String label, Color light, Color dark) {
+            this.label = label;
+            this.light = light;
+            this.dark = dark;
+        }
+    }
+
+    // Piece codes are ChessBoard piece types, plus 8 for black; 0 is an empty square
+    private static final int CODES = 16;
+
+    private final int squareSize;
+    private final Color lightColor;
+    private final Color darkColor;
+    private final BufferedImage image;
+
+    GlyphAtlas(int squareSize, Color lightColor, Color darkColor) {
+        this.squareSize = squareSize;
+        this.lightColor = lightColor;
+        this.darkColor = darkColor;
+        this.image = new BufferedImage(CODES * squareSize, 4 * squareSize, BufferedImage.TYPE_INT_RGB);
+        render();
+    }
+
+    // True if this atlas was built for the given size and theme
+    boolean matches(int squareSize, Color lightColor, Color darkColor) {
+        return this.squareSize == squareSize && this.lightColor.equals(lightColor) && this.darkColor.equals(darkColor);
+    }
+
+    int getSquareSize() {
+        return squareSize;
+    }
+
+    static int pieceCode(ChessPiece piece) {
+        if (piece == null) return 0;
+        return ChessBoard.pieceType(piece) | (piece.getColor() == ChessPiece.Color.BLACK ? 8 : 0);
+    }
+
+    // Piece codes of all 64 squares, row by row from the top of the board
+    static int[] pieceCodes(ChessBoard board) {
+        int[] codes = new int[64];
+        for (int square = 0; square < 64; square++) {
+            codes[square] = pieceCode(board.getPieceAt(square / 8, square % 8));
+        }
+        return codes;
+    }
+
+    void drawTile(Graphics g, int x, int y, int pieceCode, int background) {
+        int sx = pieceCode * squareSize;
+        int sy = background * squareSize;
+        g.drawImage(image, x, y, x + squareSize, y + squareSize, sx, sy, sx + squareSize, sy + squareSize, null);
+    }
+
+    static final Color ARROW_COLOR = new Color(30, 110, 200);
+
+    // Draws a move as an arrow between square centres on a board with the given square size
+    static void drawArrow(Graphics2D g, int move, int size, int alpha) {
+        Object antialiasing = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(ARROW_COLOR.getRed(), ARROW_COLOR.getGreen(), ARROW_COLOR.getBlue(), alpha));
+        g.fill(arrowShape(move, size));
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+    }
+
+    // The outline of a move arrow: a round-capped shaft and a triangular head, as one shape so
+    // translucent fills do not darken where they overlap
+    static Shape arrowShape(int move, int size) {
+        ChessGame.Position from = ChessBoard.moveFrom(move);
+        ChessGame.Position to = ChessBoard.moveTo(move);
+        double x1 = (from.col + 0.5) * size;
+        double y1 = (from.row + 0.5) * size;
+        double x2 = (to.col + 0.5) * size;
+        double y2 = (to.row + 0.5) * size;
+        double angle = Math.atan2(y2 - y1, x2 - x1);
+        double head = size * 0.35;
+
+        Stroke stroke = new BasicStroke(size / 8f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        Area arrow = new Area(stroke.createStrokedShape(
+            new Line2D.Double(x1, y1, x2 - Math.cos(angle) * head * 0.8, y2 - Math.sin(angle) * head * 0.8)));
+
+        Path2D.Double tip = new Path2D.Double();
+        tip.moveTo(x2, y2);
+        tip.lineTo(x2 - head * Math.cos(angle - 0.45), y2 - head * Math.sin(angle - 0.45));
+        tip.lineTo(x2 - head * Math.cos(angle + 0.45), y2 - head * Math.sin(angle + 0.45));
+        tip.closePath();
+        arrow.add(new Area(tip));
+        return arrow;
+    }
+
+    // The colour of one pixel of a tile, for encoders that index the atlas themselves
+    int tilePixel(int pieceCode, int background, int x, int y) {
+        return image.getRGB(pieceCode * squareSize + x, background * squareSize + y) & 0xFFFFFF;
+    }
+
+    private void render() {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(new Font("Serif", Font.BOLD, squareSize * 2 / 3));
+            FontMetrics metrics = g.getFontMetrics();
+            Color[] backgrounds = {lightColor, darkColor, SELECTED_COLOR, LEGAL_MOVE_COLOR};
+
+            for (int background = 0; background < backgrounds.length; background++) {
+                int y = background * squareSize;
+                g.setColor(backgrounds[background]);
+                g.fillRect(0, y, CODES * squareSize, squareSize);
+
+                for (int code = 1; code < CODES; code++) {
+                    int type = code & 7;
+                    if (type == 0 || type > ChessBoard.KING) continue;
+
+                    ChessPiece.Color color = (code & 8) != 0 ? ChessPiece.Color.BLACK : ChessPiece.Color.WHITE;
+                    String symbol = ChessBoard.createPiece(type, color).getSymbol();
+                    int x = code * squareSize + (squareSize - metrics.stringWidth(symbol)) / 2;
+                    int baseline = y + (squareSize - metrics.getHeight()) / 2 + metrics.getAscent();
+
+                    g.setColor(color == ChessPiece.Color.WHITE ? Color.WHITE : Color.BLACK);
+                    g.drawString(symbol, x, baseline);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+}
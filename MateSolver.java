@@ -0,0 +1,458 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Mate-in-N puzzles solved by depth-first proof-number search (df-pn). Instead of searching every
+// line to full depth, the search always expands the node that is cheapest to settle: the attacker
+// needs one move that mates, the defender one reply that escapes, and proof and disproof numbers
+// count how many unsettled leaves stand in the way of each. Forcing lines with few replies are
+// followed deep long before quiet moves are looked at, which is what makes mates in eight and
+// more reachable.
+//
+// Positions are played with FastRules; a found line is replayed on ChessBoard and must end in
+// checkmate there, so the reference rules have the last word. Proof and disproof numbers live in
+// a fixed-size table keyed by position and remaining depth; when a bucket is full the entry whose
+// subtree took the least work is evicted, so memory stays bounded and the search only loses
+// cheap work it can redo.
+//
+// A puzzle file has one position per line, FEN or EPD, with the depth taken from an EPD "dm"
+// operation or --mate. Puzzles are solved in parallel, one per thread, and printed in input order.
+//
+// Usage: java MateSolver --fen FEN [--mate N] [--chess960 true] [--hash MB] [--nodes N]
+//        java MateSolver --file puzzles.epd [--mate N] [--threads N] [--hash MB] [--nodes N]
+public class MateSolver {
+    // Proof and disproof numbers are capped here; a number at the cap means settled
+    static final int INFINITY = 1 << 28;
+    private static final int MAX_MATE = 60;
+    private static final long[] DEPTH_KEYS = new long[2 * MAX_MATE];
+
+    static {
+        SplittableRandom random = new SplittableRandom(50);
+        for (int i = 0; i < DEPTH_KEYS.length; i++) DEPTH_KEYS[i] = random.nextLong();
+    }
+
+    enum Status { MATE, NO_MATE, UNKNOWN }
+
+    static final class Result {
+        final Status status;
+        final String line; // the forced line in SAN when mated, otherwise empty
+        final int moves; // attacker moves in the line
+        final long nodes;
+        final long evictions;
+        final long nanos;
+
+        Result(Status status, String line, int moves, long nodes, long evictions, long nanos) {
+            this.status = status;
+            this.line = line;
+            this.moves = moves;
+            this.nodes = nodes;
+            this.evictions = evictions;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            String outcome = status == Status.MATE ? "mate in " + moves + ": " + line
+                : status == Status.NO_MATE ? "no mate" : "unknown, node limit reached";
+            return String.format("%s (%d nodes, %.2f s, %d evicted)", outcome, nodes, nanos / 1e9, evictions);
+        }
+    }
+
+    // Bounded proof table in buckets of four slots. The side to move is in the position key and
+    // the remaining depth is XORed in by the caller, so the search graph has no cycles.
+    static final class Table {
+        private static final int BUCKET = 4;
+        private static final int ENTRY_BYTES = 20;
+
+        private final long[] keys;
+        private final int[] phis;
+        private final int[] deltas;
+        private final int[] works; // nodes spent under the entry, saturating
+        private final int bucketMask;
+        long evictions;
+
+        Table(int megabytes) {
+            int entries = Integer.highestOneBit((int) Math.min(1 << 28, Math.max(BUCKET, ((long) megabytes << 20) / ENTRY_BYTES)));
+            keys = new long[entries];
+            phis = new int[entries];
+            deltas = new int[entries];
+            works = new int[entries];
+            bucketMask = entries / BUCKET - 1;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0);
+            Arrays.fill(works, 0);
+            evictions = 0;
+        }
+
+        // The slot holding the key, or -1
+        int find(long key) {
+            int first = ((int) key & bucketMask) * BUCKET;
+            for (int slot = first; slot < first + BUCKET; slot++) {
+                if (keys[slot] == key && works[slot] != 0) return slot;
+            }
+            return -1;
+        }
+
+        int phi(int slot) {
+            return phis[slot];
+        }
+
+        int delta(int slot) {
+            return deltas[slot];
+        }
+
+        int work(int slot) {
+            return works[slot];
+        }
+
+        // Updates the key's slot, or takes an empty one, or evicts the cheapest entry
+        void store(long key, int phi, int delta, long work) {
+            int first = ((int) key & bucketMask) * BUCKET;
+            int victim = first;
+            for (int slot = first; slot < first + BUCKET; slot++) {
+                if (works[slot] == 0 || keys[slot] == key) {
+                    victim = slot;
+                    break;
+                }
+                if (works[slot] < works[victim]) victim = slot;
+            }
+            if (works[victim] != 0 && keys[victim] != key) evictions++;
+            keys[victim] = key;
+            phis[victim] = phi;
+            deltas[victim] = delta;
+            works[victim] = (int) Math.max(1, Math.min(Integer.MAX_VALUE, work));
+        }
+    }
+
+    private final Table table;
+    private final long nodeLimit;
+    private final int[][] moveBuffers = new int[2 * MAX_MATE][FastRules.MAX_MOVES];
+    private final long[][] keyBuffers = new long[2 * MAX_MATE][FastRules.MAX_MOVES];
+    private final int[][] initialPhiBuffers = new int[2 * MAX_MATE][FastRules.MAX_MOVES];
+    private final int[][] initialDeltaBuffers = new int[2 * MAX_MATE][FastRules.MAX_MOVES];
+    private FastRules rules;
+    private long nodes;
+
+    MateSolver(int hashMegabytes, long nodeLimit) {
+        this.table = new Table(hashMegabytes);
+        this.nodeLimit = nodeLimit;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int mate = Integer.parseInt(options.getOrDefault("mate", "3"));
+        boolean chess960 = Boolean.parseBoolean(options.getOrDefault("chess960", "false"));
+        int hash = Integer.parseInt(options.getOrDefault("hash", "64"));
+        long nodeLimit = Long.parseLong(options.getOrDefault("nodes", "20000000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        if (options.containsKey("fen")) {
+            Result result = new MateSolver(hash, nodeLimit).solve(Fen.parse(options.get("fen"), chess960), mate);
+            System.out.println(result);
+            return;
+        }
+        if (!options.containsKey("file")) {
+            System.err.println("Usage: java MateSolver --fen FEN [--mate N] | --file puzzles.epd [--threads N] [--hash MB] [--nodes N]");
+            System.exit(2);
+        }
+
+        // Every thread keeps its own table; shrink them rather than run out of heap
+        long budget = Runtime.getRuntime().maxMemory() / 2 >> 20;
+        if ((long) hash * threads > budget) {
+            hash = (int) Math.max(1, budget / threads);
+            System.err.println("Tables reduced to " + hash + " MB per thread to fit the heap");
+        }
+        int tableMegabytes = hash;
+        ThreadLocal<MateSolver> solvers = ThreadLocal.withInitial(() -> new MateSolver(tableMegabytes, nodeLimit));
+
+        List<String> lines = Files.readAllLines(Paths.get(options.get("file")), StandardCharsets.UTF_8);
+        List<String> names = new ArrayList<>();
+        List<Future<Result>> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                Puzzle puzzle = Puzzle.parse(line, i + 1, mate);
+                names.add(puzzle.name);
+                results.add(pool.submit(() -> solvers.get().solve(Fen.parse(puzzle.fen, chess960), puzzle.mate)));
+            }
+
+            int[] counts = new int[Status.values().length];
+            long totalNodes = 0;
+            for (int i = 0; i < results.size(); i++) {
+                Result result;
+                try {
+                    result = results.get(i).get();
+                } catch (ExecutionException e) {
+                    // A position Fen rejects, or a proof ChessBoard does not accept
+                    System.out.println(names.get(i) + ": " + e.getCause().getMessage());
+                    continue;
+                }
+                System.out.println(names.get(i) + ": " + result);
+                counts[result.status.ordinal()]++;
+                totalNodes += result.nodes;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d puzzles in %.1f s on %d threads: %d mates, %d without mate, %d unknown, %.0f nodes/s%n",
+                results.size(), seconds, threads, counts[Status.MATE.ordinal()], counts[Status.NO_MATE.ordinal()],
+                counts[Status.UNKNOWN.ordinal()], totalNodes / seconds);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // One line of a puzzle file: the position, then any EPD operations such as dm 5; id "name";
+    private static final class Puzzle {
+        final String name;
+        final String fen;
+        final int mate;
+
+        private Puzzle(String name, String fen, int mate) {
+            this.name = name;
+            this.fen = fen;
+            this.mate = mate;
+        }
+
+        static Puzzle parse(String line, int lineNumber, int defaultMate) {
+            String[] fields = line.split("\\s+");
+            int positionFields = Math.min(4, fields.length);
+            // FEN carries the two move counters where EPD has its operations
+            if (fields.length >= 6 && fields[4].matches("\\d+") && fields[5].matches("\\d+")) {
+                positionFields = 6;
+            }
+            String fen = String.join(" ", Arrays.copyOf(fields, positionFields));
+            String operations = String.join(" ", Arrays.copyOfRange(fields, positionFields, fields.length));
+
+            int mate = defaultMate;
+            String name = "line " + lineNumber;
+            for (String operation : operations.split(";")) {
+                String[] parts = operation.trim().split("\\s+", 2);
+                if (parts.length < 2) continue;
+                if (parts[0].equals("dm")) mate = Integer.parseInt(parts[1].trim());
+                if (parts[0].equals("id")) name = parts[1].trim().replace("\"", "");
+            }
+            return new Puzzle(name, fen, mate);
+        }
+    }
+
+    // Proves or refutes a mate in at most the given number of moves by the side to move
+    Result solve(Fen.Setup setup, int mate) {
+        if (mate < 1 || mate > MAX_MATE) {
+            throw new IllegalArgumentException("Mate depth must be 1 to " + MAX_MATE + ": " + mate);
+        }
+        long start = System.nanoTime();
+        table.clear();
+        nodes = 0;
+        rules = new FastRules(setup.board, setup.toMove);
+        int plies = 2 * mate - 1;
+
+        long root = mid(plies, INFINITY, INFINITY);
+        Status status = phi(root) == 0 ? Status.MATE : delta(root) == 0 ? Status.NO_MATE : Status.UNKNOWN;
+        String line = "";
+        int moves = 0;
+        if (status == Status.MATE) {
+            int[] proof = provenLine(plies);
+            if (proof == null) {
+                // The line's proof was evicted and could not be redone within the node limit
+                status = Status.UNKNOWN;
+            } else {
+                line = replay(setup, proof);
+                moves = (proof.length + 1) / 2;
+            }
+        }
+        return new Result(status, line, moves, nodes, table.evictions, System.nanoTime() - start);
+    }
+
+    // Searches the current position until its phi reaches phiThreshold or its delta reaches
+    // deltaThreshold, and returns both packed as phi << 32 | delta. Phi is the proof number at
+    // the attacker's turn and the disproof number at the defender's, so phi 0 means the side to
+    // move wins and delta 0 that it loses; the attacker has the move when plies is odd.
+    private long mid(int plies, int phiThreshold, int deltaThreshold) {
+        nodes++;
+        long key = rules.key() ^ DEPTH_KEYS[plies];
+        int[] moves = moveBuffers[plies];
+        int count = rules.generate(moves);
+        boolean attacker = plies % 2 == 1;
+        if (count == 0 || plies == 0) {
+            // Checkmated loses, and so does an attacker out of moves or depth; a stalemated
+            // defender, or one still on its feet when the depth runs out, wins
+            boolean loses = count == 0 && (attacker || rules.inCheck());
+            int phi = loses ? INFINITY : 0;
+            int delta = loses ? 0 : INFINITY;
+            table.store(key, phi, delta, 1);
+            return pack(phi, delta);
+        }
+
+        // Children not in the table start at phi 1, delta 1, except after the attacker's moves:
+        // there the defender's reply count is the proof number, so moves that leave few replies
+        // are tried first, and mate, stalemate and the last ply are settled without a search
+        long[] childKeys = keyBuffers[plies];
+        int[] initialPhis = initialPhiBuffers[plies];
+        int[] initialDeltas = initialDeltaBuffers[plies];
+        for (int i = 0; i < count; i++) {
+            rules.makeMove(moves[i]);
+            childKeys[i] = rules.key() ^ DEPTH_KEYS[plies - 1];
+            initialPhis[i] = 1;
+            initialDeltas[i] = 1;
+            if (attacker) {
+                int replies = rules.generate(moveBuffers[plies - 1]);
+                boolean mated = replies == 0 && rules.inCheck();
+                if (replies == 0 || plies == 1) {
+                    initialPhis[i] = mated ? INFINITY : 0;
+                    initialDeltas[i] = mated ? 0 : INFINITY;
+                } else {
+                    initialDeltas[i] = replies;
+                }
+            }
+            rules.undoMove();
+        }
+
+        long startNodes = nodes;
+        int phi;
+        int delta;
+        while (true) {
+            // The side to move needs one child lost for the opponent, and fails only if all are won
+            phi = INFINITY;
+            delta = 0;
+            int best = 0;
+            int bestPhi = 0;
+            int secondDelta = INFINITY;
+            for (int i = 0; i < count; i++) {
+                int slot = table.find(childKeys[i]);
+                int childPhi = slot < 0 ? initialPhis[i] : table.phi(slot);
+                int childDelta = slot < 0 ? initialDeltas[i] : table.delta(slot);
+                if (childDelta < phi) {
+                    secondDelta = phi;
+                    phi = childDelta;
+                    best = i;
+                    bestPhi = childPhi;
+                } else if (childDelta < secondDelta) {
+                    secondDelta = childDelta;
+                }
+                delta = Math.min(INFINITY, delta + childPhi);
+            }
+            if (phi >= phiThreshold || delta >= deltaThreshold || nodes >= nodeLimit) break;
+
+            // Search the most promising child until it stops being the most promising or the
+            // parent would reach a threshold. Letting it run a quarter past the second best
+            // (the 1 + epsilon rule) saves switching back and forth between near-equal children.
+            int childPhiThreshold = (int) Math.min(INFINITY, (long) deltaThreshold - delta + bestPhi);
+            int childDeltaThreshold = Math.min(phiThreshold, secondDelta + (secondDelta >> 2) + 1);
+            rules.makeMove(moves[best]);
+            mid(plies - 1, childPhiThreshold, childDeltaThreshold);
+            rules.undoMove();
+        }
+        table.store(key, phi, delta, nodes - startNodes);
+        return pack(phi, delta);
+    }
+
+    // The moves of a proven mate from the current position, or null if a proof that was evicted
+    // cannot be redone within the node limit. The attacker plays the move whose proof was
+    // cheapest and the defender the reply whose proof was dearest, which makes for the shortest
+    // mates against the most stubborn defence the table knows of.
+    private int[] provenLine(int plies) {
+        int[] line = new int[plies];
+        int length = 0;
+        int[] moves = new int[FastRules.MAX_MOVES];
+        try {
+            while (true) {
+                int count = rules.generate(moves);
+                if (count == 0) return Arrays.copyOf(line, length);
+                if (plies == 0) throw new IllegalStateException("Proven line ends without mate");
+                boolean attacker = plies % 2 == 1;
+                int chosen = -1;
+                long chosenWork = 0;
+                for (int pass = 0; pass < 2 && chosen < 0; pass++) {
+                    for (int i = 0; i < count; i++) {
+                        rules.makeMove(moves[i]);
+                        int slot = table.find(rules.key() ^ DEPTH_KEYS[plies - 1]);
+                        // The proof holds after a move that leaves the defender lost, or a reply
+                        // that leaves the attacker winning
+                        boolean proven = slot >= 0 && (attacker ? table.delta(slot) : table.phi(slot)) == 0;
+                        if (!proven && (pass == 1 || !attacker)) {
+                            long child = mid(plies - 1, INFINITY, INFINITY);
+                            proven = (attacker ? delta(child) : phi(child)) == 0;
+                            slot = table.find(rules.key() ^ DEPTH_KEYS[plies - 1]);
+                        }
+                        rules.undoMove();
+                        if (!proven) {
+                            if (attacker) continue;
+                            return null;
+                        }
+                        long work = slot < 0 ? 0 : table.work(slot);
+                        if (chosen < 0 || (attacker ? work < chosenWork : work > chosenWork)) {
+                            chosen = i;
+                            chosenWork = work;
+                        }
+                        if (attacker && pass == 1) break;
+                    }
+                }
+                if (chosen < 0) return null;
+                rules.makeMove(moves[chosen]);
+                line[length++] = moves[chosen];
+                plies--;
+            }
+        } finally {
+            for (int i = 0; i < length; i++) rules.undoMove();
+        }
+    }
+
+    // Plays the line on ChessBoard in SAN; throws IllegalStateException unless it is legal there
+    // and ends in checkmate
+    private static String replay(Fen.Setup setup, int[] line) {
+        ChessBoard board = setup.board.copy();
+        ChessPiece.Color color = setup.toMove;
+        int moveNumber = setup.fullmoveNumber;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < line.length; i++) {
+            int[] legal = board.getAllLegalMoves(color).clone();
+            int played = line[i];
+            if (Arrays.stream(legal).noneMatch(move -> move == played)) {
+                throw new IllegalStateException("Proof plays " + Notation.coordinate(played) + ", illegal on ChessBoard");
+            }
+            if (color == ChessPiece.Color.WHITE) {
+                text.append(moveNumber).append(". ");
+            } else if (i == 0) {
+                text.append(moveNumber).append("... ");
+            }
+            text.append(Notation.toSan(board, line[i], legal, color)).append(' ');
+            board.makeMove(line[i]);
+            if (color == ChessPiece.Color.BLACK) moveNumber++;
+            color = color.opposite();
+        }
+        if (board.getAllLegalMoves(color).length != 0 || !board.isKingInCheck(color)) {
+            throw new IllegalStateException("Proof does not end in checkmate on ChessBoard: " + text.toString().trim());
+        }
+        return text.toString().trim();
+    }
+
+    private static long pack(int phi, int delta) {
+        return (long) phi << 32 | delta;
+    }
+
+    private static int phi(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int delta(long packed) {
+        return (int) packed;
+    }
+}
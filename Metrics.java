@@ -0,0 +1,357 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters, gauges and latency histograms for the rules, clocks, save/load and the UI. Recording
+// is a few uncontended adds on striped LongAdders, never a lock or an allocation, so it can stay
+// on in production; -Dchess.metrics=false turns every record call into a constant no-op.
+//
+// Recording needs no setup; export() publishes them as MBeans under "chess:" and, when
+// -Dchess.metrics.port is set, as plain text at http://localhost:port/metrics.
+final class Metrics {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("chess.metrics", "true"));
+
+    private static final Map<String, Metric> REGISTRY = new ConcurrentSkipListMap<>();
+    private static volatile MBeanServer exportedTo;
+
+    private Metrics() {
+    }
+
+    private abstract static class Metric {
+        final String name;
+        final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        abstract String type();
+
+        // Current values by attribute name, e.g. "Count" or "P99"
+        abstract Map<String, Number> values();
+
+        abstract void appendText(StringBuilder text);
+    }
+
+    static final class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name, String help) {
+            super(name, help);
+        }
+
+        void increment() {
+            if (ENABLED) count.increment();
+        }
+
+        void add(long amount) {
+            if (ENABLED) count.add(amount);
+        }
+
+        long get() {
+            return count.sum();
+        }
+
+        @Override
+        String type() {
+            return "Counter";
+        }
+
+        @Override
+        Map<String, Number> values() {
+            Map<String, Number> values = new LinkedHashMap<>();
+            values.put("Count", get());
+            return values;
+        }
+
+        @Override
+        void appendText(StringBuilder text) {
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(get()).append('\n');
+        }
+    }
+
+    static final class Gauge extends Metric {
+        private final LongSupplier value;
+
+        private Gauge(String name, String help, LongSupplier value) {
+            super(name, help);
+            this.value = value;
+        }
+
+        @Override
+        String type() {
+            return "Gauge";
+        }
+
+        @Override
+        Map<String, Number> values() {
+            Map<String, Number> values = new LinkedHashMap<>();
+            values.put("Value", value.getAsLong());
+            return values;
+        }
+
+        @Override
+        void appendText(StringBuilder text) {
+            text.append("# TYPE ").append(name).append(" gauge\n");
+            text.append(name).append(' ').append(value.getAsLong()).append('\n');
+        }
+    }
+
+    // Records non-negative values, typically nanoseconds or bytes, in HDR-style log-linear
+    // buckets: exact below 8, then 8 buckets per power of two, so any reported quantile is
+    // within 12.5% of the true value across the whole long range.
+    static final class Histogram extends Metric {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+        private static final String[] QUANTILE_NAMES = {"P50", "P90", "P99", "P999"};
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(String name, String help) {
+            super(name, help);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            if (!ENABLED) return;
+            if (value < 0) value = 0;
+            buckets[bucket(value)].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        // Records the time since startNanos, a System.nanoTime() reading
+        void recordSince(long startNanos) {
+            if (ENABLED) record(System.nanoTime() - startNanos);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+        }
+
+        // The largest value that falls in the bucket
+        static long bucketLimit(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            long low = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+            return low + (1L << shift) - 1;
+        }
+
+        // Counts and quantiles read from one pass over the buckets, so they agree with each other
+        // even while other threads record
+        @Override
+        Map<String, Number> values() {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            long total = sum.sum();
+            long largest = max.get();
+            Map<String, Number> values = new LinkedHashMap<>();
+            values.put("Count", count);
+            values.put("Sum", total);
+            values.put("Mean", count == 0 ? 0.0 : (double) total / count);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                // A bucket's upper end can lie above anything recorded in it
+                values.put(QUANTILE_NAMES[i], Math.min(largest, quantile(counts, count, QUANTILES[i])));
+            }
+            values.put("Max", largest);
+            return values;
+        }
+
+        private static long quantile(long[] counts, long count, double quantile) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return bucketLimit(i);
+            }
+            return bucketLimit(counts.length - 1);
+        }
+
+        @Override
+        String type() {
+            return "Histogram";
+        }
+
+        @Override
+        void appendText(StringBuilder text) {
+            Map<String, Number> values = values();
+            text.append("# TYPE ").append(name).append(" summary\n");
+            for (int i = 0; i < QUANTILES.length; i++) {
+                text.append(name).append("{quantile=\"").append(QUANTILES[i]).append("\"} ")
+                    .append(values.get(QUANTILE_NAMES[i])).append('\n');
+            }
+            text.append(name).append("_count ").append(values.get("Count")).append('\n');
+            text.append(name).append("_sum ").append(values.get("Sum")).append('\n');
+            text.append(name).append("_max ").append(values.get("Max")).append('\n');
+        }
+    }
+
+    static Counter counter(String name, String help) {
+        return register(new Counter(name, help));
+    }
+
+    static Gauge gauge(String name, String help, LongSupplier value) {
+        return register(new Gauge(name, help, value));
+    }
+
+    static Histogram histogram(String name, String help) {
+        return register(new Histogram(name, help));
+    }
+
+    private static <M extends Metric> M register(M metric) {
+        if (REGISTRY.putIfAbsent(metric.name, metric) != null) {
+            throw new IllegalArgumentException("Metric already registered: " + metric.name);
+        }
+        MBeanServer server = exportedTo;
+        if (server != null) registerMBean(server, metric);
+        return metric;
+    }
+
+    // Publishes every metric, including those registered later, on the platform MBean server,
+    // and starts the text endpoint if -Dchess.metrics.port is set. Safe to call more than once.
+    static synchronized void export() {
+        if (exportedTo != null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        exportedTo = server;
+        for (Metric metric : REGISTRY.values()) {
+            registerMBean(server, metric);
+        }
+
+        String port = System.getProperty("chess.metrics.port");
+        if (port != null) {
+            try {
+                serveText(Integer.parseInt(port));
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Metrics endpoint not started: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void registerMBean(MBeanServer server, Metric metric) {
+        try {
+            ObjectName name = new ObjectName("chess:type=" + metric.type() + ",name=" + metric.name);
+            if (!server.isRegistered(name)) server.registerMBean(new MetricMBean(metric), name);
+        } catch (JMException e) {
+            System.err.println("Metric " + metric.name + " not published: " + e.getMessage());
+        }
+    }
+
+    // Every metric in the text exposition format most scrapers read
+    static String text() {
+        StringBuilder text = new StringBuilder();
+        for (Metric metric : REGISTRY.values()) {
+            text.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            metric.appendText(text);
+        }
+        return text.toString();
+    }
+
+    private static void serveText(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = text().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // Threads inherit daemon status from their creator; started from a daemon thread, the
+        // server's own threads do not keep the JVM alive
+        Thread starter = new Thread(server::start, "metrics-http");
+        starter.setDaemon(true);
+        starter.start();
+    }
+
+    // Read-only attributes taken from the metric's current values
+    private static final class MetricMBean implements DynamicMBean {
+        private final Metric metric;
+
+        MetricMBean(Metric metric) {
+            this.metric = metric;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = metric.values().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = metric.values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = values.get(attribute);
+                if (value != null) list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            // No operations; the wrapped exception is what the MBean server reports for an unknown one
+            throw new ReflectionException(new NoSuchMethodException(actionName), "No operation " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> values = metric.values();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> value : values.entrySet()) {
+                String type = value.getValue() instanceof Double ? "double" : "long";
+                attributes[i++] = new MBeanAttributeInfo(value.getKey(), type, metric.help, true, false, false);
+            }
+            return new MBeanInfo(Metric.class.getName(), metric.help, attributes, null, null, null);
+        }
+    }
+}
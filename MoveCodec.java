@@ -0,0 +1,252 @@
+import java.io.ByteArrayOutputStream;
+
+// Archival move codec. Each move is stored as its index in ChessBoard.getAllLegalMoves, which fits
+// in one byte since no position has more than 218 legal moves. The optional entropy layer codes the
+// index bits with an adaptive binary range coder, so forced moves cost nothing and small move lists
+// cost only a few bits.
+class MoveCodec {
+    private static final int FLAG_ENTROPY = 1;
+    // The 75-move rule and fivefold repetition end every game within this many plies, which
+    // bounds the move count of entropy-coded data, where forced moves take no bits at all
+    private static final int MAX_GAME_PLIES = 17_697;
+
+    private MoveCodec() {
+    }
+
+    // Encodes moves played from the board's current position; the moves are played on the board
+    public static byte[] encode(ChessBoard board, ChessPiece.Color toMove, int[] moves, boolean entropy) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(moves.length + 4);
+        out.write(entropy ? FLAG_ENTROPY : 0);
+        writeVarInt(out, moves.length);
+
+        RangeEncoder encoder = entropy ? new RangeEncoder(out) : null;
+        IndexModel model = entropy ? new IndexModel() : null;
+        ChessPiece.Color color = toMove;
+
+        for (int move : moves) {
+            int[] legalMoves = board.getAllLegalMoves(color);
+            int index = indexOf(legalMoves, move);
+            if (index < 0) {
+                throw new IllegalArgumentException("Illegal move in game: " + move);
+            }
+
+            if (entropy) {
+                model.encode(encoder, index, legalMoves.length);
+            } else {
+                out.write(index);
+            }
+
+            board.makeMove(move);
+            color = color.opposite();
+        }
+
+        if (entropy) {
+            encoder.finish();
+        }
+        return out.toByteArray();
+    }
+
+    // Decodes a game encoded from the board's current position; the moves are played on the board.
+    // Truncated or corrupt data throws IllegalArgumentException.
+    public static int[] decode(ChessBoard board, ChessPiece.Color toMove, byte[] data) {
+        if (data.length == 0) {
+            throw new IllegalArgumentException("Empty game data");
+        }
+        int[] position = {0};
+        boolean entropy = (data[position[0]++] & FLAG_ENTROPY) != 0;
+        int count = readVarInt(data, position);
+        // Uncoded, every move takes one byte
+        int maxCount = entropy ? MAX_GAME_PLIES : data.length - position[0];
+        if (count > maxCount) {
+            throw new IllegalArgumentException("Corrupt game data: " + count + " moves in " + data.length + " bytes");
+        }
+
+        RangeDecoder decoder = entropy ? new RangeDecoder(data, position[0]) : null;
+        IndexModel model = entropy ? new IndexModel() : null;
+        ChessPiece.Color color = toMove;
+        int[] moves = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            int[] legalMoves = board.getAllLegalMoves(color);
+            if (legalMoves.length == 0) {
+                throw new IllegalArgumentException("Corrupt game data: move " + (i + 1) + " after the game has ended");
+            }
+            int index = entropy ? model.decode(decoder, legalMoves.length) : data[position[0]++] & 0xFF;
+            if (index >= legalMoves.length) {
+                throw new IllegalArgumentException("Corrupt game data at move " + (i + 1));
+            }
+
+            moves[i] = legalMoves[index];
+            board.makeMove(moves[i]);
+            color = color.opposite();
+        }
+
+        return moves;
+    }
+
+    private static int indexOf(int[] moves, int move) {
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] == move) return i;
+        }
+        return -1;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Reads a non-negative int of at most five bytes
+    private static int readVarInt(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (position[0] >= data.length || shift > 28) {
+                throw new IllegalArgumentException("Corrupt game data: bad move count");
+            }
+            b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (value < 0) {
+            throw new IllegalArgumentException("Corrupt game data: bad move count");
+        }
+        return value;
+    }
+
+    // Adaptive probabilities for the index bits, one bit tree per move list width
+    private static class IndexModel {
+        private final short[][] trees = new short[9][];
+
+        int width(int moveCount) {
+            return 32 - Integer.numberOfLeadingZeros(moveCount - 1);
+        }
+
+        short[] tree(int width) {
+            if (trees[width] == null) {
+                trees[width] = new short[1 << width];
+                java.util.Arrays.fill(trees[width], (short) RangeEncoder.PROBABILITY_INIT);
+            }
+            return trees[width];
+        }
+
+        void encode(RangeEncoder encoder, int index, int moveCount) {
+            int width = width(moveCount);
+            short[] tree = tree(width);
+            int node = 1;
+            for (int bit = width - 1; bit >= 0; bit--) {
+                int b = (index >>> bit) & 1;
+                encoder.encodeBit(tree, node, b);
+                node = (node << 1) | b;
+            }
+        }
+
+        int decode(RangeDecoder decoder, int moveCount) {
+            int width = width(moveCount);
+            short[] tree = tree(width);
+            int node = 1;
+            for (int bit = 0; bit < width; bit++) {
+                node = (node << 1) | decoder.decodeBit(tree, node);
+            }
+            return node - (1 << width);
+        }
+    }
+
+    // Binary range coder with 11-bit adaptive probabilities
+    private static class RangeEncoder {
+        static final int PROBABILITY_BITS = 11;
+        static final int PROBABILITY_INIT = 1 << (PROBABILITY_BITS - 1);
+        static final int MOVE_BITS = 5;
+
+        private final ByteArrayOutputStream out;
+        private long low = 0;
+        private int range = 0xFFFFFFFF;
+        private int cache = 0;
+        private long cacheSize = 1;
+
+        RangeEncoder(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void encodeBit(short[] probabilities, int index, int bit) {
+            int probability = probabilities[index];
+            int bound = (range >>> PROBABILITY_BITS) * probability;
+            if (bit == 0) {
+                range = bound;
+                probabilities[index] = (short) (probability + (((1 << PROBABILITY_BITS) - probability) >>> MOVE_BITS));
+            } else {
+                low += bound & 0xFFFFFFFFL;
+                range -= bound;
+                probabilities[index] = (short) (probability - (probability >>> MOVE_BITS));
+            }
+            while ((range & 0xFF000000) == 0) {
+                range <<= 8;
+                shiftLow();
+            }
+        }
+
+        void finish() {
+            for (int i = 0; i < 5; i++) {
+                shiftLow();
+            }
+        }
+
+        private void shiftLow() {
+            int high = (int) (low >>> 32);
+            if (high != 0 || low < 0xFF000000L) {
+                int temp = cache;
+                do {
+                    out.write(temp + high);
+                    temp = 0xFF;
+                } while (--cacheSize != 0);
+                cache = (int) (low >>> 24) & 0xFF;
+            }
+            cacheSize++;
+            low = (low & 0x00FFFFFFL) << 8;
+        }
+    }
+
+    private static class RangeDecoder {
+        private final byte[] data;
+        private int position;
+        private int range = 0xFFFFFFFF;
+        private int code = 0;
+
+        RangeDecoder(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+            for (int i = 0; i < 5; i++) {
+                code = (code << 8) | nextByte();
+            }
+        }
+
+        int decodeBit(short[] probabilities, int index) {
+            int probability = probabilities[index];
+            int bound = (range >>> RangeEncoder.PROBABILITY_BITS) * probability;
+            int bit;
+            if (Integer.compareUnsigned(code, bound) < 0) {
+                range = bound;
+                probabilities[index] = (short) (probability + (((1 << RangeEncoder.PROBABILITY_BITS) - probability) >>> RangeEncoder.MOVE_BITS));
+                bit = 0;
+            } else {
+                code -= bound;
+                range -= bound;
+                probabilities[index] = (short) (probability - (probability >>> RangeEncoder.MOVE_BITS));
+                bit = 1;
+            }
+            while ((range & 0xFF000000) == 0) {
+                range <<= 8;
+                code = (code << 8) | nextByte();
+            }
+            return bit;
+        }
+
+        private int nextByte() {
+            return position < data.length ? data[position++] & 0xFF : 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.*;
+import java.util.*;
+
+// Measures MoveCodec throughput and bytes per game against PGN movetext and the serialized
+// GameState used by Save Game. Usage: java MoveCodecBenchmark [games] [seed]
+public class MoveCodecBenchmark {
+    private static final int MAX_PLIES = 200;
+
+    public static void main(String[] args) throws IOException {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+
+        Random random = new Random(seed);
+        List<int[]> games = new ArrayList<>();
+        long pgnBytes = 0;
+        long stateBytes = 0;
+        long plies = 0;
+
+        for (int i = 0; i < gameCount; i++) {
+            ChessBoard board = new ChessBoard(false);
+            StringBuilder pgn = new StringBuilder("[Event \"?\"]\n[Result \"*\"]\n\n");
+            int[] moves = playRandomGame(board, random, pgn);
+            games.add(moves);
+            plies += moves.length;
+            pgnBytes += pgn.toString().getBytes("UTF-8").length;
+            stateBytes += serializedSize(new ChessGame.GameState(board, moves.length % 2 == 0, new GameClock(TimeControl.parse("10"))));
+        }
+
+        long indexBytes = 0;
+        long entropyBytes = 0;
+        List<byte[]> indexEncoded = new ArrayList<>();
+        List<byte[]> entropyEncoded = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int[] moves : games) {
+            byte[] data = MoveCodec.encode(new ChessBoard(false), ChessPiece.Color.WHITE, moves, false);
+            indexEncoded.add(data);
+            indexBytes += data.length;
+        }
+        long indexEncodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int[] moves : games) {
+            byte[] data = MoveCodec.encode(new ChessBoard(false), ChessPiece.Color.WHITE, moves, true);
+            entropyEncoded.add(data);
+            entropyBytes += data.length;
+        }
+        long entropyEncodeNanos = System.nanoTime() - start;
+
+        long indexDecodeNanos = timeDecode(games, indexEncoded);
+        long entropyDecodeNanos = timeDecode(games, entropyEncoded);
+
+        System.out.printf("Games: %d, plies: %d (%.1f per game)%n", gameCount, plies, (double) plies / gameCount);
+        System.out.printf("%-22s %12s %14s %14s%n", "Format", "bytes/game", "encode mv/s", "decode mv/s");
+        System.out.printf("%-22s %12.1f %14s %14s%n", "Serialized GameState", (double) stateBytes / gameCount, "-", "-");
+        System.out.printf("%-22s %12.1f %14s %14s%n", "PGN", (double) pgnBytes / gameCount, "-", "-");
+        System.out.printf("%-22s %12.1f %14.0f %14.0f%n", "Move index", (double) indexBytes / gameCount,
+            plies / (indexEncodeNanos / 1e9), plies / (indexDecodeNanos / 1e9));
+        System.out.printf("%-22s %12.1f %14.0f %14.0f%n", "Move index + entropy", (double) entropyBytes / gameCount,
+            plies / (entropyEncodeNanos / 1e9), plies / (entropyDecodeNanos / 1e9));
+    }
+
+    // Random legal games stand in for an archive; real games compress better under the entropy layer
+    private static int[] playRandomGame(ChessBoard board, Random random, StringBuilder pgn) {
+        int[] moves = new int[MAX_PLIES];
+        int count = 0;
+        ChessPiece.Color color = ChessPiece.Color.WHITE;
+
+        while (count < MAX_PLIES) {
+            int[] legalMoves = board.getAllLegalMoves(color);
+            if (legalMoves.length == 0) break;
+
+            int move = legalMoves[random.nextInt(legalMoves.length)];
+            if (count % 2 == 0) {
+                pgn.append(count / 2 + 1).append(". ");
+            }
+            pgn.append(Notation.toSan(board, move, legalMoves, color)).append(' ');
+
+            board.makeMove(move);
+            moves[count++] = move;
+            color = color.opposite();
+        }
+
+        pgn.append("*\n");
+        return Arrays.copyOf(moves, count);
+    }
+
+    private static long timeDecode(List<int[]> games, List<byte[]> encoded) {
+        long start = System.nanoTime();
+        for (int i = 0; i < games.size(); i++) {
+            int[] decoded = MoveCodec.decode(new ChessBoard(false), ChessPiece.Color.WHITE, encoded.get(i));
+            if (!Arrays.equals(decoded, games.get(i))) {
+                throw new IllegalStateException("Round trip failed for game " + (i + 1));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static int serializedSize(ChessGame.GameState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(state);
+        }
+        return bytes.size();
+    }
+}
@@ -0,0 +1,186 @@
+// Conversions between ChessBoard move codes and text notation
+class Notation {
+    private static final String PIECE_LETTERS = " PNBRQK";
+
+    private Notation() {
+    }
+
+    public static String squareName(ChessGame.Position position) {
+        return String.valueOf((char) ('a' + position.col)) + (char) ('8' - position.row);
+    }
+
+    // "e4" to a position; throws IllegalArgumentException for anything that is not a square
+    public static ChessGame.Position parseSquare(String name) {
+        if (name.length() != 2 || name.charAt(0) < 'a' || name.charAt(0) > 'h'
+                || name.charAt(1) < '1' || name.charAt(1) > '8') {
+            throw new IllegalArgumentException("Not a square: " + name);
+        }
+        return ChessGame.Position.of('8' - name.charAt(1), name.charAt(0) - 'a');
+    }
+
+    // Coordinate notation as used by UCI and the server protocol, e.g. "e2e4", "e7e8q". Castling
+    // is the king's move: two squares in standard chess, onto its own rook in Chess960.
+    public static String coordinate(int move) {
+        String text = squareName(ChessBoard.moveFrom(move)) + squareName(ChessBoard.moveTo(move));
+        int promotionType = ChessBoard.movePromotion(move);
+        return promotionType == 0 ? text : text + Character.toLowerCase(PIECE_LETTERS.charAt(promotionType));
+    }
+
+    // The move code for coordinate notation; throws IllegalArgumentException for malformed text.
+    // Whether the move is legal is up to the board.
+    public static int parseCoordinate(String text) {
+        if (text.length() != 4 && text.length() != 5) {
+            throw new IllegalArgumentException("Not a move: " + text);
+        }
+        ChessGame.Position from = parseSquare(text.substring(0, 2));
+        ChessGame.Position to = parseSquare(text.substring(2, 4));
+        int promotionType = 0;
+        if (text.length() == 5) {
+            promotionType = "nbrq".indexOf(text.charAt(4)) + ChessBoard.KNIGHT;
+            if (promotionType < ChessBoard.KNIGHT) {
+                throw new IllegalArgumentException("Not a promotion piece: " + text);
+            }
+        }
+        return ChessBoard.encodeMove(from, to, promotionType);
+    }
+
+    // Standard algebraic notation for a legal move of the given side, e.g. "Nbd7", "exd6", "e8=Q+"
+    public static String toSan(ChessBoard board, int move, int[] legalMoves, ChessPiece.Color color) {
+        ChessGame.Position from = ChessBoard.moveFrom(move);
+        ChessGame.Position to = ChessBoard.moveTo(move);
+        ChessPiece piece = board.getPieceAt(from);
+        int type = ChessBoard.pieceType(piece);
+
+        StringBuilder san = new StringBuilder();
+        ChessPiece target = board.getPieceAt(to);
+        boolean castling = type == ChessBoard.KING && (Math.abs(from.col - to.col) > 1
+            || (target instanceof Rook && target.getColor() == color));
+        if (castling) {
+            // Chess960 castling is encoded as the king taking its own rook
+            san.append(to.col > from.col ? "O-O" : "O-O-O");
+        } else {
+            boolean capture = board.getPieceAt(to) != null || (type == ChessBoard.PAWN && from.col != to.col);
+
+            if (type == ChessBoard.PAWN) {
+                if (capture) san.append((char) ('a' + from.col));
+            } else {
+                san.append(PIECE_LETTERS.charAt(type));
+
+                // Disambiguate between pieces of the same type that reach the same square
+                boolean ambiguous = false;
+                boolean sameFile = false;
+                boolean sameRank = false;
+                for (int other : legalMoves) {
+                    ChessGame.Position otherFrom = ChessBoard.moveFrom(other);
+                    if (other == move || !ChessBoard.moveTo(other).equals(to) || otherFrom.equals(from)) continue;
+                    if (ChessBoard.pieceType(board.getPieceAt(otherFrom)) != type) continue;
+
+                    ambiguous = true;
+                    sameFile |= otherFrom.col == from.col;
+                    sameRank |= otherFrom.row == from.row;
+                }
+                if (ambiguous) {
+                    if (!sameFile) {
+                        san.append((char) ('a' + from.col));
+                    } else if (!sameRank) {
+                        san.append((char) ('8' - from.row));
+                    } else {
+                        san.append(squareName(from));
+                    }
+                }
+            }
+
+            if (capture) san.append('x');
+            san.append(squareName(to));
+
+            int promotionType = ChessBoard.movePromotion(move);
+            if (promotionType != 0) {
+                san.append('=').append(PIECE_LETTERS.charAt(promotionType));
+            }
+        }
+
+        // Play the move to find check and mate, then take it back
+        ChessPiece.Color opponent = color.opposite();
+        board.makeMove(move);
+        if (board.isKingInCheck(opponent)) {
+            san.append(board.playerHasLegalMoves(opponent) ? '+' : '#');
+        }
+        board.undoMove();
+
+        return san.toString();
+    }
+
+    // The legal move a SAN token names, e.g. "Nbd7", "exd6", "e8=Q+", "O-O". Check marks and
+    // annotations are ignored. Throws IllegalArgumentException unless exactly one move matches.
+    public static int parseSan(ChessBoard board, String text, int[] legalMoves) {
+        String san = text;
+        while (!san.isEmpty() && "+#!?".indexOf(san.charAt(san.length() - 1)) >= 0) {
+            san = san.substring(0, san.length() - 1);
+        }
+
+        if (san.equals("O-O") || san.equals("0-0") || san.equals("O-O-O") || san.equals("0-0-0")) {
+            boolean kingside = san.length() == 3;
+            for (int move : legalMoves) {
+                ChessGame.Position from = ChessBoard.moveFrom(move);
+                ChessGame.Position to = ChessBoard.moveTo(move);
+                ChessPiece king = board.getPieceAt(from);
+                ChessPiece target = board.getPieceAt(to);
+                boolean castling = king instanceof King && (Math.abs(from.col - to.col) > 1
+                    || (target instanceof Rook && target.getColor() == king.getColor()));
+                if (castling && (to.col > from.col) == kingside) return move;
+            }
+            throw new IllegalArgumentException("Castling is not legal: " + text);
+        }
+
+        int promotionType = 0;
+        int equals = san.indexOf('=');
+        if (equals >= 0) {
+            promotionType = equals + 2 == san.length() ? PIECE_LETTERS.indexOf(Character.toUpperCase(san.charAt(equals + 1))) : -1;
+            san = san.substring(0, equals);
+        } else if (san.length() > 2 && Character.isLowerCase(san.charAt(0)) && "NBRQ".indexOf(san.charAt(san.length() - 1)) >= 0) {
+            // Some writers leave out the '=', as in "e8Q"
+            promotionType = PIECE_LETTERS.indexOf(san.charAt(san.length() - 1));
+            san = san.substring(0, san.length() - 1);
+        }
+        if (promotionType != 0 && (promotionType < ChessBoard.KNIGHT || promotionType > ChessBoard.QUEEN)) {
+            throw new IllegalArgumentException("Not a promotion piece: " + text);
+        }
+
+        int type = ChessBoard.PAWN;
+        if (!san.isEmpty() && "NBRQK".indexOf(san.charAt(0)) >= 0) {
+            type = PIECE_LETTERS.indexOf(san.charAt(0));
+            san = san.substring(1);
+        }
+        if (san.length() < 2) {
+            throw new IllegalArgumentException("Not a move: " + text);
+        }
+        ChessGame.Position to = parseSquare(san.substring(san.length() - 2));
+        String qualifier = san.substring(0, san.length() - 2).replace("x", "");
+
+        int found = -1;
+        for (int move : legalMoves) {
+            ChessGame.Position from = ChessBoard.moveFrom(move);
+            if (!ChessBoard.moveTo(move).equals(to) || ChessBoard.movePromotion(move) != promotionType) continue;
+            if (ChessBoard.pieceType(board.getPieceAt(from)) != type) continue;
+            if (!matchesQualifier(from, qualifier)) continue;
+            if (found >= 0) throw new IllegalArgumentException("Ambiguous move: " + text);
+            found = move;
+        }
+        if (found < 0) throw new IllegalArgumentException("Not a legal move: " + text);
+        return found;
+    }
+
+    // A SAN disambiguation: a file, a rank, or both
+    private static boolean matchesQualifier(ChessGame.Position from, String qualifier) {
+        for (char c : qualifier.toCharArray()) {
+            if (c >= 'a' && c <= 'h') {
+                if (from.col != c - 'a') return false;
+            } else if (c >= '1' && c <= '8') {
+                if (from.row != '8' - c) return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,321 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+// Deep perft: the first plies of the tree are split into fork-join tasks, one per move, and the
+// rest of each subtree is counted depth first on the thread that took it. Counts of subtrees
+// two plies or more deep are memoized in a table shared by all threads, keyed by position and
+// remaining depth, so transpositions are counted once. The run is repeated for each thread
+// count with an empty table, and each run reports nodes per second and its speed-up over the
+// first.
+//
+// FastRules counts by default; --rules board counts through ChessBoard's own move generation,
+// which is slower but validates the reference rules themselves.
+//
+// Usage: java ParallelPerft [--fen FEN] [--chess960 true] [--depth N] [--threads 1,2,4]
+//                           [--hash MB] [--split plies] [--rules fast|board] [--divide true]
+//                           [--expected N]
+public class ParallelPerft {
+    private static final long[] DEPTH_KEYS = new long[64];
+
+    static {
+        SplittableRandom random = new SplittableRandom(49);
+        for (int i = 0; i < DEPTH_KEYS.length; i++) DEPTH_KEYS[i] = random.nextLong();
+    }
+
+    // The two ways of counting, behind one interface
+    private interface Node {
+        // Legal moves of the side to move into moves; returns the count
+        int generate(int[] moves);
+
+        void make(int move);
+
+        void undo();
+
+        long key();
+
+        Node copy();
+    }
+
+    private static final class FastNode implements Node {
+        private final FastRules rules;
+
+        FastNode(FastRules rules) {
+            this.rules = rules;
+        }
+
+        @Override
+        public int generate(int[] moves) {
+            return rules.generate(moves);
+        }
+
+        @Override
+        public void make(int move) {
+            rules.makeMove(move);
+        }
+
+        @Override
+        public void undo() {
+            rules.undoMove();
+        }
+
+        @Override
+        public long key() {
+            return rules.key();
+        }
+
+        @Override
+        public Node copy() {
+            return new FastNode(rules.copy());
+        }
+    }
+
+    private static final class BoardNode implements Node {
+        private final ChessBoard board;
+        private ChessPiece.Color color;
+
+        BoardNode(ChessBoard board, ChessPiece.Color color) {
+            this.board = board;
+            this.color = color;
+        }
+
+        @Override
+        public int generate(int[] moves) {
+            int[] legal = board.getAllLegalMoves(color);
+            System.arraycopy(legal, 0, moves, 0, legal.length);
+            return legal.length;
+        }
+
+        @Override
+        public void make(int move) {
+            board.makeMove(move);
+            color = color.opposite();
+        }
+
+        @Override
+        public void undo() {
+            board.undoMove();
+            color = color.opposite();
+        }
+
+        @Override
+        public long key() {
+            return board.getPositionKey(color);
+        }
+
+        @Override
+        public Node copy() {
+            return new BoardNode(board.copy(), color);
+        }
+    }
+
+    // Subtree counts without locks: each slot holds the key XOR the count next to the count, so
+    // a slot torn by two threads writing at once fails the check and reads as a miss
+    static final class Table {
+        private final long[] checks;
+        private final long[] counts;
+        private final int mask;
+        final LongAdder probes = new LongAdder();
+        final LongAdder hits = new LongAdder();
+
+        Table(int megabytes) {
+            int entries = Integer.highestOneBit(Math.max(1, (int) Math.min(1 << 30, (long) megabytes << 20 >> 4)));
+            checks = new long[entries];
+            counts = new long[entries];
+            mask = entries - 1;
+        }
+
+        void clear() {
+            Arrays.fill(checks, 0);
+            Arrays.fill(counts, 0);
+            probes.reset();
+            hits.reset();
+        }
+
+        // The stored count, or -1
+        long probe(long key) {
+            probes.increment();
+            int index = (int) key & mask;
+            long count = counts[index];
+            if ((checks[index] ^ count) != key || count == 0) return -1;
+            hits.increment();
+            return count;
+        }
+
+        void store(long key, long count) {
+            int index = (int) key & mask;
+            counts[index] = count;
+            checks[index] = key ^ count;
+        }
+    }
+
+    private final Table table;
+    private final int splitDepth; // tasks are forked while at least this much depth remains
+    private final ThreadLocal<int[][]> buffers;
+
+    private ParallelPerft(Table table, int splitDepth, int depth) {
+        this.table = table;
+        this.splitDepth = splitDepth;
+        this.buffers = ThreadLocal.withInitial(() -> new int[depth + 1][FastRules.MAX_MOVES]);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        String fen = options.getOrDefault("fen", Fen.START);
+        boolean chess960 = Boolean.parseBoolean(options.getOrDefault("chess960", "false"));
+        int depth = Integer.parseInt(options.getOrDefault("depth", "6"));
+        int hash = Integer.parseInt(options.getOrDefault("hash", "256"));
+        int split = Integer.parseInt(options.getOrDefault("split", "2"));
+        boolean board = options.getOrDefault("rules", "fast").equals("board");
+        boolean divide = Boolean.parseBoolean(options.getOrDefault("divide", "false"));
+        long expected = Long.parseLong(options.getOrDefault("expected", "-1"));
+        List<Integer> threadCounts = threadCounts(options.get("threads"));
+
+        Fen.Setup setup = Fen.parse(fen, chess960);
+        System.out.printf("perft(%d) of %s with %s, %d MB table%n", depth, fen, board ? "ChessBoard" : "FastRules", hash);
+
+        Table table = new Table(hash);
+        long firstNanos = 0;
+        long firstNodes = -1;
+        for (int threads : threadCounts) {
+            table.clear();
+            Node root = board
+                ? new BoardNode(setup.board.copy(), setup.toMove)
+                : new FastNode(new FastRules(setup.board, setup.toMove));
+            ParallelPerft perft = new ParallelPerft(table, Math.max(2, depth - split + 1), depth);
+
+            int[] moves = new int[FastRules.MAX_MOVES];
+            int count = root.generate(moves);
+            List<Subtree> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Node child = root.copy();
+                child.make(moves[i]);
+                tasks.add(perft.new Subtree(child, depth - 1));
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long start = System.nanoTime();
+            long nodes;
+            try {
+                nodes = depth == 0 ? 1 : pool.submit(() -> {
+                    long sum = 0;
+                    for (Subtree task : ForkJoinTask.invokeAll(tasks)) {
+                        sum += task.join();
+                    }
+                    return sum;
+                }).join();
+            } finally {
+                pool.shutdown();
+            }
+            long nanos = System.nanoTime() - start;
+
+            if (divide && firstNodes < 0) {
+                for (int i = 0; i < count; i++) {
+                    System.out.printf("  %s: %d%n", Notation.coordinate(moves[i]), tasks.get(i).join());
+                }
+            }
+            if (firstNodes < 0) {
+                firstNodes = nodes;
+                firstNanos = nanos;
+            }
+            long probes = table.probes.sum();
+            System.out.printf("%3d threads: %d nodes in %.2f s, %.0f nodes/s, speed-up %.2f, table hits %.1f%%%n",
+                threads, nodes, nanos / 1e9, nodes / (nanos / 1e9), (double) firstNanos / nanos,
+                probes == 0 ? 0.0 : 100.0 * table.hits.sum() / probes);
+
+            if (nodes != firstNodes) {
+                throw new IllegalStateException("Count with " + threads + " threads differs: " + nodes + " against " + firstNodes);
+            }
+        }
+        if (expected >= 0 && firstNodes != expected) {
+            System.out.println("FAILED: expected " + expected);
+            System.exit(1);
+        }
+    }
+
+    // Counts one subtree, forking a task per move while the remaining depth allows
+    private final class Subtree extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+        private final int depth;
+
+        Subtree(Node node, int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (depth < splitDepth) {
+                return count(node, depth, buffers.get());
+            }
+            long key = node.key() ^ DEPTH_KEYS[depth];
+            long cached = table.probe(key);
+            if (cached >= 0) return cached;
+
+            int[] moves = new int[FastRules.MAX_MOVES];
+            int count = node.generate(moves);
+            List<Subtree> children = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Node child = node.copy();
+                child.make(moves[i]);
+                children.add(new Subtree(child, depth - 1));
+            }
+            long nodes = 0;
+            for (Subtree child : ForkJoinTask.invokeAll(children)) {
+                nodes += child.join();
+            }
+            table.store(key, nodes);
+            return nodes;
+        }
+    }
+
+    // Depth first on this thread, with bulk counting at the last ply
+    private long count(Node node, int depth, int[][] buffers) {
+        if (depth == 0) return 1;
+        if (depth == 1) return node.generate(buffers[1]);
+
+        long key = node.key() ^ DEPTH_KEYS[depth];
+        long cached = table.probe(key);
+        if (cached >= 0) return cached;
+
+        int[] moves = buffers[depth];
+        int count = node.generate(moves);
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            node.make(moves[i]);
+            nodes += count(node, depth - 1, buffers);
+            node.undo();
+        }
+        table.store(key, nodes);
+        return nodes;
+    }
+
+    // "1,2,4" as given, or by default 1, 2, 4, ... up to the number of cores
+    private static List<Integer> threadCounts(String option) {
+        List<Integer> counts = new ArrayList<>();
+        if (option != null) {
+            for (String count : option.split(",")) {
+                counts.add(Integer.parseInt(count.trim()));
+            }
+            return counts;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(cores);
+        return counts;
+    }
+}
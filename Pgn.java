@@ -0,0 +1,217 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Portable Game Notation: games read one at a time from a stream of any size, and written with
+// the tags in the order given. Only the main line is kept; comments, variations and NAGs are
+// skipped.
+final class Pgn {
+    private static final int LINE_WIDTH = 80;
+
+    static final class Game {
+        final Map<String, String> tags;
+        final List<String> moves; // SAN, as written
+        final String result;
+
+        Game(Map<String, String> tags, List<String> moves, String result) {
+            this.tags = Collections.unmodifiableMap(tags);
+            this.moves = Collections.unmodifiableList(moves);
+            this.result = result;
+        }
+
+        String tag(String name) {
+            return tags.getOrDefault(name, "?");
+        }
+
+        // The position the moves start from: the FEN tag if there is one, else the standard start
+        Fen.Setup startPosition() {
+            String fen = tags.get("FEN");
+            if (fen == null) {
+                return new Fen.Setup(new ChessBoard(false), ChessPiece.Color.WHITE, 1);
+            }
+            String variant = tags.getOrDefault("Variant", "").toLowerCase();
+            return Fen.parse(fen, variant.contains("960") || variant.contains("fischer"));
+        }
+
+        // Plays the moves on a board set up at the start position and returns their codes. Throws
+        // IllegalArgumentException at the first move that is not legal.
+        int[] replay(ChessBoard board, ChessPiece.Color toMove) {
+            int[] codes = new int[moves.size()];
+            ChessPiece.Color color = toMove;
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = Notation.parseSan(board, moves.get(i), board.getAllLegalMoves(color));
+                board.makeMove(codes[i]);
+                color = color.opposite();
+            }
+            return codes;
+        }
+    }
+
+    private Pgn() {
+    }
+
+    // Reads games in order; next() returns null at the end of the stream
+    static final class Reader implements Closeable {
+        private final java.io.Reader in;
+        private int lookahead = -2;
+
+        Reader(java.io.Reader in) {
+            this.in = in;
+        }
+
+        Game next() throws IOException {
+            Map<String, String> tags = new LinkedHashMap<>();
+            List<String> moves = new ArrayList<>();
+            StringBuilder token = new StringBuilder();
+            int variationDepth = 0;
+
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    return tags.isEmpty() && moves.isEmpty() ? null : new Game(tags, moves, "*");
+                }
+                if (Character.isWhitespace(c)) {
+                    read();
+                } else if (c == '[') {
+                    // A tag after moves starts the next game; this one had no result
+                    if (!moves.isEmpty()) return new Game(tags, moves, "*");
+                    readTag(tags);
+                } else if (c == '{') {
+                    skipUntil('}');
+                } else if (c == ';' || c == '%') {
+                    skipUntil('\n');
+                } else if (c == '(') {
+                    read();
+                    variationDepth++;
+                } else if (c == ')') {
+                    read();
+                    variationDepth = Math.max(0, variationDepth - 1);
+                } else {
+                    readToken(token);
+                    if (variationDepth > 0 || token.charAt(0) == '$') continue;
+
+                    String text = token.toString();
+                    if (text.equals("1-0") || text.equals("0-1") || text.equals("1/2-1/2") || text.equals("*")) {
+                        return new Game(tags, moves, text);
+                    }
+                    // Move numbers, "12." or "12...", may be written against the move
+                    int start = 0;
+                    while (start < text.length() && Character.isDigit(text.charAt(start))) start++;
+                    if (start < text.length() && text.charAt(start) == '.') {
+                        while (start < text.length() && text.charAt(start) == '.') start++;
+                    } else {
+                        start = 0; // "0-0" castling, not a move number
+                    }
+                    if (start < text.length()) moves.add(text.substring(start));
+                }
+            }
+        }
+
+        private void readTag(Map<String, String> tags) throws IOException {
+            read(); // '['
+            StringBuilder name = new StringBuilder();
+            StringBuilder value = new StringBuilder();
+            int c;
+            while ((c = read()) >= 0 && c != '"' && c != ']') {
+                if (!Character.isWhitespace(c)) name.append((char) c);
+            }
+            if (c == '"') {
+                while ((c = read()) >= 0 && c != '"') {
+                    if (c == '\\') c = read();
+                    if (c >= 0) value.append((char) c);
+                }
+                skipUntil(']');
+            }
+            if (name.length() > 0) tags.put(name.toString(), value.toString());
+        }
+
+        private void readToken(StringBuilder token) throws IOException {
+            token.setLength(0);
+            int c;
+            while ((c = peek()) >= 0 && !Character.isWhitespace(c) && "{}()[];".indexOf(c) < 0) {
+                token.append((char) read());
+            }
+        }
+
+        private void skipUntil(char end) throws IOException {
+            int c;
+            while ((c = read()) >= 0 && c != end) {
+                // skip
+            }
+        }
+
+        private int peek() throws IOException {
+            if (lookahead == -2) lookahead = in.read();
+            return lookahead;
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            lookahead = -2;
+            return c;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // A complete game record, ending with a blank line so records can be appended to one file
+    static String format(Map<String, String> tags, List<String> moves, ChessPiece.Color startColor,
+                         int startFullmove, String result) {
+        return format(tags, moves, null, startColor, startFullmove, result);
+    }
+
+    // As above, with a comment after each move; null comments, or a null list, add nothing
+    static String format(Map<String, String> tags, List<String> moves, List<String> comments,
+                         ChessPiece.Color startColor, int startFullmove, String result) {
+        StringBuilder pgn = new StringBuilder();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            String value = tag.getValue().replace("\\", "\\\\").replace("\"", "\\\"");
+            pgn.append('[').append(tag.getKey()).append(" \"").append(value).append("\"]\n");
+        }
+        pgn.append('\n');
+
+        StringBuilder line = new StringBuilder();
+        int fullmove = startFullmove;
+        boolean white = startColor == ChessPiece.Color.WHITE;
+        boolean afterComment = false;
+        for (int i = 0; i < moves.size(); i++) {
+            String text = moves.get(i);
+            if (white) {
+                text = fullmove + ". " + text;
+            } else if (i == 0 || afterComment) {
+                text = fullmove + "... " + text;
+            }
+            appendWrapped(pgn, line, text);
+
+            String comment = comments == null ? null : comments.get(i);
+            afterComment = comment != null;
+            if (afterComment) {
+                // Word by word, so long comments wrap like the moves
+                for (String word : ("{" + comment.replace("}", ")") + "}").split(" ")) {
+                    appendWrapped(pgn, line, word);
+                }
+            }
+            if (!white) fullmove++;
+            white = !white;
+        }
+        appendWrapped(pgn, line, result);
+        pgn.append(line).append("\n\n");
+        return pgn.toString();
+    }
+
+    private static void appendWrapped(StringBuilder pgn, StringBuilder line, String text) {
+        if (line.length() > 0 && line.length() + 1 + text.length() > LINE_WIDTH) {
+            pgn.append(line).append('\n');
+            line.setLength(0);
+        }
+        if (line.length() > 0) line.append(' ');
+        line.append(text);
+    }
+}
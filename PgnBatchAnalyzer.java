@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Annotates every game of a PGN archive with the engine's evaluation after each move, marks
+// blunders (moves that lose at least the blunder threshold against the best move) with "??" and
+// names the better move. Games are read in batches and analysed on a ForkJoinPool; only a few
+// batches are in flight at once, so memory stays flat however large the archive, and finished
+// batches are written in input order. Games that do not replay are copied without annotations.
+//
+// Usage: java PgnBatchAnalyzer in.pgn out.pgn [--depth N] [--nodes N] [--threads N] [--batch N]
+//                              [--blunder centipawns] [--hash MB]
+public class PgnBatchAnalyzer {
+    // Mate scores are capped so one missed mate does not dwarf every other swing
+    private static final int SCORE_CAP = 10_000;
+    // Batches queued or running per worker thread
+    private static final int BATCHES_PER_THREAD = 2;
+    private static final long PROGRESS_NANOS = 10_000_000_000L;
+
+    private final int depth;
+    private final long nodes;
+    private final int blunderThreshold;
+    private final ThreadLocal<TranspositionTable> tables;
+
+    private PgnBatchAnalyzer(int depth, long nodes, int blunderThreshold, int hashMegabytes) {
+        this.depth = depth;
+        this.nodes = nodes;
+        this.blunderThreshold = blunderThreshold;
+        this.tables = ThreadLocal.withInitial(() -> new TranspositionTable(hashMegabytes));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java PgnBatchAnalyzer in.pgn out.pgn [--depth N] [--nodes N] [--threads N] [--batch N] [--blunder cp] [--hash MB]");
+            System.exit(2);
+        }
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int depth = Integer.parseInt(options.getOrDefault("depth", "4"));
+        long nodes = Long.parseLong(options.getOrDefault("nodes", String.valueOf(Long.MAX_VALUE)));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int batchSize = Integer.parseInt(options.getOrDefault("batch", "8"));
+        int blunder = Integer.parseInt(options.getOrDefault("blunder", "200"));
+        int hash = Integer.parseInt(options.getOrDefault("hash", "16"));
+
+        PgnBatchAnalyzer analyzer = new PgnBatchAnalyzer(depth, nodes, blunder, hash);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+        long start = System.nanoTime();
+        long lastProgress = start;
+        long games = 0;
+        long positions = 0;
+        long failed = 0;
+
+        try (Pgn.Reader in = new Pgn.Reader(Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8));
+             Writer out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            boolean more = true;
+            while (more || !inFlight.isEmpty()) {
+                // Read ahead only while there is room; otherwise wait for the oldest batch
+                if (more && inFlight.size() < threads * BATCHES_PER_THREAD) {
+                    List<Pgn.Game> read = new ArrayList<>(batchSize);
+                    Pgn.Game game;
+                    while (read.size() < batchSize && (game = in.next()) != null) {
+                        read.add(game);
+                    }
+                    more = read.size() == batchSize;
+                    if (!read.isEmpty()) {
+                        Batch batch = analyzer.batch(read.toArray(new Pgn.Game[0]));
+                        pool.execute(batch);
+                        inFlight.add(batch);
+                    }
+                    continue;
+                }
+
+                Batch done = inFlight.remove();
+                done.join();
+                for (int i = 0; i < done.games.length; i++) {
+                    out.write(done.annotated[i]);
+                    games++;
+                    if (done.positions[i] < 0) {
+                        failed++;
+                    } else {
+                        positions += done.positions[i];
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastProgress > PROGRESS_NANOS) {
+                    lastProgress = now;
+                    System.err.printf("%d games, %.1f games/s%n", games, games / ((now - start) / 1e9));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d games (%d copied without analysis), %d positions in %.1f s on %d threads: %.1f games/s, %.0f positions/s%n",
+            games, failed, positions, seconds, threads, games / seconds, positions / seconds);
+    }
+
+    private Batch batch(Pgn.Game[] games) {
+        return new Batch(games, 0, games.length, null);
+    }
+
+    // A run of games analysed by splitting in halves down to single games; results land in the
+    // arrays of the batch that was submitted
+    private final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Pgn.Game[] games;
+        final String[] annotated;
+        final int[] positions; // analysed per game, -1 if the game did not replay
+        private final int from;
+        private final int to;
+        private final Batch root;
+
+        Batch(Pgn.Game[] games, int from, int to, Batch root) {
+            this.games = games;
+            this.from = from;
+            this.to = to;
+            this.root = root == null ? this : root;
+            this.annotated = root == null ? new String[games.length] : root.annotated;
+            this.positions = root == null ? new int[games.length] : root.positions;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                analyse(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new Batch(games, from, middle, root), new Batch(games, middle, to, root));
+        }
+
+        private void analyse(int index) {
+            Pgn.Game game = games[index];
+            try {
+                annotated[index] = annotate(game);
+                positions[index] = game.moves.size() + 1;
+            } catch (IllegalArgumentException e) {
+                System.err.println("Copying " + game.tag("White") + " - " + game.tag("Black") + " unannotated: " + e.getMessage());
+                Fen.Setup start = startOrStandard(game);
+                annotated[index] = Pgn.format(game.tags, game.moves, start.toMove, start.fullmoveNumber, game.result);
+                positions[index] = -1;
+            }
+        }
+    }
+
+    // Throws IllegalArgumentException if the game does not replay
+    private String annotate(Pgn.Game game) {
+        Fen.Setup setup = game.startPosition();
+        ChessBoard board = setup.board;
+        int[] moves = game.replay(board, setup.toMove);
+        // Analyse from the end back to the start, reusing the board the replay left at the end
+        int count = moves.length;
+        int[] scores = new int[count + 1]; // for the side to move in each position
+        int[] bestMoves = new int[count + 1];
+        TranspositionTable table = tables.get();
+        table.clear();
+
+        ChessPiece.Color color = count % 2 == 0 ? setup.toMove : setup.toMove.opposite();
+        for (int ply = count; ply >= 0; ply--) {
+            analysePosition(board, color, table, scores, bestMoves, ply);
+            if (ply > 0) {
+                board.undoMove();
+                color = color.opposite();
+            }
+        }
+
+        List<String> san = new ArrayList<>(count);
+        List<String> comments = new ArrayList<>(count);
+        for (int ply = 0; ply < count; ply++) {
+            ChessPiece.Color mover = color;
+            int[] legalMoves = board.getAllLegalMoves(mover);
+            String text = Notation.toSan(board, moves[ply], legalMoves, mover);
+
+            // What the move lost against the engine's choice, from the mover's side
+            int loss = scores[ply] - (-scores[ply + 1]);
+            String comment = scoreText(-scores[ply + 1], mover);
+            if (moves[ply] != bestMoves[ply] && bestMoves[ply] != 0 && loss >= blunderThreshold) {
+                text += "??";
+                comment += " blunder; best was " + Notation.toSan(board, bestMoves[ply], legalMoves, mover)
+                    + " " + scoreText(scores[ply], mover);
+            }
+            san.add(text);
+            comments.add(comment);
+
+            board.makeMove(moves[ply]);
+            color = color.opposite();
+        }
+
+        Map<String, String> tags = new LinkedHashMap<>(game.tags);
+        tags.put("Annotator", "PgnBatchAnalyzer depth " + depth + (nodes == Long.MAX_VALUE ? "" : " nodes " + nodes));
+        return Pgn.format(tags, san, comments, setup.toMove, setup.fullmoveNumber, game.result);
+    }
+
+    private void analysePosition(ChessBoard board, ChessPiece.Color color, TranspositionTable table,
+                                 int[] scores, int[] bestMoves, int ply) {
+        if (board.getAllLegalMoves(color).length == 0) {
+            scores[ply] = board.isKingInCheck(color) ? -SCORE_CAP : 0;
+            return;
+        }
+        if (board.isThreefoldRepetition() || board.isFiftyMoveRule() || board.isInsufficientMaterial()) {
+            return;
+        }
+        Engine engine = new Engine(board, color, table);
+        engine.setNodeLimit(nodes);
+        List<Engine.Line> lines = engine.search(depth, 1, null);
+        if (lines.isEmpty()) return;
+        scores[ply] = Math.max(-SCORE_CAP, Math.min(SCORE_CAP, lines.get(0).score));
+        bestMoves[ply] = lines.get(0).moves[0];
+    }
+
+    // The score from White's side, given one from the side to move
+    private static String scoreText(int score, ChessPiece.Color toMove) {
+        int white = toMove == ChessPiece.Color.WHITE ? score : -score;
+        if (Math.abs(white) >= SCORE_CAP) return white > 0 ? "+M" : "-M";
+        return String.format("%+.2f", white / 100.0);
+    }
+
+    private static Fen.Setup startOrStandard(Pgn.Game game) {
+        try {
+            return game.startPosition();
+        } catch (IllegalArgumentException e) {
+            return new Fen.Setup(new ChessBoard(false), ChessPiece.Color.WHITE, 1);
+        }
+    }
+}
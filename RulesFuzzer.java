@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Differential fuzzing of FastRules against the reference rules in ChessBoard. Random legal
+// games, standard and Chess960, are played on both at once. Every position compares the legal
+// moves, whether the side to move is in check (together these decide mate and stalemate) and
+// the position FastRules reached by making and unmaking moves itself. Now and then a move is
+// taken back and replayed, to exercise undo.
+//
+// Each mismatch is shrunk to a minimal position: pieces, castling rights and the en passant
+// square are removed one at a time for as long as the position stays legal and the mismatch
+// stays. Each distinct minimal FEN is reported once. Games are seeded from --seed and their
+// number, so any report can be replayed.
+//
+// Usage: java RulesFuzzer [--games N] [--threads N] [--seed N] [--max-plies N] [--chess960 percent]
+//                         [--failures N]
+public class RulesFuzzer {
+    private static final long PROGRESS_NANOS = 10_000_000_000L;
+    private static final int UNDO_ONE_IN = 8;
+
+    private final long seed;
+    private final int maxPlies;
+    private final int chess960Percent;
+    private final int maxFailures;
+    private final AtomicLong games = new AtomicLong();
+    private final AtomicLong positions = new AtomicLong();
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+    private RulesFuzzer(long seed, int maxPlies, int chess960Percent, int maxFailures) {
+        this.seed = seed;
+        this.maxPlies = maxPlies;
+        this.chess960Percent = chess960Percent;
+        this.maxFailures = maxFailures;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        long gameCount = Long.parseLong(options.getOrDefault("games", "10000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        int maxPlies = Integer.parseInt(options.getOrDefault("max-plies", "400"));
+        int chess960 = Integer.parseInt(options.getOrDefault("chess960", "50"));
+        int maxFailures = Integer.parseInt(options.getOrDefault("failures", "20"));
+
+        RulesFuzzer fuzzer = new RulesFuzzer(seed, maxPlies, chess960, maxFailures);
+        AtomicLong nextGame = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                long game;
+                while ((game = nextGame.getAndIncrement()) < gameCount && fuzzer.failures.size() < maxFailures) {
+                    fuzzer.play(game);
+                }
+            });
+        }
+        pool.shutdown();
+
+        long start = System.nanoTime();
+        while (!pool.awaitTermination(PROGRESS_NANOS, TimeUnit.NANOSECONDS)) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%d games, %d positions, %.0f positions/s, %d mismatches%n",
+                fuzzer.games.get(), fuzzer.positions.get(), fuzzer.positions.get() / seconds, fuzzer.failures.size());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games, %d positions in %.1f s on %d threads (%.0f positions/s): %d mismatches%n",
+            fuzzer.games.get(), fuzzer.positions.get(), seconds, threads, fuzzer.positions.get() / seconds, fuzzer.failures.size());
+        if (!fuzzer.failures.isEmpty()) System.exit(1);
+    }
+
+    private void play(long game) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + game);
+        ChessBoard board = random.nextInt(100) < chess960Percent
+            ? ChessBoard.chess960(random.nextInt(Chess960.POSITIONS))
+            : new ChessBoard(false);
+        ChessPiece.Color color = ChessPiece.Color.WHITE;
+        FastRules fast = new FastRules(board, color);
+        String startFen = Fen.format(board, color, 1);
+        List<Integer> moves = new ArrayList<>();
+        int[] buffer = new int[FastRules.MAX_MOVES];
+
+        for (int ply = 0; ply < maxPlies; ply++) {
+            positions.incrementAndGet();
+            String mismatch = compare(board, color, fast, buffer);
+            if (mismatch != null) {
+                report(game, startFen, board, color, moves, mismatch);
+                break;
+            }
+
+            int[] legal = board.getAllLegalMoves(color);
+            if (legal.length == 0 || board.isThreefoldRepetition() || board.isFiftyMoveRule()
+                    || board.isInsufficientMaterial()) {
+                break;
+            }
+            int move = legal[random.nextInt(legal.length)];
+            board.makeMove(move);
+            fast.makeMove(move);
+            color = color.opposite();
+            moves.add(move);
+
+            if (random.nextInt(UNDO_ONE_IN) == 0) {
+                board.undoMove();
+                fast.undoMove();
+                color = color.opposite();
+                moves.remove(moves.size() - 1);
+                positions.incrementAndGet();
+                mismatch = compare(board, color, fast, buffer);
+                if (mismatch != null) {
+                    report(game, startFen, board, color, moves, "after undo, " + mismatch);
+                    break;
+                }
+                board.makeMove(move);
+                fast.makeMove(move);
+                color = color.opposite();
+                moves.add(move);
+            }
+        }
+        games.incrementAndGet();
+    }
+
+    // What differs between the two in this position, or null
+    private static String compare(ChessBoard board, ChessPiece.Color color, FastRules fast, int[] buffer) {
+        String expectedPosition = positionFields(board, color);
+        String position = fast.positionFields();
+        if (!position.equals(expectedPosition)) {
+            return "position differs: " + position;
+        }
+
+        int[] expected = board.getAllLegalMoves(color).clone();
+        int[] actual = Arrays.copyOf(buffer, fast.generate(buffer));
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        if (!Arrays.equals(expected, actual)) {
+            return "moves differ: missing " + difference(expected, actual) + ", extra " + difference(actual, expected);
+        }
+
+        boolean check = board.isKingInCheck(color);
+        if (fast.inCheck() != check) {
+            return "check differs: expected " + (check ? "in check" : "not in check");
+        }
+        return null;
+    }
+
+    private void report(long game, String startFen, ChessBoard board, ChessPiece.Color color, List<Integer> moves, String mismatch) {
+        // A position that FastRules gets wrong from scratch shrinks on its own; one it only
+        // reaches wrongly by its own moves shrinks together with the last move
+        int lastMove = 0;
+        String fen = Fen.format(board, color, 1);
+        if (check(fen, board.isChess960(), 0) == null) {
+            lastMove = -1;
+            if (!moves.isEmpty()) {
+                int move = moves.get(moves.size() - 1);
+                board.undoMove();
+                fen = Fen.format(board, color.opposite(), 1);
+                if (check(fen, board.isChess960(), move) != null) lastMove = move;
+            }
+        }
+
+        String minimal = lastMove < 0 ? fen : shrink(fen, board.isChess960(), lastMove);
+        String key = minimal + (lastMove > 0 ? " " + coordinates(lastMove) : "");
+        if (failures.size() >= maxFailures || failures.putIfAbsent(key, mismatch) != null) return;
+
+        StringBuilder text = new StringBuilder();
+        text.append("MISMATCH in game ").append(game).append(" at ply ").append(moves.size()).append(": ").append(mismatch).append('\n');
+        if (lastMove < 0) {
+            text.append("  not reproducible from the position alone; replay the game\n");
+        } else {
+            String rerun = lastMove > 0 ? " then " + coordinates(lastMove) : "";
+            text.append("  minimal: ").append(minimal).append(rerun)
+                .append(" -> ").append(check(minimal, board.isChess960(), lastMove)).append('\n');
+        }
+        text.append("  start:   ").append(startFen).append('\n');
+        text.append("  moves:  ");
+        for (int move : moves) {
+            text.append(' ').append(coordinates(move));
+        }
+        synchronized (System.out) {
+            System.out.println(text);
+        }
+    }
+
+    // The mismatch in the position, after the move if it is not 0, or null if both agree. Also
+    // null for positions that are not legal or where the move is not legal.
+    private static String check(String fen, boolean chess960, int move) {
+        Fen.Setup setup;
+        try {
+            setup = Fen.parse(fen, chess960);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        ChessBoard board = setup.board;
+        ChessPiece.Color color = setup.toMove;
+        FastRules fast = new FastRules(board, color);
+        if (move != 0) {
+            int[] legal = board.getAllLegalMoves(color);
+            if (Arrays.stream(legal).noneMatch(m -> m == move)) return null;
+            board.makeMove(move);
+            fast.makeMove(move);
+            color = color.opposite();
+        }
+        return compare(board, color, fast, new int[FastRules.MAX_MOVES]);
+    }
+
+    // Removes whatever it can from the position while the mismatch remains
+    private static String shrink(String fen, boolean chess960, int move) {
+        String current = fen;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (String smaller : simplifications(current)) {
+                if (check(smaller, chess960, move) != null) {
+                    current = smaller;
+                    progress = true;
+                    break;
+                }
+            }
+        }
+        return current;
+    }
+
+    // The position with one piece other than a king, one castling right or the en passant
+    // square removed, in every possible way
+    private static List<String> simplifications(String fen) {
+        String[] fields = fen.split(" ");
+        List<String> results = new ArrayList<>();
+        char[] squares = expand(fields[0]);
+        for (int square = 0; square < 64; square++) {
+            if (squares[square] == '.' || Character.toLowerCase(squares[square]) == 'k') continue;
+            char piece = squares[square];
+            squares[square] = '.';
+            results.add(compress(squares) + " " + fields[1] + " " + fields[2] + " " + fields[3] + " 0 1");
+            squares[square] = piece;
+        }
+        if (!fields[2].equals("-")) {
+            for (int i = 0; i < fields[2].length(); i++) {
+                String rights = fields[2].substring(0, i) + fields[2].substring(i + 1);
+                results.add(fields[0] + " " + fields[1] + " " + (rights.isEmpty() ? "-" : rights) + " " + fields[3] + " 0 1");
+            }
+        }
+        if (!fields[3].equals("-")) {
+            results.add(fields[0] + " " + fields[1] + " " + fields[2] + " - 0 1");
+        }
+        return results;
+    }
+
+    private static char[] expand(String placement) {
+        char[] squares = new char[64];
+        int square = 0;
+        for (char c : placement.toCharArray()) {
+            if (c == '/') continue;
+            if (c >= '1' && c <= '8') {
+                for (int i = 0; i < c - '0'; i++) squares[square++] = '.';
+            } else {
+                squares[square++] = c;
+            }
+        }
+        return squares;
+    }
+
+    private static String compress(char[] squares) {
+        StringBuilder placement = new StringBuilder();
+        for (int row = 0; row < 8; row++) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                char c = squares[row * 8 + col];
+                if (c == '.') {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) placement.append(empty);
+                empty = 0;
+                placement.append(c);
+            }
+            if (empty > 0) placement.append(empty);
+            if (row < 7) placement.append('/');
+        }
+        return placement.toString();
+    }
+
+    private static String positionFields(ChessBoard board, ChessPiece.Color color) {
+        String fen = Fen.format(board, color, 1);
+        return fen.substring(0, fen.lastIndexOf(' ', fen.lastIndexOf(' ') - 1));
+    }
+
+    // The moves in the first list and not the second, both sorted
+    private static String difference(int[] moves, int[] others) {
+        StringBuilder text = new StringBuilder();
+        for (int move : moves) {
+            if (Arrays.binarySearch(others, move) < 0) {
+                text.append(text.length() == 0 ? "" : " ").append(coordinates(move));
+            }
+        }
+        return text.length() == 0 ? "-" : text.toString();
+    }
+
+    private static String coordinates(int move) {
+        String text = Notation.squareName(ChessBoard.moveFrom(move)) + Notation.squareName(ChessBoard.moveTo(move));
+        int promotion = ChessBoard.movePromotion(move);
+        return promotion == 0 ? text : text + " pnbrqk".charAt(promotion);
+    }
+}
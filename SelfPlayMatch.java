@@ -0,0 +1,401 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Plays a match between two configurations of the built-in engine on every core and reports
+// the Elo difference and a sequential probability ratio test, so a change can be accepted or
+// rejected after as few games as the statistics allow. Each opening is played twice with colours
+// reversed. Games are independent, each on its own board, so they scale with cores.
+//
+// Players are described as comma-separated settings: depth=N, nodes=N (per move), hash=MB and
+// name=text, e.g. "nodes=4000,hash=8". Node limits keep results the same however loaded the
+// machine is, which time limits would not.
+//
+// Usage: java SelfPlayMatch [--a spec] [--b spec] [--games N] [--concurrency N] [--book file]
+//                           [--book-plies N] [--pgn out.pgn] [--sprt elo0,elo1] [--alpha a] [--beta b]
+//                           [--max-plies N]
+// The book is a PGN file (its first --book-plies moves are used) or one FEN or EPD per line.
+public class SelfPlayMatch {
+    // Balanced lines for when no book is given, in coordinate notation
+    private static final String[] BUILT_IN_OPENINGS = {
+        "e2e4 e7e5 g1f3 b8c6 f1b5 a7a6",
+        "e2e4 c7c5 g1f3 d7d6 d2d4 c5d4",
+        "e2e4 e7e6 d2d4 d7d5 b1c3 g8f6",
+        "e2e4 c7c6 d2d4 d7d5 e4e5 c8f5",
+        "e2e4 e7e5 g1f3 g8f6 f3e5 d7d6",
+        "d2d4 d7d5 c2c4 e7e6 b1c3 g8f6",
+        "d2d4 g8f6 c2c4 e7e6 g1f3 b7b6",
+        "d2d4 g8f6 c2c4 g7g6 b1c3 f8g7",
+        "d2d4 d7d5 c2c4 c7c6 g1f3 g8f6",
+        "c2c4 e7e5 b1c3 g8f6 g1f3 b8c6",
+        "g1f3 d7d5 g2g3 g8f6 f1g2 c7c6",
+        "e2e4 d7d6 d2d4 g8f6 b1c3 g7g6",
+    };
+
+    // A game is given to the side whose score both engines agree on for this many plies in a row
+    private static final int ADJUDICATION_SCORE = 1000;
+    private static final int ADJUDICATION_PLIES = 8;
+
+    private static final class Player {
+        final String name;
+        final int depth;
+        final long nodes;
+        final int hashMegabytes;
+
+        Player(String spec, String defaultName) {
+            String name = defaultName;
+            int depth = 64;
+            long nodes = Long.MAX_VALUE;
+            int hash = 4;
+            for (String setting : spec.split(",")) {
+                String[] pair = setting.trim().split("=", 2);
+                if (pair.length != 2) throw new IllegalArgumentException("Not a setting: " + setting);
+                switch (pair[0]) {
+                    case "name": name = pair[1]; break;
+                    case "depth": depth = Integer.parseInt(pair[1]); break;
+                    case "nodes": nodes = Long.parseLong(pair[1]); break;
+                    case "hash": hash = Integer.parseInt(pair[1]); break;
+                    default: throw new IllegalArgumentException("Unknown setting: " + pair[0]);
+                }
+            }
+            if (depth >= 64 && nodes == Long.MAX_VALUE) {
+                throw new IllegalArgumentException("A player needs a depth or nodes limit: " + spec);
+            }
+            this.name = name;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.hashMegabytes = hash;
+        }
+    }
+
+    // A position to start games from: a FEN, or null for the standard start, then some moves
+    private static final class Opening {
+        final String fen;
+        final int[] moves;
+
+        Opening(String fen, int[] moves) {
+            this.fen = fen;
+            this.moves = moves;
+        }
+
+        Fen.Setup setUp() {
+            Fen.Setup setup = fen == null ? new Fen.Setup(new ChessBoard(false), ChessPiece.Color.WHITE, 1)
+                                          : Fen.parse(fen, false);
+            ChessPiece.Color color = setup.toMove;
+            for (int move : moves) {
+                setup.board.makeMove(move);
+                color = color.opposite();
+            }
+            return new Fen.Setup(setup.board, color, setup.fullmoveNumber);
+        }
+    }
+
+    // Scores are from player A's side: 1 win, 0.5 draw, 0 loss
+    private static final class Tally {
+        int wins;
+        int draws;
+        int losses;
+
+        int games() {
+            return wins + draws + losses;
+        }
+
+        double score() {
+            return (wins + 0.5 * draws) / games();
+        }
+
+        double variance() {
+            double score = score();
+            return (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2) + losses * score * score) / games();
+        }
+
+        // Log-likelihood ratio of elo1 against elo0, by the normal approximation to the trinomial
+        double llr(double elo0, double elo1) {
+            double variance = variance();
+            if (variance == 0) return 0;
+            double s0 = expectedScore(elo0);
+            double s1 = expectedScore(elo1);
+            return 0.5 * games() * (s1 - s0) * (2 * score() - s0 - s1) / variance;
+        }
+    }
+
+    private final Player a;
+    private final Player b;
+    private final int maxPlies;
+    private final Tally tally = new Tally();
+    private final Writer pgn;
+    private final String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd"));
+    private final ThreadLocal<TranspositionTable[]> tables;
+    private volatile boolean finished;
+
+    private SelfPlayMatch(Player a, Player b, int maxPlies, Writer pgn) {
+        this.a = a;
+        this.b = b;
+        this.maxPlies = maxPlies;
+        this.pgn = pgn;
+        this.tables = ThreadLocal.withInitial(() -> new TranspositionTable[] {
+            new TranspositionTable(a.hashMegabytes), new TranspositionTable(b.hashMegabytes)});
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Expected an option: " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        Player a = new Player(options.getOrDefault("a", "depth=3"), "A");
+        Player b = new Player(options.getOrDefault("b", "depth=2"), "B");
+        int games = Integer.parseInt(options.getOrDefault("games", "1000"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int maxPlies = Integer.parseInt(options.getOrDefault("max-plies", "300"));
+        String[] sprt = options.getOrDefault("sprt", "0,5").split(",");
+        double elo0 = Double.parseDouble(sprt[0]);
+        double elo1 = Double.parseDouble(sprt[1]);
+        double alpha = Double.parseDouble(options.getOrDefault("alpha", "0.05"));
+        double beta = Double.parseDouble(options.getOrDefault("beta", "0.05"));
+        double lowerBound = Math.log(beta / (1 - alpha));
+        double upperBound = Math.log((1 - beta) / alpha);
+
+        List<Opening> openings = options.containsKey("book")
+            ? readBook(options.get("book"), Integer.parseInt(options.getOrDefault("book-plies", "16")))
+            : builtInOpenings();
+        if (openings.isEmpty()) throw new IllegalArgumentException("The book has no usable openings");
+
+        Writer pgn = options.containsKey("pgn")
+            ? Files.newBufferedWriter(Paths.get(options.get("pgn")), StandardCharsets.UTF_8) : null;
+        SelfPlayMatch match = new SelfPlayMatch(a, b, maxPlies, pgn);
+
+        System.out.printf("%s vs %s, up to %d games on %d threads, %d openings, SPRT elo0=%.1f elo1=%.1f alpha=%.2f beta=%.2f%n",
+            a.name, b.name, games, concurrency, openings.size(), elo0, elo1, alpha, beta);
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "self-play");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        long[] lastReport = {start};
+        for (int round = 0; round < games; round++) {
+            int number = round;
+            Opening opening = openings.get(round / 2 % openings.size());
+            pool.execute(() -> {
+                if (match.finished) return;
+                // Even rounds give A white, odd rounds replay the opening with colours reversed
+                double result = match.play(number + 1, opening, number % 2 == 0);
+
+                synchronized (match.tally) {
+                    if (match.finished) return;
+                    if (result == 1) match.tally.wins++;
+                    else if (result == 0) match.tally.losses++;
+                    else match.tally.draws++;
+
+                    double llr = match.tally.llr(elo0, elo1);
+                    boolean decided = llr <= lowerBound || llr >= upperBound;
+                    long now = System.nanoTime();
+                    if (decided || match.tally.games() == games || now - lastReport[0] > 10_000_000_000L) {
+                        lastReport[0] = now;
+                        match.report(start, llr, lowerBound, upperBound);
+                    }
+                    if (decided) {
+                        match.finished = true;
+                        System.out.println(llr >= upperBound ? "SPRT: H1 accepted" : "SPRT: H0 accepted");
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (pgn != null) pgn.close();
+    }
+
+    // Plays one game and returns A's score
+    private double play(int round, Opening opening, boolean aIsWhite) {
+        Fen.Setup setup = opening.setUp();
+        ChessBoard board = setup.board;
+        ChessPiece.Color color = setup.toMove;
+        TranspositionTable[] playerTables = tables.get();
+        for (TranspositionTable table : playerTables) {
+            table.clear();
+        }
+
+        List<String> san = new ArrayList<>();
+        String result = null;
+        String termination = "normal";
+        int winningStreak = 0;
+        int lastScoreSign = 0;
+
+        for (int ply = 0; result == null; ply++) {
+            int[] legalMoves = board.getAllLegalMoves(color).clone();
+            if (legalMoves.length == 0) {
+                boolean mated = board.isKingInCheck(color);
+                result = !mated ? "1/2-1/2" : color == ChessPiece.Color.WHITE ? "0-1" : "1-0";
+                break;
+            }
+            if (board.isThreefoldRepetition() || board.isFiftyMoveRule() || board.isInsufficientMaterial()) {
+                result = "1/2-1/2";
+                break;
+            }
+            if (ply >= maxPlies) {
+                result = "1/2-1/2";
+                termination = "adjudication";
+                break;
+            }
+
+            boolean aToMove = (color == ChessPiece.Color.WHITE) == aIsWhite;
+            Player player = aToMove ? a : b;
+            Engine engine = new Engine(board, color, playerTables[aToMove ? 0 : 1]);
+            engine.setNodeLimit(player.nodes);
+            List<Engine.Line> lines = engine.search(player.depth, 1, null);
+
+            int move = lines.isEmpty() ? legalMoves[0] : lines.get(0).moves[0];
+            // White's point of view, so both engines' scores can be compared
+            int score = lines.isEmpty() ? 0 : lines.get(0).score * (color == ChessPiece.Color.WHITE ? 1 : -1);
+            int sign = score >= ADJUDICATION_SCORE ? 1 : score <= -ADJUDICATION_SCORE ? -1 : 0;
+            winningStreak = sign != 0 && sign == lastScoreSign ? winningStreak + 1 : sign != 0 ? 1 : 0;
+            lastScoreSign = sign;
+
+            san.add(Notation.toSan(board, move, legalMoves, color));
+            board.makeMove(move);
+            color = color.opposite();
+
+            if (winningStreak >= ADJUDICATION_PLIES) {
+                result = sign > 0 ? "1-0" : "0-1";
+                termination = "adjudication";
+            }
+        }
+
+        writeGame(round, opening, setup, aIsWhite, san, result, termination);
+        double whiteScore = result.equals("1-0") ? 1 : result.equals("0-1") ? 0 : 0.5;
+        return aIsWhite ? whiteScore : 1 - whiteScore;
+    }
+
+    private void writeGame(int round, Opening opening, Fen.Setup setup, boolean aIsWhite,
+                           List<String> san, String result, String termination) {
+        if (pgn == null) return;
+
+        // The record starts before the book moves so it replays from the book's position
+        Fen.Setup start = opening.fen == null ? null : Fen.parse(opening.fen, false);
+        ChessBoard replay = start == null ? new ChessBoard(false) : start.board;
+        ChessPiece.Color color = start == null ? ChessPiece.Color.WHITE : start.toMove;
+        List<String> moves = new ArrayList<>();
+        for (int move : opening.moves) {
+            moves.add(Notation.toSan(replay, move, replay.getAllLegalMoves(color), color));
+            replay.makeMove(move);
+            color = color.opposite();
+        }
+        moves.addAll(san);
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", "Self-play match");
+        tags.put("Site", "?");
+        tags.put("Date", date);
+        tags.put("Round", String.valueOf(round));
+        tags.put("White", aIsWhite ? a.name : b.name);
+        tags.put("Black", aIsWhite ? b.name : a.name);
+        tags.put("Result", result);
+        if (opening.fen != null) {
+            tags.put("SetUp", "1");
+            tags.put("FEN", opening.fen);
+        }
+        tags.put("PlyCount", String.valueOf(moves.size()));
+        tags.put("Termination", termination);
+
+        String text = Pgn.format(tags, moves, start == null ? ChessPiece.Color.WHITE : start.toMove,
+                                 start == null ? 1 : start.fullmoveNumber, result);
+        synchronized (pgn) {
+            try {
+                pgn.write(text);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write the PGN file", e);
+            }
+        }
+    }
+
+    private void report(long startNanos, double llr, double lowerBound, double upperBound) {
+        int games = tally.games();
+        double hours = (System.nanoTime() - startNanos) / 3.6e12;
+        double score = tally.score();
+        double margin = 1.96 * Math.sqrt(tally.variance() / games);
+        System.out.printf("Games %d: +%d =%d -%d, score %.1f%%, Elo %s +/- %.1f, LLR %.2f (%.2f, %.2f), %.0f games/hour%n",
+            games, tally.wins, tally.draws, tally.losses, 100 * score, formatElo(elo(score)),
+            (elo(Math.min(0.999, score + margin)) - elo(Math.max(0.001, score - margin))) / 2,
+            llr, lowerBound, upperBound, games / hours);
+    }
+
+    private static String formatElo(double elo) {
+        return Double.isInfinite(elo) ? (elo > 0 ? "+inf" : "-inf") : String.format("%+.1f", elo);
+    }
+
+    private static double elo(double score) {
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    private static List<Opening> builtInOpenings() {
+        List<Opening> openings = new ArrayList<>();
+        for (String line : BUILT_IN_OPENINGS) {
+            String[] words = line.split(" ");
+            int[] moves = new int[words.length];
+            for (int i = 0; i < words.length; i++) {
+                moves[i] = Notation.parseCoordinate(words[i]);
+            }
+            openings.add(new Opening(null, moves));
+        }
+        return openings;
+    }
+
+    // Openings that do not parse or replay are skipped with a warning
+    private static List<Opening> readBook(String file, int plies) throws IOException {
+        List<Opening> openings = new ArrayList<>();
+        if (file.toLowerCase().endsWith(".pgn")) {
+            try (Pgn.Reader reader = new Pgn.Reader(Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8))) {
+                Pgn.Game game;
+                while ((game = reader.next()) != null) {
+                    try {
+                        Fen.Setup setup = game.startPosition();
+                        int[] moves = game.replay(setup.board, setup.toMove);
+                        openings.add(new Opening(game.tags.get("FEN"), java.util.Arrays.copyOf(moves, Math.min(plies, moves.length))));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Skipping book game " + game.tag("White") + " - " + game.tag("Black") + ": " + e.getMessage());
+                    }
+                }
+            }
+            return openings;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                // EPD lines carry operations where FEN has its move counters
+                String[] fields = line.split("\\s+");
+                boolean counters = fields.length >= 6 && fields[4].matches("\\d+") && fields[5].matches("\\d+");
+                String fen = String.join(" ", java.util.Arrays.asList(fields).subList(0, Math.min(fields.length, counters ? 6 : 4)));
+                try {
+                    Fen.parse(fen, false);
+                    openings.add(new Opening(fen, new int[0]));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping book line " + line + ": " + e.getMessage());
+                }
+            }
+        }
+        return openings;
+    }
+}
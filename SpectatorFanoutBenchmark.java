@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Measures spectator fan-out through GameEventStream: events delivered per second, batches, and
+// latency from publish to delivery, with a share of deliberately slow spectators. The game loop
+// plays random legal moves on live GameSessions, first with nobody watching and then with the
+// spectators attached, so the two move rates show whether watching holds the games up.
+// Usage: java SpectatorFanoutBenchmark [games] [spectatorsPerGame] [seconds] [slowPercent]
+public class SpectatorFanoutBenchmark {
+    private static final long SLOW_SPECTATOR_MILLIS = 20;
+
+    // Counts what one spectator receives; only its dispatcher thread writes the fields
+    private static final class Spectator implements GameEventStream.Subscriber {
+        final boolean slow;
+        long events;
+        long batches;
+        long missed;
+        final long[] latencyBuckets = new long[64]; // by floor(log2(nanos))
+
+        Spectator(boolean slow) {
+            this.slow = slow;
+        }
+
+        @Override
+        public void events(List<GameEventStream.Event> batch, boolean missedEvents) {
+            long now = System.nanoTime();
+            events += batch.size();
+            batches++;
+            if (missedEvents) missed++;
+            for (GameEventStream.Event event : batch) {
+                latencyBuckets[63 - Long.numberOfLeadingZeros(Math.max(1, now - event.publishedNanos))]++;
+            }
+            if (slow) {
+                try {
+                    Thread.sleep(SLOW_SPECTATOR_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int spectatorsPerGame = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        double slowShare = (args.length > 3 ? Double.parseDouble(args[3]) : 1) / 100;
+
+        // Warm up the rules and the stream so both phases run compiled code
+        play(gameCount, 0, 0, 2, new ArrayList<>());
+
+        long baseline = play(gameCount, 0, 0, seconds, new ArrayList<>());
+        System.out.printf("No spectators:   %8.0f moves/s%n", (double) baseline / seconds);
+
+        List<Spectator> spectators = new ArrayList<>();
+        long moves = play(gameCount, spectatorsPerGame, slowShare, seconds, spectators);
+        // Let the dispatchers drain what was published before the deadline
+        Thread.sleep(500);
+
+        long events = 0;
+        long batches = 0;
+        long missed = 0;
+        long[] buckets = new long[64];
+        for (Spectator spectator : spectators) {
+            events += spectator.events;
+            batches += spectator.batches;
+            missed += spectator.missed;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += spectator.latencyBuckets[i];
+            }
+        }
+        System.out.printf("With spectators: %8.0f moves/s, %d games x %d spectators (%.0f%% slow)%n",
+            (double) moves / seconds, gameCount, spectatorsPerGame, slowShare * 100);
+        System.out.printf("Delivered %d events in %d batches: %.0f deliveries/s, %.1f events per batch, %d lapped deliveries%n",
+            events, batches, (double) events / seconds, (double) events / Math.max(1, batches), missed);
+        System.out.printf("Latency publish to delivery: p50 < %s, p99 < %s, max < %s%n",
+            bucketLimit(buckets, 0.50), bucketLimit(buckets, 0.99), bucketLimit(buckets, 1.0));
+    }
+
+    // Plays random games for the given time and returns the number of moves played
+    private static long play(int gameCount, int spectatorsPerGame, double slowShare, int seconds,
+                             List<Spectator> spectators) {
+        Random random = new Random(45);
+        GameSession[] sessions = new GameSession[gameCount];
+        GameEventStream[] streams = new GameEventStream[gameCount];
+        for (int i = 0; i < gameCount; i++) {
+            streams[i] = new GameEventStream();
+            for (int s = 0; s < spectatorsPerGame; s++) {
+                Spectator spectator = new Spectator(random.nextDouble() < slowShare);
+                spectators.add(spectator);
+                streams[i].subscribe(spectator);
+            }
+            sessions[i] = newSession(streams[i]);
+        }
+
+        long moves = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < gameCount; i++) {
+                int[] legal = sessions[i].getAllLegalMoves();
+                if (legal.length == 0) {
+                    sessions[i].stop();
+                    sessions[i] = newSession(streams[i]);
+                    continue;
+                }
+                sessions[i].move(legal[random.nextInt(legal.length)]);
+                moves++;
+            }
+        }
+
+        for (GameSession session : sessions) {
+            session.stop();
+        }
+        return moves;
+    }
+
+    private static GameSession newSession(GameEventStream stream) {
+        GameSession session = new GameSession(false, TimeControl.parse("60"));
+        session.addListener(stream);
+        session.start();
+        return session;
+    }
+
+    // The upper end of the latency bucket holding the given fraction of events
+    private static String bucketLimit(long[] buckets, double fraction) {
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= total * fraction && buckets[i] > 0) {
+                double micros = (1L << (i + 1)) / 1000.0;
+                return micros < 1000 ? String.format("%.0f us", micros) : String.format("%.1f ms", micros / 1000);
+            }
+        }
+        return "-";
+    }
+}
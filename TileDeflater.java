@@ -0,0 +1,215 @@
+import java.util.zip.Adler32;
+
+// zlib encoder for palette images assembled from fixed square tiles, as in DiagramRenderer.
+// Every row of every tile is compressed once up front, with fixed Huffman codes and matches
+// against earlier bytes of the same tile row or against the tile row one image row above, so
+// encoding an image mostly appends cached bits. Tile rows that were drawn over (e.g. by arrows)
+// are compressed on the fly the same way.
+//
+// Image rows are laid out as in a PNG: one filter byte (always 0) followed by the indices.
+final class TileDeflater {
+    private static final int MIN_MATCH = 3;
+
+    // Fixed Huffman length codes: base length and extra bits for codes 257-285
+    private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+    // A run of bits in deflate order, packed least significant bit first
+    private static final class Bits {
+        int[] words = new int[4];
+        int length;
+
+        void write(int value, int count) {
+            for (int i = 0; i < count; i++) {
+                if (length >> 5 >= words.length) words = java.util.Arrays.copyOf(words, words.length * 2);
+                words[length >> 5] |= ((value >>> i) & 1) << (length & 31);
+                length++;
+            }
+        }
+
+        Bits trim() {
+            words = java.util.Arrays.copyOf(words, (length + 31) >> 5);
+            return this;
+        }
+    }
+
+    private final byte[][] tiles;
+    private final int tileSize;
+    private final int rowStride;
+    private final Bits[][] alone;   // by tile and row: matches within the tile row only
+    private final Bits[][] stacked; // by tile and row: may also match the tile row above
+
+    // The compressed stream being written; one per deflate call, so encoders can share the tables
+    private static final class Output {
+        final byte[] bytes;
+        int position;
+        long buffer;
+        int buffered;
+
+        Output(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        void writeBits(int value, int count) {
+            buffer |= (value & ((1L << count) - 1)) << buffered;
+            buffered += count;
+            while (buffered >= 8) {
+                bytes[position++] = (byte) buffer;
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+
+        // Huffman codes go out most significant bit first
+        void writeHuffman(int code, int length) {
+            writeBits(Integer.reverse(code) >>> (32 - length), length);
+        }
+
+        void writeLiteral(byte literal) {
+            int value = literal & 255;
+            if (value < 144) writeHuffman(0x30 + value, 8);
+            else writeHuffman(0x190 + value - 144, 9);
+        }
+
+        void append(Bits bits) {
+            int full = bits.length >> 5;
+            for (int i = 0; i < full; i++) {
+                writeBits(bits.words[i], 32);
+            }
+            if ((bits.length & 31) != 0) {
+                writeBits(bits.words[full], bits.length & 31);
+            }
+        }
+    }
+
+    // Tiles are square, tileSize bytes a side; null entries are never drawn. One image row holds
+    // tilesPerRow tiles.
+    TileDeflater(byte[][] tiles, int tileSize, int tilesPerRow) {
+        this.tiles = tiles;
+        this.tileSize = tileSize;
+        this.rowStride = tilesPerRow * tileSize + 1;
+        this.alone = new Bits[tiles.length][];
+        this.stacked = new Bits[tiles.length][];
+
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (tiles[tile] == null) continue;
+            alone[tile] = new Bits[tileSize];
+            stacked[tile] = new Bits[tileSize];
+            for (int row = 0; row < tileSize; row++) {
+                Bits bits = new Bits();
+                encodeSegment(tiles[tile], row * tileSize, null, 0, bits);
+                alone[tile][row] = bits.trim();
+
+                if (row > 0) {
+                    bits = new Bits();
+                    encodeSegment(tiles[tile], row * tileSize, tiles[tile], (row - 1) * tileSize, bits);
+                    stacked[tile][row] = bits.trim();
+                }
+            }
+        }
+    }
+
+    // Compresses height image rows. tileAt gives the tile of each (tile row, column) and drawn
+    // marks segments, indexed by image row * tilesPerRow + column, whose bytes in rows differ
+    // from their tile. Returns the number of bytes written to out, which must hold at least
+    // twice the input. Safe to call from several threads at once.
+    int deflate(byte[] rows, int height, int[] tileAt, boolean[] drawn, byte[] out) {
+        int tilesPerRow = (rowStride - 1) / tileSize;
+        Output output = new Output(out);
+
+        out[output.position++] = 0x78; // zlib header: deflate, 32K window
+        out[output.position++] = 0x01;
+        output.writeBits(1, 1); // final block
+        output.writeBits(1, 2); // fixed Huffman codes
+
+        Bits scratch = new Bits();
+        for (int y = 0; y < height; y++) {
+            output.writeLiteral(rows[y * rowStride]);
+            int row = y % tileSize;
+            for (int column = 0; column < tilesPerRow; column++) {
+                int segment = y * tilesPerRow + column;
+                int start = y * rowStride + 1 + column * tileSize;
+                if (drawn != null && drawn[segment]) {
+                    scratch.words = new int[scratch.words.length];
+                    scratch.length = 0;
+                    encodeSegment(rows, start, y > 0 ? rows : null, start - rowStride, scratch);
+                    output.append(scratch);
+                } else {
+                    int tile = tileAt[(y / tileSize) * tilesPerRow + column];
+                    boolean aboveIntact = row > 0 && (drawn == null || !drawn[segment - tilesPerRow]);
+                    output.append(aboveIntact ? stacked[tile][row] : alone[tile][row]);
+                }
+            }
+        }
+        output.writeHuffman(0, 7); // end of block
+        if (output.buffered > 0) output.writeBits(0, 8 - output.buffered);
+
+        Adler32 adler = new Adler32();
+        adler.update(rows, 0, height * rowStride);
+        int checksum = (int) adler.getValue();
+        out[output.position++] = (byte) (checksum >>> 24);
+        out[output.position++] = (byte) (checksum >>> 16);
+        out[output.position++] = (byte) (checksum >>> 8);
+        out[output.position++] = (byte) checksum;
+        return output.position;
+    }
+
+    // Greedy LZ77 over one tile row: at each byte take the longest match, either earlier in the
+    // segment or at the same place in the row above (one rowStride back)
+    private void encodeSegment(byte[] data, int start, byte[] above, int aboveStart, Bits bits) {
+        for (int i = 0; i < tileSize; ) {
+            int bestLength = 0;
+            int bestDistance = 0;
+
+            if (above != null) {
+                int length = 0;
+                while (i + length < tileSize && data[start + i + length] == above[aboveStart + i + length]) length++;
+                bestLength = length;
+                bestDistance = rowStride;
+            }
+            for (int distance = 1; distance <= i; distance++) {
+                int length = 0;
+                while (i + length < tileSize && data[start + i + length] == data[start + i + length - distance]) length++;
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestDistance = distance;
+                }
+            }
+
+            if (bestLength >= MIN_MATCH) {
+                writeMatch(bits, bestLength, bestDistance);
+                i += bestLength;
+            } else {
+                int value = data[start + i] & 255;
+                if (value < 144) writeHuffman(bits, 0x30 + value, 8);
+                else writeHuffman(bits, 0x190 + value - 144, 9);
+                i++;
+            }
+        }
+    }
+
+    private static void writeMatch(Bits bits, int length, int distance) {
+        int lengthCode = LENGTH_BASE.length - 1;
+        while (LENGTH_BASE[lengthCode] > length) lengthCode--;
+        int symbol = 257 + lengthCode;
+        if (symbol < 280) writeHuffman(bits, symbol - 256, 7);
+        else writeHuffman(bits, 0xC0 + symbol - 280, 8);
+        bits.write(length - LENGTH_BASE[lengthCode], LENGTH_EXTRA[lengthCode]);
+
+        int distanceCode = DISTANCE_BASE.length - 1;
+        while (DISTANCE_BASE[distanceCode] > distance) distanceCode--;
+        writeHuffman(bits, distanceCode, 5);
+        bits.write(distance - DISTANCE_BASE[distanceCode], DISTANCE_EXTRA[distanceCode]);
+    }
+
+    // Huffman codes go out most significant bit first
+    private static void writeHuffman(Bits bits, int code, int length) {
+        bits.write(Integer.reverse(code) >>> (32 - length), length);
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+// A time control made of one or more stages. Each stage grants base time when it starts and may
+// add a Fischer increment or a Bronstein delay per move. A stage with a move count hands over to
+// the next stage after that many moves; the last stage repeats.
+//
+// Text form, stages separated by commas: [moves/]minutes[+incrementSeconds][d delaySeconds],
+// e.g. "10", "5+3", "3d2" or "40/90+30,30+30".
+class TimeControl implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static class Stage implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int moves; // 0 = rest of the game
+        final long baseMillis;
+        final long incrementMillis;
+        final long delayMillis;
+
+        Stage(int moves, long baseMillis, long incrementMillis, long delayMillis) {
+            this.moves = moves;
+            this.baseMillis = baseMillis;
+            this.incrementMillis = incrementMillis;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    private final List<Stage> stages;
+    private final String text;
+
+    private TimeControl(List<Stage> stages, String text) {
+        this.stages = stages;
+        this.text = text;
+    }
+
+    public static TimeControl parse(String text) {
+        List<Stage> stages = new ArrayList<>();
+        for (String part : text.replace(" ", "").split(",")) {
+            int moves = 0;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                moves = Integer.parseInt(part.substring(0, slash));
+                part = part.substring(slash + 1);
+            }
+
+            long delay = 0;
+            int d = part.indexOf('d');
+            if (d >= 0) {
+                delay = parseSeconds(part.substring(d + 1));
+                part = part.substring(0, d);
+            }
+
+            long increment = 0;
+            int plus = part.indexOf('+');
+            if (plus >= 0) {
+                increment = parseSeconds(part.substring(plus + 1));
+                part = part.substring(0, plus);
+            }
+
+            long base = Math.round(Double.parseDouble(part) * 60_000);
+            if (base <= 0 || moves < 0 || increment < 0 || delay < 0) {
+                throw new NumberFormatException("Invalid time control stage: " + part);
+            }
+            stages.add(new Stage(moves, base, increment, delay));
+        }
+        return new TimeControl(stages, text.trim());
+    }
+
+    private static long parseSeconds(String text) {
+        return Math.round(Double.parseDouble(text) * 1000);
+    }
+
+    public Stage stage(int index) {
+        return stages.get(Math.min(index, stages.size() - 1));
+    }
+
+    public int stageCount() {
+        return stages.size();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
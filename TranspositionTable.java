@@ -0,0 +1,80 @@
+// Search results by position hash, shared by every thread searching the same game. Entries are two
+// longs written without locks; the first holds the key XORed with the second, so an entry torn by
+// two threads writing at once fails the key check on probe instead of giving a wrong result.
+final class TranspositionTable {
+    static final int EXACT = 1;
+    static final int LOWER = 2; // the score is at least this (a beta cutoff)
+    static final int UPPER = 3; // the score is at most this (no move raised alpha)
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int SCORE_BIAS = 1 << 20;
+
+    private long[] checks;
+    private long[] data;
+    private int mask;
+
+    TranspositionTable(int megabytes) {
+        resize(megabytes);
+    }
+
+    // Drops every entry. The size is rounded down to a power of two entries.
+    synchronized void resize(int megabytes) {
+        long entries = Long.highestOneBit(Math.max(1L, (long) megabytes << 20) / ENTRY_BYTES);
+        entries = Math.min(entries, 1 << 30);
+        checks = new long[(int) entries];
+        data = new long[(int) entries];
+        mask = (int) entries - 1;
+    }
+
+    synchronized void clear() {
+        java.util.Arrays.fill(checks, 0);
+        java.util.Arrays.fill(data, 0);
+    }
+
+    // The stored entry for the key, or 0 if there is none; read it with the static accessors
+    long probe(long key) {
+        int index = (int) key & mask;
+        long entry = data[index];
+        return (checks[index] ^ entry) == key && entry != 0 ? entry : 0;
+    }
+
+    // Keeps the deeper of two results for the same position; another position always replaces
+    void store(long key, int move, int depth, int bound, int score) {
+        int index = (int) key & mask;
+        long old = data[index];
+        if ((checks[index] ^ old) == key && depth(old) > depth && old != 0) return;
+
+        long entry = (move & 0x7FFFL)
+            | (long) Math.min(depth, 127) << 15
+            | (long) bound << 22
+            | (long) (score + SCORE_BIAS) << 24;
+        data[index] = entry;
+        checks[index] = key ^ entry;
+    }
+
+    static int move(long entry) {
+        return (int) (entry & 0x7FFF);
+    }
+
+    static int depth(long entry) {
+        return (int) (entry >>> 15) & 127;
+    }
+
+    static int bound(long entry) {
+        return (int) (entry >>> 22) & 3;
+    }
+
+    static int score(long entry) {
+        return (int) (entry >>> 24) - SCORE_BIAS;
+    }
+
+    // Thousandths of the table holding an entry, sampled from the front as UCI hashfull expects
+    int permille() {
+        int sample = Math.min(1000, data.length);
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            if (data[i] != 0) used++;
+        }
+        return used * 1000 / sample;
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Universal Chess Interface front-end, so tournament managers and GUIs can run the built-in engine
+// over stdin and stdout. Supports position startpos/fen with moves, go with clock, movetime,
+// depth, nodes, infinite and ponder, stop, ponderhit, and the Hash, Threads, Ponder, Move Overhead
+// and UCI_Chess960 options. With UCI_Chess960 castling moves are written king-takes-rook (e1h1),
+// as Chess960 GUIs expect; otherwise as the two-square king move.
+//
+// A GUI resends the whole game with every move, so a position that extends the previous one only
+// plays the new moves. Searches run on copies of the board, one engine per thread, all sharing
+// one transposition table.
+//
+// Usage: java UciEngine
+public class UciEngine {
+    private static final String NAME = "ChessGame";
+    private static final int DEFAULT_HASH_MB = 16;
+    private static final int MAX_HASH_MB = 4096;
+    private static final int MAX_THREADS = 64;
+    private static final int DEFAULT_MOVE_OVERHEAD = 30;
+    private static final int MAX_DEPTH = 64;
+    // Moves left in the game assumed when the GUI does not send movestogo
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+    private static final long PROGRESS_NANOS = 1_000_000_000L;
+
+    private final TranspositionTable table = new TranspositionTable(DEFAULT_HASH_MB);
+    private int threads = 1;
+    private int moveOverhead = DEFAULT_MOVE_OVERHEAD;
+    private boolean chess960 = false;
+
+    // The current position, and the position command it came from
+    private ChessBoard board;
+    private ChessPiece.Color toMove;
+    private ChessPiece.Color startColor;
+    private int startFullmove;
+    private String positionBase;
+    private final List<String> positionMoves = new ArrayList<>();
+
+    private Search search;
+
+    public static void main(String[] args) throws IOException {
+        Metrics.export();
+        new UciEngine().run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII)));
+    }
+
+    public UciEngine() {
+        setUp("startpos");
+    }
+
+    void run(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].equals("quit")) break;
+            try {
+                handle(words);
+            } catch (IllegalArgumentException e) {
+                send("info string " + e.getMessage());
+            }
+        }
+        stopSearch();
+    }
+
+    private void handle(String[] words) {
+        switch (words[0]) {
+            case "uci":
+                send("id name " + NAME);
+                send("id author the " + NAME + " authors");
+                send("option name Hash type spin default " + DEFAULT_HASH_MB + " min 1 max " + MAX_HASH_MB);
+                send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                send("option name Ponder type check default false");
+                send("option name Move Overhead type spin default " + DEFAULT_MOVE_OVERHEAD + " min 0 max 5000");
+                send("option name UCI_Chess960 type check default false");
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "ucinewgame":
+                stopSearch();
+                table.clear();
+                break;
+            case "setoption":
+                setOption(words);
+                break;
+            case "position":
+                position(words);
+                break;
+            case "go":
+                go(words);
+                break;
+            case "stop":
+                stopSearch();
+                break;
+            case "ponderhit":
+                if (search != null) search.ponderhit();
+                break;
+            case "d":
+                send("info string " + Fen.format(board, toMove, fullmoveNumber()));
+                break;
+            case "":
+                break;
+            default:
+                send("info string unknown command " + words[0]);
+                break;
+        }
+    }
+
+    private void setOption(String[] words) {
+        StringBuilder name = new StringBuilder();
+        String value = "";
+        for (int i = 1; i < words.length; i++) {
+            if (words[i].equals("name")) continue;
+            if (words[i].equals("value")) {
+                value = i + 1 < words.length ? words[i + 1] : "";
+                break;
+            }
+            if (name.length() > 0) name.append(' ');
+            name.append(words[i]);
+        }
+
+        stopSearch();
+        switch (name.toString().toLowerCase()) {
+            case "hash":
+                table.resize(clamp(Integer.parseInt(value), 1, MAX_HASH_MB));
+                break;
+            case "threads":
+                threads = clamp(Integer.parseInt(value), 1, MAX_THREADS);
+                break;
+            case "move overhead":
+                moveOverhead = clamp(Integer.parseInt(value), 0, 5000);
+                break;
+            case "uci_chess960":
+                chess960 = Boolean.parseBoolean(value);
+                break;
+            case "ponder":
+                // Only tells us the GUI may send go ponder, which is always handled
+                break;
+            default:
+                send("info string unknown option " + name);
+                break;
+        }
+    }
+
+    // position startpos|fen <fen> [moves m1 m2 ...]
+    private void position(String[] words) {
+        int movesAt = words.length;
+        for (int i = 1; i < words.length; i++) {
+            if (words[i].equals("moves")) {
+                movesAt = i;
+                break;
+            }
+        }
+        String base = String.join(" ", java.util.Arrays.asList(words).subList(1, movesAt));
+        int moveCount = Math.max(0, words.length - movesAt - 1);
+
+        boolean extendsCurrent = base.equals(positionBase) && moveCount >= positionMoves.size();
+        for (int i = 0; extendsCurrent && i < positionMoves.size(); i++) {
+            extendsCurrent = positionMoves.get(i).equals(words[movesAt + 1 + i]);
+        }
+        if (!extendsCurrent) {
+            setUp(base);
+        }
+
+        for (int i = positionMoves.size(); i < moveCount; i++) {
+            String text = words[movesAt + 1 + i];
+            int move = Notation.parseCoordinate(text);
+            if (!contains(board.getAllLegalMoves(toMove), move) || !board.makeMove(move)) {
+                // Keep the position consistent with the moves that were played
+                throw new IllegalArgumentException("illegal move " + text + " ignored with the rest of the moves");
+            }
+            positionMoves.add(text);
+            toMove = toMove.opposite();
+        }
+    }
+
+    private void setUp(String base) {
+        if (base.equals("startpos")) {
+            board = chess960 ? ChessBoard.chess960(Chess960.STANDARD) : new ChessBoard(false);
+            startColor = ChessPiece.Color.WHITE;
+            startFullmove = 1;
+        } else if (base.startsWith("fen ")) {
+            Fen.Setup setup = Fen.parse(base.substring(4), chess960);
+            board = setup.board;
+            startColor = setup.toMove;
+            startFullmove = setup.fullmoveNumber;
+        } else {
+            throw new IllegalArgumentException("position needs startpos or fen");
+        }
+        toMove = startColor;
+        positionBase = base;
+        positionMoves.clear();
+    }
+
+    private int fullmoveNumber() {
+        int plies = positionMoves.size() + (startColor == ChessPiece.Color.BLACK ? 1 : 0);
+        return startFullmove + plies / 2;
+    }
+
+    private void go(String[] words) {
+        stopSearch();
+
+        long whiteTime = -1;
+        long blackTime = -1;
+        long whiteIncrement = 0;
+        long blackIncrement = 0;
+        int movesToGo = 0;
+        long moveTime = -1;
+        int depth = MAX_DEPTH;
+        long nodes = Long.MAX_VALUE;
+        boolean infinite = false;
+        boolean ponder = false;
+        for (int i = 1; i < words.length; i++) {
+            String value = i + 1 < words.length ? words[i + 1] : "0";
+            switch (words[i]) {
+                case "wtime": whiteTime = Long.parseLong(value); break;
+                case "btime": blackTime = Long.parseLong(value); break;
+                case "winc": whiteIncrement = Long.parseLong(value); break;
+                case "binc": blackIncrement = Long.parseLong(value); break;
+                case "movestogo": movesToGo = Integer.parseInt(value); break;
+                case "movetime": moveTime = Long.parseLong(value); break;
+                case "depth": depth = clamp(Integer.parseInt(value), 1, MAX_DEPTH); break;
+                case "nodes": nodes = Long.parseLong(value); break;
+                case "infinite": infinite = true; break;
+                case "ponder": ponder = true; break;
+                default: break; // values, searchmoves and mate are not used
+            }
+        }
+
+        // Milliseconds to think, or -1 to think until the depth or node limit or a stop
+        long budget = -1;
+        boolean white = toMove == ChessPiece.Color.WHITE;
+        long remaining = white ? whiteTime : blackTime;
+        if (moveTime >= 0) {
+            budget = Math.max(1, moveTime - moveOverhead);
+        } else if (remaining >= 0 && !infinite) {
+            long increment = white ? whiteIncrement : blackIncrement;
+            long share = remaining / (movesToGo > 0 ? movesToGo : DEFAULT_MOVES_TO_GO) + increment * 3 / 4;
+            budget = Math.max(1, Math.min(share, remaining / 2) - moveOverhead);
+        }
+
+        Engine[] engines = new Engine[threads];
+        for (int i = 0; i < engines.length; i++) {
+            engines[i] = new Engine(board.copy(), toMove, table);
+        }
+        int[] legalMoves = board.getAllLegalMoves(toMove).clone();
+        search = new Search(engines, legalMoves, depth, nodes, budget, infinite, ponder);
+        Thread thread = new Thread(search, "uci-search");
+        thread.setDaemon(true);
+        search.thread = thread;
+        thread.start();
+    }
+
+    // Stops any search and waits until it has sent its bestmove
+    private void stopSearch() {
+        if (search == null) return;
+        search.stop();
+        try {
+            search.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        search = null;
+    }
+
+    private final class Search implements Runnable, Engine.Listener {
+        private final Engine[] engines;
+        private final int[] legalMoves;
+        private final int maxDepth;
+        private final long nodeLimit;
+        private final long budgetMillis;
+        private final boolean infinite;
+        private final long startNanos = System.nanoTime();
+
+        Thread thread;
+        // A pondering search has no time limit until the GUI says the predicted move was played
+        private volatile boolean pondering;
+        private volatile boolean stopRequested;
+        private ScheduledFuture<?> timer;
+        private int reportedDepth;
+        private long lastProgress = startNanos;
+
+        Search(Engine[] engines, int[] legalMoves, int maxDepth, long nodeLimit, long budgetMillis,
+               boolean infinite, boolean ponder) {
+            this.engines = engines;
+            this.legalMoves = legalMoves;
+            this.maxDepth = maxDepth;
+            this.nodeLimit = nodeLimit;
+            this.budgetMillis = budgetMillis;
+            this.infinite = infinite;
+            this.pondering = ponder;
+            if (!ponder) armTimer();
+        }
+
+        private void armTimer() {
+            if (budgetMillis >= 0) {
+                timer = ClockScheduler.runLater(this::stopEngines, TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+            }
+        }
+
+        @Override
+        public void run() {
+            Thread[] helpers = new Thread[engines.length - 1];
+            for (int i = 0; i < helpers.length; i++) {
+                Engine helper = engines[i + 1];
+                helpers[i] = new Thread(() -> helper.search(maxDepth, 1, null), "uci-helper-" + (i + 1));
+                helpers[i].setDaemon(true);
+                helpers[i].start();
+            }
+
+            List<Engine.Line> lines = engines[0].search(maxDepth, 1, this);
+            stopEngines();
+            for (Thread helper : helpers) {
+                try {
+                    helper.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (timer != null) timer.cancel(false);
+
+            // UCI only allows bestmove for infinite and pondering searches once the GUI asks
+            synchronized (this) {
+                while ((infinite || pondering) && !stopRequested) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+
+            if (lines.isEmpty()) {
+                send(legalMoves.length == 0 ? "bestmove 0000" : "bestmove " + Notation.coordinate(legalMoves[0]));
+            } else {
+                int[] best = lines.get(0).moves;
+                send("bestmove " + Notation.coordinate(best[0])
+                    + (best.length > 1 ? " ponder " + Notation.coordinate(best[1]) : ""));
+            }
+        }
+
+        // Called on the search thread every few thousand nodes and after each depth
+        @Override
+        public void info(Engine.Info info) {
+            long now = System.nanoTime();
+            long nodes = 0;
+            for (Engine engine : engines) {
+                nodes += engine.getNodes();
+            }
+            long millis = (now - startNanos) / 1_000_000;
+            long nps = millis == 0 ? 0 : nodes * 1000 / millis;
+
+            if (info.depth > reportedDepth && !info.lines.isEmpty()) {
+                reportedDepth = info.depth;
+                lastProgress = now;
+                Engine.Line line = info.lines.get(0);
+                StringBuilder text = new StringBuilder("info depth ").append(info.depth)
+                    .append(" score ").append(scoreText(line.score))
+                    .append(" nodes ").append(nodes).append(" nps ").append(nps)
+                    .append(" time ").append(millis).append(" hashfull ").append(table.permille())
+                    .append(" pv");
+                for (int move : line.moves) {
+                    text.append(' ').append(Notation.coordinate(move));
+                }
+                send(text.toString());
+
+                // Another depth takes several times as long as this one; do not start what cannot finish
+                if (budgetMillis >= 0 && !pondering && !infinite && millis > budgetMillis / 2) {
+                    stopEngines();
+                }
+            } else if (now - lastProgress >= PROGRESS_NANOS) {
+                lastProgress = now;
+                send("info nodes " + nodes + " nps " + nps + " time " + millis + " hashfull " + table.permille());
+            }
+
+            if (nodes >= nodeLimit) stopEngines();
+        }
+
+        void ponderhit() {
+            synchronized (this) {
+                pondering = false;
+                notifyAll();
+            }
+            armTimer();
+        }
+
+        void stop() {
+            synchronized (this) {
+                stopRequested = true;
+                notifyAll();
+            }
+            stopEngines();
+        }
+
+        private void stopEngines() {
+            for (Engine engine : engines) {
+                engine.stop();
+            }
+        }
+    }
+
+    // "cp 35", or "mate 3" / "mate -3" in moves for the side to move
+    private static String scoreText(int score) {
+        if (Math.abs(score) >= Engine.MATE - MAX_DEPTH) {
+            int moves = (Engine.MATE - Math.abs(score) + 1) / 2;
+            return "mate " + (score > 0 ? moves : -moves);
+        }
+        return "cp " + score;
+    }
+
+    private static synchronized void send(String line) {
+        System.out.println(line);
+        System.out.flush();
+    }
+
+    private static boolean contains(int[] moves, int move) {
+        for (int candidate : moves) {
+            if (candidate == move) return true;
+        }
+        return false;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}